@@ -0,0 +1,284 @@
+package com.JUL;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.*;
+
+//异步日志处理器：包装任意一个Handler（ConsoleHandler、FileHandler等）
+//ConsoleHandler/FileHandler的publish都是synchronized的，并且在调用日志的线程上写磁盘，
+//多个线程同时打日志时都会排队等I/O；这里调用线程只把LogRecord放进一个有界的环形队列（无锁），
+//由后台线程成批取出来交给被包装的Handler，每批只flush一次
+//
+//队列满了的时候的处理方式（overflow）：
+//  BLOCK  等待队列有空位（不丢日志，默认）
+//  DROP   低于dropBelow级别的日志直接丢掉，其他的等待
+//  SAMPLE 低于dropBelow级别的日志每sampleRate条只保留1条，其他的等待
+//close()时会把队列里剩下的日志全部写完再关闭被包装的Handler
+//
+//可以在logging.properties里配置：
+//  handlers = com.JUL.AsyncHandler
+//  com.JUL.AsyncHandler.target = java.util.logging.FileHandler
+//  com.JUL.AsyncHandler.capacity = 8192
+//  com.JUL.AsyncHandler.batchSize = 256
+//  com.JUL.AsyncHandler.overflow = DROP
+//  com.JUL.AsyncHandler.dropBelow = INFO
+//  com.JUL.AsyncHandler.sampleRate = 10
+//  com.JUL.AsyncHandler.level = ALL
+//  com.JUL.AsyncHandler.formatter = com.JUL.ColorFormatter    （会同时设置给被包装的Handler）
+//被包装的Handler自己的配置（比如java.util.logging.FileHandler.pattern）照常写
+public class AsyncHandler extends Handler {
+
+    public enum Overflow {BLOCK, DROP, SAMPLE}
+
+    private final Handler target;
+    private final int mask;
+    private final int batchSize;
+    private final Overflow overflow;
+    private final int dropBelow;
+    private final int sampleRate;
+
+    //有界多生产者单消费者队列：每个槽位有一个序号，生产者CAS抢到写入位置后写入记录，再把序号改成可读
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();   //下一个写入位置（生产者）
+    private volatile long head;                          //下一个读取位置（只有后台线程修改）
+
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+    //正在publish里的生产者个数：先加一再检查closed，close()设置closed后等它变回0，
+    //这样通过了检查的生产者放进队列的记录一定会在关闭被包装的Handler之前写出去
+    private final LongAdder inflight = new LongAdder();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * 从logging.properties读取配置（LogManager通过无参构造创建Handler）
+     */
+    public AsyncHandler() {
+        this(createTarget(property("target", "java.util.logging.ConsoleHandler")),
+                Integer.parseInt(property("capacity", "8192")),
+                Integer.parseInt(property("batchSize", "256")),
+                Overflow.valueOf(property("overflow", "BLOCK").trim().toUpperCase()),
+                Level.parse(property("dropBelow", "INFO").trim()),
+                Integer.parseInt(property("sampleRate", "10")));
+        String level = property("level", null);
+        if (level != null) setLevel(Level.parse(level.trim()));
+        String formatter = property("formatter", null);
+        if (formatter != null) {
+            try {
+                setFormatter((Formatter) ClassLoader.getSystemClassLoader().loadClass(formatter.trim()).getConstructor().newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法创建Formatter：" + formatter, e);
+            }
+        }
+    }
+
+    public AsyncHandler(Handler target) {
+        this(target, 8192, 256, Overflow.BLOCK, Level.INFO, 10);
+    }
+
+    /**
+     * @param target 被包装的Handler
+     * @param capacity 队列大小（会向上取整到2的幂）
+     * @param batchSize 后台线程每批最多处理多少条
+     * @param overflow 队列满时的处理方式
+     * @param dropBelow DROP/SAMPLE时，低于这个级别的日志才会被丢弃
+     * @param sampleRate SAMPLE时，每多少条保留1条
+     */
+    public AsyncHandler(Handler target, int capacity, int batchSize, Overflow overflow, Level dropBelow, int sampleRate) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity至少为2");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.target = target;
+        this.mask = size - 1;
+        this.batchSize = Math.max(1, batchSize);
+        this.overflow = overflow;
+        this.dropBelow = dropBelow.intValue();
+        this.sampleRate = Math.max(1, sampleRate);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        this.writer = new Thread(this::drainLoop, "async-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) return;
+        inflight.increment();
+        try {
+            if (closed) return;
+            //调用类和方法名是从调用栈推算出来的，必须在调用线程上先取一次，否则到了后台线程就不对了
+            record.getSourceClassName();
+            if (!offer(record)) {
+                overflowed.incrementAndGet();
+                if (shouldDrop(record)) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                if (!put(record)) return;
+            }
+            published.incrementAndGet();
+            if (writerParked) LockSupport.unpark(writer);
+        } finally {
+            inflight.decrement();
+        }
+    }
+
+    private boolean shouldDrop(LogRecord record) {
+        if (overflow == Overflow.BLOCK || record.getLevel().intValue() >= dropBelow) return false;
+        if (overflow == Overflow.DROP) return true;
+        return overflowed.get() % sampleRate != 0;
+    }
+
+    private boolean offer(LogRecord record) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, record);
+                    sequences.set(index, position + 1);   //标记为可读
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;   //队列已满
+            }
+            //被别的生产者抢先了，重试
+        }
+    }
+
+    //阻塞直到放进队列，处理器已经关闭时放弃并返回false
+    private boolean put(LogRecord record) {
+        int spins = 0;
+        while (!offer(record)) {
+            if (closed) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (writerParked) LockSupport.unpark(writer);
+            if (++spins < 64) Thread.onSpinWait();
+            else LockSupport.parkNanos(50_000);
+        }
+        return true;
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int n = drainBatch();
+            if (n > 0) continue;
+            if (closed && tail.get() == head) break;
+            writerParked = true;
+            //设置标志后再检查一次，避免生产者在检查标志之前放入的记录要等到超时才被处理
+            if (tail.get() == head && !closed) LockSupport.parkNanos(10_000_000);
+            writerParked = false;
+        }
+        target.flush();
+    }
+
+    //一次处理最多batchSize条，最后flush一次
+    private int drainBatch() {
+        long position = head;
+        int n = 0;
+        while (n < batchSize) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) break;
+            LogRecord record = slots.get(index);
+            slots.set(index, null);
+            sequences.set(index, position + mask + 1);   //槽位可以再次写入
+            position++;
+            n++;
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError("被包装的Handler写日志失败", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+        if (n > 0) {
+            head = position;
+            target.flush();
+            batches.incrementAndGet();
+        }
+        return n;
+    }
+
+    //flush只是提醒后台线程尽快处理，不会等待写完
+    @Override
+    public void flush() {
+        if (writerParked) LockSupport.unpark(writer);
+    }
+
+    //停止接收新日志，等待队列中的日志全部写完，再关闭被包装的Handler
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        //等已经通过closed检查的生产者放完（队列满时它们在put里看到closed会放弃）
+        while (inflight.sum() != 0) Thread.onSpinWait();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //关闭前刚好放进来的记录
+        while (drainBatch() > 0) {
+            //继续
+        }
+        target.close();
+    }
+
+    @Override
+    public void setFormatter(Formatter formatter) {
+        super.setFormatter(formatter);
+        target.setFormatter(formatter);
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    //队列中还没写出去的条数
+    public int pending() {
+        return (int) (tail.get() - head);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AsyncHandler[target=%s, 已接收=%d, 丢弃=%d, 批次=%d, 待写=%d]",
+                target.getClass().getSimpleName(), getPublished(), getDropped(), getBatches(), pending());
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(AsyncHandler.class.getName() + "." + name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static Handler createTarget(String className) {
+        try {
+            return (Handler) ClassLoader.getSystemClassLoader().loadClass(className.trim()).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法创建被包装的Handler：" + className, e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.JUL;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.*;
+
+//二进制结构化日志：LogRecord的各个字段按紧凑的二进制格式写入，查询用BinaryLogReader
+//文本日志里要找某个线程、某个级别的日志只能整个文件用正则扫一遍；
+//这里日志按块（默认64KB）写入，每块有一个索引项（时间范围、出现过的级别、线程/Logger的位图），
+//查询时先看索引，不可能有匹配的块直接跳过
+//
+//文件：名称-000001.blog（数据） + 名称-000001.bidx（索引，每块一个固定长度的索引项），写满maxFileSize换下一个
+//块的格式：块头（和索引项相同）+ 若干条日志
+//  每条日志：varint 时间差（和上一条相比，zigzag，块内第一条是完整的时间） + varint 级别 + varint 线程ID
+//          + 字符串 logger名 + 字符串 类名 + 字符串 方法名 + 字符串 消息
+//          + varint 参数个数 + 每个参数的字符串 + byte 是否有异常（有的话再加一个字符串：异常堆栈）
+//  字符串：块内的字典编号，varint(编号<<1)；第一次出现时写 varint(字节数<<1|1) + UTF-8字节，并分配下一个编号
+//  每块的字典单独从0开始，所以每块都能单独解码，跳过前面的块不影响后面
+//
+//logging.properties配置：
+//  com.JUL.BinaryLogHandler.pattern = logs/test
+//  com.JUL.BinaryLogHandler.blockSize = 65536
+//  com.JUL.BinaryLogHandler.maxFileSize = 268435456
+//  com.JUL.BinaryLogHandler.level = ALL
+public class BinaryLogHandler extends Handler {
+
+    static final int MAGIC = 0x424c4f47;   //"BLOG"
+    //块头/索引项：int 魔数 + long 块在数据文件中的位置 + int 块长度（不含块头） + int 条数
+    //           + long 最早时间 + long 最晚时间 + int 级别位图 + long 线程位图 + long Logger位图
+    static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 8 + 8 + 4 + 8 + 8;
+
+    private final Path dir;
+    private final String name;
+    private final int blockSize;
+    private final long maxFileSize;
+
+    private FileChannel data, index;
+    private int segment;
+
+    //当前块
+    private ByteBuffer block;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private int count;
+    private long minMillis, maxMillis, lastMillis;
+    private int levelMask;
+    private long threadBloom, loggerBloom;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private boolean closed;
+
+    /**
+     * 从logging.properties读取配置
+     */
+    public BinaryLogHandler() throws IOException {
+        this(Paths.get(property("pattern", "test")),
+                Integer.parseInt(property("blockSize", "65536")),
+                Long.parseLong(property("maxFileSize", String.valueOf(256L * 1024 * 1024))));
+        String level = property("level", null);
+        if (level != null) setLevel(Level.parse(level.trim()));
+    }
+
+    /**
+     * @param pattern 目录/名称，比如 logs/test 会写出 logs/test-000001.blog
+     * @param blockSize 每块的大小（字节），块越小查询时跳得越准，索引越大
+     * @param maxFileSize 每个文件的最大大小
+     */
+    public BinaryLogHandler(Path pattern, int blockSize, long maxFileSize) throws IOException {
+        this.dir = pattern.toAbsolutePath().getParent();
+        this.name = pattern.getFileName().toString();
+        this.blockSize = Math.max(1024, blockSize);
+        this.maxFileSize = maxFileSize;
+        this.block = ByteBuffer.allocate(this.blockSize + 1024);
+        Files.createDirectories(dir);
+        //接着最后一个文件的编号往后写，不追加到旧文件里（旧文件最后一块可能没写完）
+        segment = BinaryLogReader.segments(dir, name).size() + 1;
+        while (Files.exists(BinaryLogReader.dataPath(dir, name, segment))) segment++;
+        openSegment();
+        resetBlock();
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) return;
+        try {
+            int start = block.position(), words = dictionary.size();
+            try {
+                encode(record);
+            } catch (java.nio.BufferOverflowException e) {
+                //当前块放不下：先把这条之前的写出去，再放到新块里
+                rewind(start, words);
+                if (count > 0) {
+                    writeBlock();
+                    resetBlock();
+                } else {
+                    //一条就比一个块还大
+                    block = ByteBuffer.allocate(block.capacity() * 2);
+                    dictionary.clear();
+                }
+                publish(record);
+                return;
+            } catch (RuntimeException | Error e) {
+                //比如参数的toString()抛出异常：把写了一半的这条去掉，否则这一块后面的日志都解不出来
+                rewind(start, words);
+                throw e;
+            }
+            if (block.position() >= blockSize) {
+                writeBlock();
+                resetBlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            reportError("写二进制日志失败", e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    //撤销写了一半的一条日志：块退回到这条之前的位置，去掉这条新加进字典的字符串
+    private void rewind(int position, int words) {
+        block.position(position);
+        if (dictionary.size() > words) dictionary.values().removeIf(id -> id > words);
+    }
+
+    private void encode(LogRecord record) {
+        long millis = record.getMillis();
+        writeVarLong(zigzag(count == 0 ? millis : millis - lastMillis));
+        int level = record.getLevel().intValue();
+        writeVarLong(zigzag(level));
+        long thread = record.getLongThreadID();
+        writeVarLong(thread);
+        String logger = record.getLoggerName();
+        writeString(logger);
+        writeString(record.getSourceClassName());
+        writeString(record.getSourceMethodName());
+        writeString(record.getMessage());
+        Object[] parameters = record.getParameters();
+        int n = parameters == null ? 0 : parameters.length;
+        writeVarLong(n);
+        for (int i = 0; i < n; i++) writeString(String.valueOf(parameters[i]));
+        Throwable thrown = record.getThrown();
+        block.put((byte) (thrown == null ? 0 : 1));
+        if (thrown != null) {
+            StringWriter trace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(trace));
+            writeString(trace.toString());
+        }
+        //整条写成功之后才更新块的统计
+        if (count == 0) minMillis = maxMillis = millis;
+        minMillis = Math.min(minMillis, millis);
+        maxMillis = Math.max(maxMillis, millis);
+        lastMillis = millis;
+        count++;
+        levelMask |= levelBit(level);
+        threadBloom |= bloomBit(thread);
+        loggerBloom |= bloomBit(logger == null ? 0 : logger.hashCode());
+    }
+
+    //null用编号0表示；其他字符串先查字典
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            writeVarLong((long) id << 1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong((long) bytes.length << 1 | 1);
+        block.put(bytes);
+        dictionary.put(value, dictionary.size() + 1);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            block.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        block.put((byte) value);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    //标准级别各占一位，自定义的级别都放在最高位
+    static int levelBit(int level) {
+        switch (level) {
+            case 300: return 1;      //FINEST
+            case 400: return 1 << 1; //FINER
+            case 500: return 1 << 2; //FINE
+            case 700: return 1 << 3; //CONFIG
+            case 800: return 1 << 4; //INFO
+            case 900: return 1 << 5; //WARNING
+            case 1000: return 1 << 6; //SEVERE
+            default: return 1 << 7;
+        }
+    }
+
+    static long bloomBit(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return 1L << (h >>> 58);
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) return;
+        if (data.size() + HEADER_SIZE + block.position() > maxFileSize && data.size() > 0) {
+            data.close();
+            index.close();
+            segment++;
+            openSegment();
+        }
+        long offset = data.size();
+        header.clear();
+        header.putInt(MAGIC).putLong(offset).putInt(block.position()).putInt(count)
+                .putLong(minMillis).putLong(maxMillis).putInt(levelMask).putLong(threadBloom).putLong(loggerBloom);
+        header.flip();
+        block.flip();
+        ByteBuffer[] buffers = {header, block};
+        long total = HEADER_SIZE + block.remaining();
+        long written = 0;
+        while (written < total) written += data.write(buffers);
+        //数据写完了再写索引，索引里有的块一定是完整的
+        header.rewind();
+        while (header.hasRemaining()) index.write(header);
+    }
+
+    private void resetBlock() {
+        if (block.capacity() > blockSize * 4) block = ByteBuffer.allocate(blockSize + 1024);
+        block.clear();
+        dictionary.clear();
+        count = 0;
+        levelMask = 0;
+        threadBloom = loggerBloom = 0;
+    }
+
+    private void openSegment() throws IOException {
+        data = FileChannel.open(BinaryLogReader.dataPath(dir, name, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        index = FileChannel.open(BinaryLogReader.indexPath(dir, name, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    //把当前没写满的块也写出去
+    @Override
+    public synchronized void flush() {
+        if (closed) return;
+        try {
+            writeBlock();
+            resetBlock();
+        } catch (IOException e) {
+            reportError("写二进制日志失败", e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        try {
+            data.close();
+            index.close();
+        } catch (IOException e) {
+            reportError("关闭二进制日志失败", e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(BinaryLogHandler.class.getName() + "." + name);
+        return value == null ? defaultValue : value;
+    }
+}
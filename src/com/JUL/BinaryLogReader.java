@@ -0,0 +1,264 @@
+package com.JUL;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+//读取BinaryLogHandler写的二进制日志
+//先读索引文件（.bidx），时间范围、级别、线程、Logger都不可能匹配的块直接跳过，只解码剩下的块
+//索引文件丢了或者比数据文件短（写到一半崩溃），就沿着数据文件里的块头一块一块往后跳
+//
+//命令行用法：
+//  java com.JUL.BinaryLogReader logs/test [--from 2026-10-18T12:00:00] [--to 2026-10-18T13:00:00]
+//                                         [--level WARNING] [--thread 1] [--logger com.JUL.Main]
+//  结果按文本格式输出，最后输出扫描了多少块、跳过了多少块
+public class BinaryLogReader {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    //查询条件，null或者默认值表示不限制
+    public static class Query {
+        public long from = Long.MIN_VALUE, to = Long.MAX_VALUE;   //时间范围（毫秒，包含两端）
+        public Level level;       //只要这个级别及以上的
+        public Long thread;
+        public String logger;
+
+        boolean mayMatch(long min, long max, int levelMask, long threadBloom, long loggerBloom) {
+            if (max < from || min > to) return false;
+            if (level != null && (levelMask & levelsAtLeast(level.intValue())) == 0) return false;
+            if (thread != null && (threadBloom & BinaryLogHandler.bloomBit(thread)) == 0) return false;
+            return logger == null || (loggerBloom & BinaryLogHandler.bloomBit(logger.hashCode())) != 0;
+        }
+
+        boolean matches(Entry e) {
+            return e.millis >= from && e.millis <= to
+                    && (level == null || e.level >= level.intValue())
+                    && (thread == null || e.thread == thread)
+                    && (logger == null || logger.equals(e.logger));
+        }
+
+        //级别>=level的记录可能出现在哪些位上（自定义级别的位总是算上）
+        private static int levelsAtLeast(int level) {
+            int mask = 1 << 7;
+            int[] standard = {300, 400, 500, 700, 800, 900, 1000};
+            for (int i = 0; i < standard.length; i++) if (standard[i] >= level) mask |= 1 << i;
+            return mask;
+        }
+    }
+
+    //一条日志
+    public static class Entry {
+        public long millis;
+        public int level;
+        public long thread;
+        public String logger, sourceClass, sourceMethod, message, thrown;
+        public String[] parameters;
+
+        //和Formatter.formatMessage一样：有参数并且消息里有{0}这样的占位符时才格式化
+        public String formattedMessage() {
+            if (message == null || parameters.length == 0 || !message.contains("{")) return message;
+            try {
+                return MessageFormat.format(message, (Object[]) parameters);
+            } catch (IllegalArgumentException e) {
+                return message;
+            }
+        }
+
+        @Override
+        public String toString() {
+            String time = TIME.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+            String text = time + "  " + Level.parse(String.valueOf(level)).getName() + " [" + thread + "] "
+                    + logger + " " + sourceClass + "." + sourceMethod + " : " + formattedMessage();
+            return thrown == null ? text : text + "\n" + thrown.stripTrailing();
+        }
+    }
+
+    //查询统计
+    public static class Stats {
+        public int blocks, skippedBlocks;
+        public long matched;
+
+        @Override
+        public String toString() {
+            return "共" + blocks + "块，跳过" + skippedBlocks + "块，匹配" + matched + "条";
+        }
+    }
+
+    /**
+     * 按顺序读取pattern（目录/名称）下所有文件中符合条件的日志
+     */
+    public static Stats query(Path pattern, Query query, Consumer<Entry> consumer) throws IOException {
+        Path dir = pattern.toAbsolutePath().getParent();
+        String name = pattern.getFileName().toString();
+        Stats stats = new Stats();
+        for (int segment : segments(dir, name)) {
+            try (FileChannel data = FileChannel.open(dataPath(dir, name, segment), StandardOpenOption.READ)) {
+                for (ByteBuffer header : headers(data, indexPath(dir, name, segment))) {
+                    stats.blocks++;
+                    long offset = header.getLong(4);
+                    int length = header.getInt(12);
+                    if (!query.mayMatch(header.getLong(20), header.getLong(28), header.getInt(36),
+                            header.getLong(40), header.getLong(48))) {
+                        stats.skippedBlocks++;
+                        continue;
+                    }
+                    ByteBuffer block = ByteBuffer.allocate(length);
+                    readFully(data, block, offset + BinaryLogHandler.HEADER_SIZE);
+                    block.flip();
+                    decodeBlock(block, header.getInt(16), query, consumer, stats);
+                }
+            }
+        }
+        return stats;
+    }
+
+    //所有块的块头：优先用索引文件，索引不完整时从数据文件里接着往后找
+    private static List<ByteBuffer> headers(FileChannel data, Path indexFile) throws IOException {
+        List<ByteBuffer> headers = new ArrayList<>();
+        long next = 0;
+        if (Files.exists(indexFile)) {
+            ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+            while (index.remaining() >= BinaryLogHandler.HEADER_SIZE) {
+                ByteBuffer header = index.slice(index.position(), BinaryLogHandler.HEADER_SIZE);
+                index.position(index.position() + BinaryLogHandler.HEADER_SIZE);
+                if (header.getInt(0) != BinaryLogHandler.MAGIC) break;
+                headers.add(header);
+                next = header.getLong(4) + BinaryLogHandler.HEADER_SIZE + header.getInt(12);
+            }
+        }
+        long size = data.size();
+        while (next + BinaryLogHandler.HEADER_SIZE <= size) {
+            ByteBuffer header = ByteBuffer.allocate(BinaryLogHandler.HEADER_SIZE);
+            readFully(data, header, next);
+            header.flip();
+            long end = next + BinaryLogHandler.HEADER_SIZE + header.getInt(12);
+            //最后一块没写完整就不要了
+            if (header.getInt(0) != BinaryLogHandler.MAGIC || header.getLong(4) != next || end > size) break;
+            headers.add(header);
+            next = end;
+        }
+        return headers;
+    }
+
+    private static void decodeBlock(ByteBuffer block, int count, Query query, Consumer<Entry> consumer, Stats stats) {
+        List<String> dictionary = new ArrayList<>();
+        long millis = 0;
+        for (int i = 0; i < count; i++) {
+            Entry e = new Entry();
+            long delta = unzigzag(readVarLong(block));
+            millis = i == 0 ? delta : millis + delta;
+            e.millis = millis;
+            e.level = (int) unzigzag(readVarLong(block));
+            e.thread = readVarLong(block);
+            e.logger = readString(block, dictionary);
+            e.sourceClass = readString(block, dictionary);
+            e.sourceMethod = readString(block, dictionary);
+            e.message = readString(block, dictionary);
+            int n = (int) readVarLong(block);
+            e.parameters = new String[n];
+            for (int j = 0; j < n; j++) e.parameters[j] = readString(block, dictionary);
+            if (block.get() != 0) e.thrown = readString(block, dictionary);
+            if (query.matches(e)) {
+                stats.matched++;
+                consumer.accept(e);
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer block, List<String> dictionary) {
+        long value = readVarLong(block);
+        if ((value & 1) == 0) return value == 0 ? null : dictionary.get((int) (value >>> 1) - 1);
+        int length = (int) (value >>> 1);
+        String s = new String(block.array(), block.arrayOffset() + block.position(), length, StandardCharsets.UTF_8);
+        block.position(block.position() + length);
+        dictionary.add(s);
+        return s;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+
+    //目录下名称-NNNNNN.blog的编号，从小到大（编号超过6位时文件名会变长）
+    static List<Integer> segments(Path dir, String name) throws IOException {
+        Pattern pattern = Pattern.compile(Pattern.quote(name) + "-(\\d+)\\.blog");
+        List<Integer> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return segments;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                Matcher m = pattern.matcher(f.getFileName().toString());
+                if (m.matches()) segments.add(Integer.parseInt(m.group(1)));
+            });
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    static Path dataPath(Path dir, String name, int segment) {
+        return dir.resolve(String.format("%s-%06d.blog", name, segment));
+    }
+
+    static Path indexPath(Path dir, String name, int segment) {
+        return dir.resolve(String.format("%s-%06d.bidx", name, segment));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("用法：BinaryLogReader 目录/名称 [--from 时间] [--to 时间] [--level 级别] [--thread 线程ID] [--logger 名称]");
+            return;
+        }
+        Query query = new Query();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--from": query.from = parseTime(value); break;
+                case "--to": query.to = parseTime(value); break;
+                case "--level": query.level = Level.parse(value); break;
+                case "--thread": query.thread = Long.parseLong(value); break;
+                case "--logger": query.logger = value; break;
+                default: throw new IllegalArgumentException("未知参数：" + args[i]);
+            }
+        }
+        Stats stats = query(Paths.get(args[0]), query, System.out::println);
+        System.err.println(stats);
+    }
+
+    //2026-10-18T12:00:00 或者毫秒数
+    private static long parseTime(String value) {
+        if (value.chars().allMatch(Character::isDigit)) return Long.parseLong(value);
+        return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
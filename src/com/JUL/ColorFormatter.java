@@ -0,0 +1,158 @@
+package com.JUL;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+//带颜色的日志格式，原来是Main里的匿名内部类，单独拿出来方便复用
+//原来每条日志都要new一个SimpleDateFormat、调用两次String.format、再拼接一串字符串，日志多的时候产生大量垃圾
+//现在：
+// - 时间前缀"yyyy-MM-dd HH:mm:ss."按秒缓存，同一秒内只需要补上毫秒
+// - 每个线程复用一个StringBuilder，补空格对齐也直接写在里面
+// - encodeTo直接编码成字节写到输出流，不产生中间的String（配合FastStreamHandler使用）
+//输出的格式和原来完全一样
+public class ColorFormatter extends Formatter {
+
+    private static final int THREAD_WIDTH = 10, CLASS_WIDTH = 20;
+    private static final int MAX_RETAINED = 16 * 1024;   //偶尔有特别长的日志时，缓冲区不一直占着
+
+    private final Charset charset;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    public ColorFormatter() {
+        this(StandardCharsets.UTF_8);
+    }
+
+    public ColorFormatter(Charset charset) {
+        this.charset = charset;
+    }
+
+    //每个线程自己的缓冲区
+    private final class State {
+        final StringBuilder builder = new StringBuilder(256);
+        final char[] prefix = new char[20];    //"yyyy-MM-dd HH:mm:ss."
+        long prefixSecond = Long.MIN_VALUE;
+        final CharsetEncoder encoder = charset.newEncoder();
+        char[] chars = new char[256];
+        CharBuffer charBuffer = CharBuffer.wrap(chars);
+        final byte[] bytes = new byte[4096];
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public String format(LogRecord record) {
+        State s = state.get();
+        formatTo(record, s);
+        return s.builder.toString();
+    }
+
+    /**
+     * 把日志格式化到线程自己的StringBuilder中（下次调用时会被清空）
+     */
+    public StringBuilder formatTo(LogRecord record) {
+        State s = state.get();
+        formatTo(record, s);
+        return s.builder;
+    }
+
+    /**
+     * 格式化并编码后直接写到输出流，不产生String
+     */
+    public void encodeTo(LogRecord record, OutputStream out) throws IOException {
+        State s = state.get();
+        formatTo(record, s);
+        StringBuilder builder = s.builder;
+        int length = builder.length();
+        if (s.chars.length < length || s.chars.length > MAX_RETAINED && length <= MAX_RETAINED) {
+            s.chars = new char[Math.max(length, 256)];
+            s.charBuffer = CharBuffer.wrap(s.chars);
+        }
+        builder.getChars(0, length, s.chars, 0);
+        CharBuffer in = s.charBuffer;
+        in.clear().limit(length);
+        ByteBuffer buffer = s.byteBuffer;
+        CharsetEncoder encoder = s.encoder.reset();
+        while (true) {
+            buffer.clear();
+            CoderResult result = encoder.encode(in, buffer, true);
+            if (result.isUnderflow()) result = encoder.flush(buffer);
+            out.write(s.bytes, 0, buffer.position());
+            if (result.isUnderflow()) break;
+            if (result.isError()) result.throwException();
+        }
+    }
+
+    private void formatTo(LogRecord record, State s) {
+        StringBuilder builder = s.builder;
+        builder.setLength(0);
+        if (builder.capacity() > MAX_RETAINED) builder.trimToSize();
+        //\033[33m作为颜色代码，30~37都有对应的颜色，38是没有颜色，IDEA能显示，但是某些地方可能不支持
+        builder.append("\033[38m");
+        appendTime(builder, s, record.getMillis());
+        builder.append("  \033[33m").append(record.getLevel().getName());  // 获取日志级别名称
+        builder.append(" \033[35m").append(record.getLongThreadID());   //线程ID
+        builder.append("\033[38m --- [");
+        padLeft(builder, Thread.currentThread().getName(), THREAD_WIDTH);   //线程名称（留出10格空间，右对齐）
+        builder.append("] \033[36m");
+        padRight(builder, record.getSourceClassName(), CLASS_WIDTH);   //发送日志的类名（留出20格空间，左对齐）
+        builder.append("\033[38m : ").append(record.getMessage()).append('\n');
+    }
+
+    private static void appendTime(StringBuilder builder, State s, long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != s.prefixSecond) {
+            //换了一秒才重新计算日期部分
+            ZoneOffset offset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(second));
+            LocalDateTime time = LocalDateTime.ofEpochSecond(second, 0, offset);
+            char[] p = s.prefix;
+            digits(p, 0, time.getYear(), 4);
+            p[4] = '-';
+            digits(p, 5, time.getMonthValue(), 2);
+            p[7] = '-';
+            digits(p, 8, time.getDayOfMonth(), 2);
+            p[10] = ' ';
+            digits(p, 11, time.getHour(), 2);
+            p[13] = ':';
+            digits(p, 14, time.getMinute(), 2);
+            p[16] = ':';
+            digits(p, 17, time.getSecond(), 2);
+            p[19] = '.';
+            s.prefixSecond = second;
+        }
+        builder.append(s.prefix);
+        int ms = Math.floorMod(millis, 1000);
+        builder.append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10)).append((char) ('0' + ms % 10));
+    }
+
+    private static void digits(char[] chars, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    //和String.format("%10s")一样：不够宽度时前面补空格
+    private static void padLeft(StringBuilder builder, String value, int width) {
+        if (value == null) value = "null";
+        for (int i = value.length(); i < width; i++) builder.append(' ');
+        builder.append(value);
+    }
+
+    //和String.format("%-20s")一样：不够宽度时后面补空格
+    private static void padRight(StringBuilder builder, String value, int width) {
+        if (value == null) value = "null";
+        builder.append(value);
+        for (int i = value.length(); i < width; i++) builder.append(' ');
+    }
+}
@@ -0,0 +1,73 @@
+package com.JUL;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+//输出到OutputStream的Handler
+//StreamHandler一定会先调用Formatter.format得到String，再经过Writer编码；
+//这里如果格式是ColorFormatter，就让它直接把字节写进缓冲流，整个过程不产生String
+//可以单独用，也可以作为AsyncHandler的被包装Handler
+public class FastStreamHandler extends Handler {
+
+    private final OutputStream out;
+    private final boolean closeStream;
+    private final boolean autoFlush;
+
+    //输出到控制台（System.out），和ConsoleHandler一样每条都flush，关闭时不会关掉System.out
+    public FastStreamHandler() {
+        this(System.out, false, true);
+    }
+
+    /**
+     * @param closeStream close()时是否关闭out
+     * @param autoFlush 每条日志后是否flush（放在AsyncHandler里面时不需要，每批会flush一次）
+     */
+    public FastStreamHandler(OutputStream out, boolean closeStream, boolean autoFlush) {
+        this.out = new BufferedOutputStream(out, 8192);
+        this.closeStream = closeStream;
+        this.autoFlush = autoFlush;
+        setFormatter(new ColorFormatter());
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        if (!isLoggable(record)) return;
+        try {
+            Formatter formatter = getFormatter();
+            if (formatter instanceof ColorFormatter) {
+                ((ColorFormatter) formatter).encodeTo(record, out);
+            } else {
+                out.write(formatter.format(record).getBytes(StandardCharsets.UTF_8));
+            }
+            if (autoFlush) out.flush();
+        } catch (IOException | RuntimeException e) {
+            reportError("写日志失败", e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            reportError("flush失败", e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        if (!closeStream) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            reportError("关闭失败", e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+}
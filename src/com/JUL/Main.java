@@ -1,8 +1,6 @@
 package com.JUL;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Properties;
 import java.util.logging.*;
 
@@ -37,24 +35,8 @@ public class Main {
 
         //addHandler() 是 Logger 类提供的方法 作用是给日志记录器绑定一个处理器
         logger.addHandler(handler);
-        //创建匿名内部类实现自定义的格式
-        handler.setFormatter(new Formatter() {
-            @Override
-            public String format(LogRecord record) {
-                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-                String time = format.format(new Date(record.getMillis()));  //格式化日志时间
-                String level = record.getLevel().getName();  // 获取日志级别名称
-                // String level = record.getLevel().getLocalizedName();   // 获取本地化名称（语言跟随系统）
-                String thread = String.format("%10s", Thread.currentThread().getName());  //线程名称（做了格式化处理，留出10格空间）
-                long threadID = record.getThreadID();   //线程ID
-                String className = String.format("%-20s", record.getSourceClassName());  //发送日志的类名
-                String msg = record.getMessage();   //日志消息
-
-                //\033[33m作为颜色代码，30~37都有对应的颜色，38是没有颜色，IDEA能显示，但是某些地方可能不支持
-                return "\033[38m" + time + "  \033[33m" + level + " \033[35m" + threadID
-                        + "\033[38m --- [" + thread + "] \033[36m" + className + "\033[38m : " + msg + "\n";
-            }
-        });
+        //创建匿名内部类实现自定义的格式（已经移到ColorFormatter中）
+        handler.setFormatter(new ColorFormatter());
         //自定义过滤规则
         //lambda表达式
         logger.setFilter(record -> !record.getMessage().contains("普通"));
@@ -77,7 +59,11 @@ public class Main {
         fileHandler.setLevel(Level.WARNING);
         //设置日志的格式
         fileHandler.setFormatter(new SimpleFormatter());
-        logger.addHandler(fileHandler);
+        //FileHandler在打日志的线程上同步写磁盘，包装成AsyncHandler后由后台线程成批写入
+        //（后台线程写出时Thread.currentThread()是后台线程，所以ColorFormatter这种取当前线程名的格式不要放在异步Handler里）
+        AsyncHandler asyncFileHandler = new AsyncHandler(fileHandler);
+        asyncFileHandler.setLevel(Level.WARNING);
+        logger.addHandler(asyncFileHandler);
 
 
 
@@ -87,6 +73,9 @@ public class Main {
         logger.log(Level.CONFIG, "级别低于普通信息");
 
         System.out.println(logger.getParent().getClass());
+        //关闭时会等队列里的日志全部写完
+        asyncFileHandler.close();
+        System.out.println(asyncFileHandler);
 
         //Properties配置文件 是Java的一种配置文件 格式为配置项=配置值
         //继承自HashTable 类似map对象
@@ -0,0 +1,383 @@
+package com.JUL;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+//按大小/时间滚动的日志文件Handler，通过内存映射写文件
+//FileHandler("test.log", true)一直往一个文件后面追加，每条日志都是一次write系统调用；
+//这里每个日志文件（段）先预分配segmentSize大小并映射到内存，写日志只是内存拷贝
+//
+//文件名：目录/名称-000001.log，写满segmentSize或者超过rollInterval就换下一个段，
+//换下来的段由后台线程压缩成 名称-000001.log.gz，只保留最近maxFiles个压缩文件
+//
+//刷盘策略（fsync）：
+//  BATCH    每次flush()都刷盘（放在AsyncHandler里面时就是每批刷一次）
+//  INTERVAL 单独的刷盘线程每隔fsyncInterval毫秒刷一次（和压缩不在同一个线程上）
+//  NEVER    交给操作系统
+//
+//崩溃恢复：预分配的部分全是0，重新打开时从文件末尾往前找到最后一个非0字节，
+//再退回到最后一个换行符，丢掉写了一半的那条日志，从那里继续写
+//
+//logging.properties配置：
+//  com.JUL.MappedFileHandler.pattern = logs/test        （目录/名称）
+//  com.JUL.MappedFileHandler.segmentSize = 67108864
+//  com.JUL.MappedFileHandler.rollInterval = 86400000     （毫秒，0表示不按时间滚动）
+//  com.JUL.MappedFileHandler.maxFiles = 10
+//  com.JUL.MappedFileHandler.fsync = INTERVAL
+//  com.JUL.MappedFileHandler.fsyncInterval = 1000
+//  com.JUL.MappedFileHandler.formatter = java.util.logging.SimpleFormatter
+//  com.JUL.MappedFileHandler.level = ALL
+public class MappedFileHandler extends Handler {
+
+    public enum Fsync {BATCH, INTERVAL, NEVER}
+
+    private final Path dir;
+    private final String name;
+    private final Pattern segmentPattern;
+    private final int segmentSize;
+    private final long rollInterval;
+    private final int maxFiles;
+    private final Fsync fsync;
+
+    private FileChannel channel;
+    //换段时在旧的映射上加锁后置为null，刷盘线程拿着同一把锁检查它，保证不会去刷一个已经释放的映射
+    private MappedByteBuffer mapped;
+    private int segment;
+    private long segmentStart;
+    //当前段里已经刷过盘的位置，之后写入的部分还没刷
+    private int forced;
+    private boolean closed;
+
+    private final Bytes bytes = new Bytes();
+    //压缩换下来的段
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> daemon(r, "mapped-log-compress"));
+    //INTERVAL策略的定时刷盘，单独一个线程：压缩一个64MB的段要好几秒，不能让刷盘排在它后面
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * 从logging.properties读取配置
+     */
+    public MappedFileHandler() throws IOException {
+        this(Paths.get(property("pattern", "test")),
+                Integer.parseInt(property("segmentSize", String.valueOf(64 * 1024 * 1024))),
+                Long.parseLong(property("rollInterval", "0")),
+                Integer.parseInt(property("maxFiles", "10")),
+                Fsync.valueOf(property("fsync", "INTERVAL").trim().toUpperCase()),
+                Long.parseLong(property("fsyncInterval", "1000")));
+        String level = property("level", null);
+        if (level != null) setLevel(Level.parse(level.trim()));
+        String formatter = property("formatter", null);
+        if (formatter != null) {
+            try {
+                setFormatter((Formatter) ClassLoader.getSystemClassLoader().loadClass(formatter.trim()).getConstructor().newInstance());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法创建Formatter：" + formatter, e);
+            }
+        }
+    }
+
+    /**
+     * @param pattern 目录/名称，比如 logs/test 会写出 logs/test-000001.log
+     * @param segmentSize 每个段的大小（字节）
+     * @param rollInterval 按时间滚动的间隔（毫秒），0表示只按大小滚动
+     * @param maxFiles 保留的压缩文件个数
+     * @param fsync 刷盘策略
+     * @param fsyncInterval INTERVAL策略的刷盘间隔（毫秒）
+     */
+    public MappedFileHandler(Path pattern, int segmentSize, long rollInterval, int maxFiles,
+                             Fsync fsync, long fsyncInterval) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize至少为4096");
+        Path parent = pattern.toAbsolutePath().getParent();
+        this.dir = parent;
+        this.name = pattern.getFileName().toString();
+        this.segmentPattern = Pattern.compile(Pattern.quote(name) + "-(\\d+)\\.log(\\.gz)?");
+        this.segmentSize = segmentSize;
+        this.rollInterval = rollInterval;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.fsync = fsync;
+        setFormatter(new SimpleFormatter());
+        Files.createDirectories(dir);
+        recover();
+        if (fsync == Fsync.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "mapped-log-fsync"));
+            syncer.scheduleWithFixedDelay(this::forceQuietly, fsyncInterval, fsyncInterval, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) return;
+        try {
+            bytes.reset();
+            Formatter formatter = getFormatter();
+            if (formatter instanceof ColorFormatter) {
+                ((ColorFormatter) formatter).encodeTo(record, bytes);
+            } else {
+                bytes.write(formatter.format(record).getBytes(StandardCharsets.UTF_8));
+            }
+            long now = System.currentTimeMillis();
+            if (mapped.remaining() < bytes.size() || rollInterval > 0 && now - segmentStart >= rollInterval) {
+                roll();
+            }
+            //比一个段还长的日志只能截断
+            mapped.put(bytes.array(), 0, Math.min(bytes.size(), mapped.remaining()));
+        } catch (IOException | RuntimeException e) {
+            reportError("写日志失败", e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (fsync == Fsync.BATCH) forceQuietly();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                reportError("关闭日志文件失败", e, ErrorManager.CLOSE_FAILURE);
+            }
+        }
+        if (syncer != null) syncer.shutdown();
+        //等已经提交的压缩任务做完
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //当前正在写的段
+    public synchronized Path currentFile() {
+        return segmentPath(segment);
+    }
+
+    //只在锁里记下要刷的区间，刷盘（可能要几毫秒）在锁外面做，刷盘期间publish照常写入后面的位置
+    //刷盘成功后才前移forced，失败时这一段下次还会再刷
+    private void forceQuietly() {
+        MappedByteBuffer buffer;
+        int from, to;
+        synchronized (this) {
+            if (closed || mapped.position() == forced) return;
+            buffer = mapped;
+            from = forced;
+            to = mapped.position();
+        }
+        //和closeSegment互斥：已经换段时这个映射在释放前已经整个刷过了
+        synchronized (buffer) {
+            if (buffer != mapped) return;
+            try {
+                buffer.force(from, to - from);
+            } catch (RuntimeException e) {
+                reportError("刷盘失败", e, ErrorManager.FLUSH_FAILURE);
+                return;
+            }
+        }
+        //不能在持有buffer的锁时再拿this的锁，closeSegment是反过来拿的
+        synchronized (this) {
+            if (mapped == buffer && forced < to) forced = to;
+        }
+    }
+
+    //启动时：找到最后一个没压缩的段继续写，更早的没压缩的段（上次压缩到一半）重新压缩
+    private void recover() throws IOException {
+        List<Integer> plain = new ArrayList<>();
+        int last = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher m = segmentPattern.matcher(file.getFileName().toString());
+                if (!m.matches()) continue;
+                int n = Integer.parseInt(m.group(1));
+                last = Math.max(last, n);
+                if (m.group(2) == null) plain.add(n);
+            }
+        }
+        plain.sort(null);
+        for (int n : plain) {
+            if (n != last) compressLater(n);
+        }
+        if (plain.contains(last)) {
+            open(last, recoverEnd(segmentPath(last)));
+        } else {
+            open(last + 1, 0);
+        }
+    }
+
+    //已经写入的长度：去掉预分配的0和最后一条不完整的日志
+    private static int recoverEnd(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return 0;
+            MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = (int) size;
+            while (end > 0 && buffer.get(end - 1) == 0) end--;
+            while (end > 0 && buffer.get(end - 1) != '\n') end--;
+            unmap(buffer);
+            return end;
+        }
+    }
+
+    private void open(int segment, int position) throws IOException {
+        Path file = segmentPath(segment);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(segmentSize, position);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        //崩溃恢复时把不完整的那条日志清成0
+        for (int i = position, n = (int) Math.min(channel.size(), size); i < n; i++) {
+            if (mapped.get(i) == 0) break;
+            mapped.put(i, (byte) 0);
+        }
+        mapped.position(position);
+        forced = position;
+        this.segment = segment;
+        this.segmentStart = position == 0 ? System.currentTimeMillis() : Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private void roll() throws IOException {
+        int finished = segment;
+        closeSegment();
+        compressLater(finished);
+        open(finished + 1, 0);
+    }
+
+    //把段截断到实际写入的长度，这样关闭后就是一个普通的文本文件
+    private void closeSegment() throws IOException {
+        MappedByteBuffer buffer = mapped;
+        int length = buffer.position();
+        //等正在进行的刷盘做完再释放映射
+        synchronized (buffer) {
+            if (fsync != Fsync.NEVER) buffer.force();
+            unmap(buffer);
+            mapped = null;
+        }
+        channel.truncate(length);
+        channel.close();
+        forced = 0;
+    }
+
+    private void compressLater(int segment) {
+        compressor.execute(() -> {
+            try {
+                compress(segmentPath(segment));
+                deleteOldFiles();
+            } catch (IOException e) {
+                reportError("压缩日志失败：" + segmentPath(segment), e, ErrorManager.GENERIC_FAILURE);
+            }
+        });
+    }
+
+    //先写到.gz.tmp，完整写完再改名，中途崩溃不会留下坏的.gz
+    private static void compress(Path file) throws IOException {
+        Path gz = file.resolveSibling(file.getFileName() + ".gz");
+        Path tmp = file.resolveSibling(file.getFileName() + ".gz.tmp");
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+            in.transferTo(out);
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(file);
+    }
+
+    private void deleteOldFiles() throws IOException {
+        List<Path> compressed = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> {
+                Matcher m = segmentPattern.matcher(f.getFileName().toString());
+                return m.matches() && m.group(2) != null;
+            }).forEach(compressed::add);
+        }
+        //按段号排序，段号超过6位后文件名的字典序就不对了
+        compressed.sort(Comparator.comparingLong(this::segmentOf));
+        for (int i = 0; i < compressed.size() - maxFiles; i++) Files.deleteIfExists(compressed.get(i));
+    }
+
+    private long segmentOf(Path file) {
+        Matcher m = segmentPattern.matcher(file.getFileName().toString());
+        return m.matches() ? Long.parseLong(m.group(1)) : -1;
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format("%s-%06d.log", name, segment));
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = LogManager.getLogManager().getProperty(MappedFileHandler.class.getName() + "." + name);
+        return value == null ? defaultValue : value;
+    }
+
+    //不等GC就释放映射（截断文件前需要先释放，否则Windows上会失败）
+    //用的是Unsafe.invokeCleaner，拿不到时就交给GC
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException ignored) {
+        }
+    }
+
+    //可以直接拿到内部数组的ByteArrayOutputStream
+    private static final class Bytes extends ByteArrayOutputStream {
+        Bytes() {
+            super(512);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
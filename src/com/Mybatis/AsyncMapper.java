@@ -0,0 +1,165 @@
+package com.Mybatis;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+//异步执行Mapper方法：每次调用在单独的线程里打开自己的会话，返回CompletableFuture
+//这样一次请求里互不相关的多个查询（比如几个getStudentBySid和getTeacherByTid）可以同时进行
+//用信号量限制同时执行的调用数，不要超过连接池的最大连接数，否则多出来的线程也只是在连接池里排队
+//JDK 21以上使用虚拟线程，排队等许可的调用只占一个虚拟线程；
+//低版本退回到maxConcurrency个线程的固定线程池，多出来的调用在线程池的队列里排队，不会一下子建出很多线程
+//超时或取消时不中断执行线程（中断JDBC调用后连接的状态不确定，不能再还给连接池），
+//而是对正在执行的语句调用Statement.cancel()，语句以SQLException结束，会话正常关闭，连接还能继续用
+public class AsyncMapper implements AutoCloseable {
+
+    private final SqlSessionFactory factory;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    /**
+     * @param maxConcurrency 最多同时执行多少个调用，一般和连接池的maximumPoolSize相同
+     */
+    public AsyncMapper(int maxConcurrency) {
+        this(MybatisUtil.getFactory(), maxConcurrency);
+    }
+
+    public AsyncMapper(SqlSessionFactory factory, int maxConcurrency) {
+        this.factory = factory;
+        this.executor = newExecutor(maxConcurrency);
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * 异步执行一次Mapper调用
+     * @param type Mapper接口
+     * @param call 在Mapper上执行的操作，例如 m -> m.getStudentBySid(1)
+     * @return 调用结果
+     */
+    public <M, R> CompletableFuture<R> call(Class<M> type, Function<M, R> call) {
+        return call(type, call, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 异步执行一次Mapper调用，超时后结果以TimeoutException结束，并取消正在执行的语句
+     * 调用返回的Future的cancel()同样会取消正在执行的语句
+     * @param timeout 超时时间，小于等于0表示不限制
+     */
+    public <M, R> CompletableFuture<R> call(Class<M> type, Function<M, R> call, long timeout, TimeUnit unit) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        Configuration configuration = factory.getConfiguration();
+        CancellableTransaction transaction = new CancellableTransaction(
+                configuration.getEnvironment().getDataSource(), timeout > 0 ? unit.toMillis(timeout) : 0);
+        executor.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                result.completeExceptionally(new CancellationException("等待执行许可时被中断"));
+                return;
+            }
+            //已经超时或取消的调用不再执行
+            try (SqlSession session = new DefaultSqlSession(configuration, configuration.newExecutor(transaction), true)) {
+                if (!result.isDone()) result.complete(call.apply(session.getMapper(type)));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                permits.release();
+            }
+        });
+        if (timeout > 0) result.orTimeout(timeout, unit);
+        result.whenComplete((r, e) -> {
+            if (e instanceof CancellationException || e instanceof TimeoutException) transaction.cancel();
+        });
+        return result;
+    }
+
+    /**
+     * 当前可用的许可数
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    //一次调用的事务：记住连接上正在执行的语句，取消时调用它的cancel()
+    //同时把超时作为事务超时交给MyBatis，MyBatis会给每条语句设置queryTimeout（按秒向上取整），由驱动在数据库端终止
+    private static final class CancellableTransaction extends JdbcTransaction {
+        private final long timeoutMillis;
+        private volatile Statement running;
+        private volatile boolean cancelled;
+
+        CancellableTransaction(DataSource dataSource, long timeoutMillis) {
+            super(dataSource, null, true);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        protected void openConnection() throws SQLException {
+            super.openConnection();
+            Connection target = connection;
+            connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        String name = method.getName();
+                        boolean creates = name.equals("prepareStatement") || name.equals("createStatement")
+                                || name.equals("prepareCall");
+                        if (creates && cancelled) throw new SQLException("调用已经被取消");
+                        Object value;
+                        try {
+                            value = method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (creates) {
+                            running = (Statement) value;
+                            //创建语句和取消同时发生时，这里补上一次取消
+                            if (cancelled) running.cancel();
+                        }
+                        return value;
+                    });
+        }
+
+        @Override
+        public Integer getTimeout() {
+            return timeoutMillis > 0 ? (int) Math.max(1, (timeoutMillis + 999) / 1000) : null;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Statement statement = running;
+            if (statement == null) return;
+            try {
+                statement.cancel();
+            } catch (SQLException ignored) {
+                //语句已经执行完或者已经关闭
+            }
+        }
+    }
+
+    private static ExecutorService newExecutor(int maxConcurrency) {
+        try {
+            //Executors.newVirtualThreadPerTaskExecutor()是JDK 21才有的方法，这里通过反射调用，低版本也能编译
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(maxConcurrency, r -> {
+                Thread t = new Thread(r, "AsyncMapper");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
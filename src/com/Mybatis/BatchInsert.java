@@ -0,0 +1,106 @@
+package com.Mybatis;
+
+import com.jdbc.Student;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+//批量插入：addStudent每调用一次就要和数据库来回一次，大量导入时时间都花在网络上了
+//这里使用BATCH执行器，把batchSize条insert攒起来一次发送，并且每一批单独提交，
+//这样导入一百万条数据时既不会开一个巨大的事务，也不会把所有数据都缓存在内存里
+//（配合连接参数rewriteBatchedStatements=true，MySQL驱动还会把它们改写成一条多值insert）
+public class BatchInsert {
+
+    private final int batchSize;
+
+    public BatchInsert(int batchSize) {
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize必须大于0");
+        this.batchSize = batchSize;
+    }
+
+    public Result addStudents(Collection<Student> students) {
+        return addStudents(students.iterator());
+    }
+
+    /**
+     * 分批插入学生，每batchSize条刷新并提交一次
+     * @param students 要插入的学生
+     * @return 每一批的结果和总体吞吐量
+     */
+    public Result addStudents(Iterator<Student> students) {
+        Result result = new Result();
+        long begin = System.nanoTime();
+        try (SqlSession session = MybatisUtil.getSession(ExecutorType.BATCH, false)) {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            int pending = 0;
+            long batchStart = System.nanoTime();
+            while (students.hasNext()) {
+                mapper.addStudent(students.next());
+                if (++pending == batchSize) {
+                    result.batches.add(flush(session, pending, batchStart, result.batches.size()));
+                    pending = 0;
+                    batchStart = System.nanoTime();
+                }
+            }
+            if (pending > 0) result.batches.add(flush(session, pending, batchStart, result.batches.size()));
+        }
+        result.nanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    //发送攒下来的语句并提交本批事务
+    private Batch flush(SqlSession session, int rows, long start, int index) {
+        int affected = 0;
+        for (BatchResult r : session.flushStatements()) {
+            for (int count : r.getUpdateCounts()) affected += Math.max(count, 0);
+        }
+        session.commit();
+        return new Batch(index, rows, affected, System.nanoTime() - start);
+    }
+
+    //一批的执行情况
+    public static class Batch {
+        public final int index;
+        public final int rows;      //本批提交的语句数
+        public final int affected;  //数据库返回的生效行数（驱动返回SUCCESS_NO_INFO时不计入）
+        public final long nanos;
+
+        Batch(int index, int rows, int affected, long nanos) {
+            this.index = index;
+            this.rows = rows;
+            this.affected = affected;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "第" + index + "批：" + rows + "条，生效" + affected + "行，耗时" + nanos / 1_000_000 + "ms";
+        }
+    }
+
+    //整体结果
+    public static class Result {
+        public final List<Batch> batches = new ArrayList<>();
+        public long nanos;
+
+        public int rows() {
+            int sum = 0;
+            for (Batch b : batches) sum += b.rows;
+            return sum;
+        }
+
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "共" + batches.size() + "批，" + rows() + "条，" + String.format("%.0f", rowsPerSecond()) + " 行/秒";
+        }
+    }
+}
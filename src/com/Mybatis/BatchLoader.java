@@ -0,0 +1,77 @@
+package com.Mybatis;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+//批量加载器（DataLoader的思路）
+//先用load(key)登记需要的key，拿到一个还没完成的Future；等到dispatch()时把所有登记过的key
+//合并成 where xx in (...) 一次查出来，再分发给各自的Future。
+//同一个key在同一个加载器里只会查询一次，所以一个加载器的作用范围应该是一次会话/一次请求
+public class BatchLoader<K, V> {
+
+    private final Function<List<K>, Map<K, V>> batchFunction;
+    private final int maxBatchSize;
+    private final Map<K, CompletableFuture<V>> cache = new HashMap<>();
+    private final Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+    private int batches;
+
+    /**
+     * @param batchFunction 根据一组key批量查询，返回key到结果的映射，查不到的key可以不放入
+     * @param maxBatchSize 一次in查询最多带多少个key，超过就分成多次
+     */
+    public BatchLoader(Function<List<K>, Map<K, V>> batchFunction, int maxBatchSize) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize必须大于0");
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 登记一个key，结果在dispatch()之后才可用
+     */
+    public synchronized CompletableFuture<V> load(K key) {
+        CompletableFuture<V> future = cache.get(key);
+        if (future == null) {
+            future = new CompletableFuture<>();
+            cache.put(key, future);
+            pending.put(key, future);
+        }
+        return future;
+    }
+
+    /**
+     * 登记并立即加载，返回结果
+     */
+    public V get(K key) {
+        CompletableFuture<V> future = load(key);
+        if (!future.isDone()) dispatch();
+        return future.join();
+    }
+
+    /**
+     * 把目前登记的所有key分批查询出来
+     */
+    public synchronized void dispatch() {
+        if (pending.isEmpty()) return;
+        List<K> keys = new ArrayList<>(pending.keySet());
+        Map<K, CompletableFuture<V>> waiting = new HashMap<>(pending);
+        pending.clear();
+        for (int from = 0; from < keys.size(); from += maxBatchSize) {
+            List<K> chunk = keys.subList(from, Math.min(keys.size(), from + maxBatchSize));
+            try {
+                Map<K, V> result = batchFunction.apply(chunk);
+                batches++;
+                for (K key : chunk) waiting.get(key).complete(result.get(key));
+            } catch (RuntimeException e) {
+                for (K key : chunk) waiting.get(key).completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 执行过多少次批量查询，用来确认是不是真的合并了
+     */
+    public synchronized int batchCount() {
+        return batches;
+    }
+}
@@ -0,0 +1,758 @@
+package com.Mybatis;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Property;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.binding.MapperProxyFactory;
+import org.apache.ibatis.binding.MapperRegistry;
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.*;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.parsing.XPathParser;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+//MyBatis配置快照：把解析好的配置保存成一个二进制文件，启动时直接按快照组装Configuration
+//正常启动要解析mybatis-config.xml（带DTD校验）、扫描TestMapper上的注解、解析TestMapper.xml、再逐个解析结果映射；
+//快照在构建时（write）把这些结果保存下来：
+// - 静态SQL保存的是已经把#{}换成?的SQL和参数映射，加载时直接new StaticSqlSource，不需要任何解析
+// - 动态SQL（<script>、<foreach>等）保存原始脚本，加载时交给LanguageDriver，只解析这一小段
+// - 结果映射、参数映射、二级缓存的声明、插件、数据源、settings都按字段保存
+//不支持的配置（typeHandlers、typeAliases、discriminator、selectKey、SqlProvider等）在构建快照时直接报错，
+//这时继续用XML启动就行
+//
+//快照开头记录了mybatis-config.xml、每个Mapper接口的class文件、每个Mapper XML的CRC32C，
+//加载时先逐个校验，有任何一个变了（改了注解、改了XML、重新编译过）就不用这个快照，由调用者退回到解析XML
+//
+//构建：java com.Mybatis.ConfigurationSnapshot mybatis-config.xml mybatis-config.snapshot
+//使用：MybatisUtil在 -Dmybatis.snapshot=mybatis-config.snapshot 指向的快照存在且校验通过时使用快照
+public final class ConfigurationSnapshot {
+
+    private static final int MAGIC = 0x4d425332;   //"MBS2"
+
+    /**
+     * 快照和当前的配置、Mapper不一致，或者无法按快照组装，需要重新解析XML
+     */
+    public static final class StaleSnapshotException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleSnapshotException(String message) {
+            super(message);
+        }
+
+        StaleSnapshotException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private ConfigurationSnapshot() {
+    }
+
+    //================= 构建快照 =================
+
+    /**
+     * 解析配置文件并保存快照
+     * @param configXml mybatis-config.xml
+     * @param snapshot 快照文件
+     */
+    public static void write(Path configXml, Path snapshot) throws IOException {
+        Configuration configuration;
+        try (InputStream in = Files.newInputStream(configXml)) {
+            configuration = new XMLConfigBuilder(in).parse();
+        }
+        XPathParser parser;
+        try (InputStream in = Files.newInputStream(configXml)) {
+            parser = new XPathParser(in, false, null, new XMLMapperEntityResolver());
+        }
+        XNode root = parser.evalNode("/configuration");
+        for (String unsupported : new String[]{"properties", "typeAliases", "typeHandlers", "objectFactory",
+                "objectWrapperFactory", "reflectorFactory", "databaseIdProvider"}) {
+            if (root.evalNode(unsupported) != null) throw unsupported("<" + unsupported + ">");
+        }
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            writeSources(out, configXml, configuration);
+            writeSettings(out, root.evalNode("settings"));
+            writePlugins(out, configuration, root.evalNode("plugins"));
+            writeEnvironment(out, configuration, root.evalNode("environments"));
+            writeCaches(out, configuration);
+            List<ResultMap> resultMaps = unique(configuration.getResultMaps(), ResultMap::getId);
+            out.writeInt(resultMaps.size());
+            for (ResultMap resultMap : resultMaps) writeResultMap(out, resultMap);
+            List<ParameterMap> parameterMaps = unique(configuration.getParameterMaps(), ParameterMap::getId);
+            out.writeInt(parameterMaps.size());
+            for (ParameterMap parameterMap : parameterMaps) writeParameterMap(out, parameterMap);
+            List<MappedStatement> statements = unique(configuration.getMappedStatements(), MappedStatement::getId);
+            out.writeInt(statements.size());
+            for (MappedStatement statement : statements) writeStatement(out, configuration, statement);
+            Collection<Class<?>> mappers = configuration.getMapperRegistry().getMappers();
+            out.writeInt(mappers.size());
+            for (Class<?> mapper : mappers) out.writeUTF(mapper.getName());
+        }
+        Files.move(tmp, snapshot, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //快照依赖的文件：配置文件本身，以及classpath上的Mapper接口和Mapper XML
+    private static void writeSources(DataOutputStream out, Path configXml, Configuration configuration) throws IOException {
+        out.writeLong(checksum(Files.readAllBytes(configXml)));
+        Set<String> resources = new TreeSet<>();
+        for (Class<?> mapper : configuration.getMapperRegistry().getMappers()) resources.add(classResource(mapper.getName()));
+        for (MappedStatement statement : unique(configuration.getMappedStatements(), MappedStatement::getId)) {
+            String resource = statement.getResource();
+            if (resource != null && resource.endsWith(".xml")) resources.add(resource);
+        }
+        out.writeInt(resources.size());
+        for (String resource : resources) {
+            out.writeUTF(resource);
+            out.writeLong(checksum(resourceBytes(resource)));
+        }
+    }
+
+    //StrictMap里同一个对象会用全名和短名各放一次
+    private static <T> List<T> unique(Collection<T> values, java.util.function.Function<T, String> id) {
+        Map<String, T> map = new LinkedHashMap<>();
+        for (T value : values) map.putIfAbsent(id.apply(value), value);
+        return new ArrayList<>(map.values());
+    }
+
+    private static void writeSettings(DataOutputStream out, XNode settings) throws IOException {
+        writeProperties(out, settings == null ? new Properties() : settings.getChildrenAsProperties());
+    }
+
+    private static void writePlugins(DataOutputStream out, Configuration configuration, XNode plugins) throws IOException {
+        List<XNode> nodes = plugins == null ? Collections.emptyList() : plugins.getChildren();
+        out.writeInt(nodes.size());
+        for (XNode node : nodes) {
+            out.writeUTF(configuration.getTypeAliasRegistry().resolveAlias(node.getStringAttribute("interceptor")).getName());
+            writeProperties(out, node.getChildrenAsProperties());
+        }
+    }
+
+    private static void writeEnvironment(DataOutputStream out, Configuration configuration, XNode environments) throws IOException {
+        Environment environment = configuration.getEnvironment();
+        out.writeBoolean(environment != null);
+        if (environment == null) return;
+        XNode node = null;
+        for (XNode child : environments.getChildren()) {
+            if (environment.getId().equals(child.getStringAttribute("id"))) node = child;
+        }
+        if (node == null) throw unsupported("找不到environment " + environment.getId());
+        XNode transaction = node.evalNode("transactionManager");
+        XNode dataSource = node.evalNode("dataSource");
+        out.writeUTF(environment.getId());
+        out.writeUTF(configuration.getTypeAliasRegistry().resolveAlias(transaction.getStringAttribute("type")).getName());
+        writeProperties(out, transaction.getChildrenAsProperties());
+        out.writeUTF(configuration.getTypeAliasRegistry().resolveAlias(dataSource.getStringAttribute("type")).getName());
+        writeProperties(out, dataSource.getChildrenAsProperties());
+    }
+
+    //二级缓存：对象本身没法保存，保存的是<cache>或@CacheNamespace里的声明，加载时用同样的参数重新创建
+    private static void writeCaches(DataOutputStream out, Configuration configuration) throws IOException {
+        Collection<Cache> caches = unique(configuration.getCaches(), Cache::getId);
+        out.writeInt(caches.size());
+        for (Cache cache : caches) {
+            String namespace = cache.getId();
+            XNode node = findXmlCache(configuration, namespace);
+            if (node != null) {
+                out.writeUTF(namespace);
+                out.writeUTF(configuration.getTypeAliasRegistry().resolveAlias(node.getStringAttribute("type", "PERPETUAL")).getName());
+                out.writeUTF(configuration.getTypeAliasRegistry().resolveAlias(node.getStringAttribute("eviction", "LRU")).getName());
+                writeNullableLong(out, node.getLongAttribute("flushInterval"));
+                Integer size = node.getIntAttribute("size");
+                writeNullableLong(out, size == null ? null : size.longValue());
+                out.writeBoolean(!node.getBooleanAttribute("readOnly", false));
+                out.writeBoolean(node.getBooleanAttribute("blocking", false));
+                writeProperties(out, node.getChildrenAsProperties());
+                continue;
+            }
+            CacheNamespace annotation = annotatedCache(namespace);
+            if (annotation == null) throw unsupported("找不到缓存" + namespace + "的声明");
+            out.writeUTF(namespace);
+            out.writeUTF(annotation.implementation().getName());
+            out.writeUTF(annotation.eviction().getName());
+            writeNullableLong(out, annotation.flushInterval() == 0 ? null : annotation.flushInterval());
+            writeNullableLong(out, (long) annotation.size());
+            out.writeBoolean(annotation.readWrite());
+            out.writeBoolean(annotation.blocking());
+            Properties properties = new Properties();
+            for (Property property : annotation.properties()) properties.setProperty(property.name(), property.value());
+            writeProperties(out, properties);
+        }
+    }
+
+    private static XNode findXmlCache(Configuration configuration, String namespace) throws IOException {
+        for (MappedStatement statement : configuration.getMappedStatements()) {
+            String resource = statement.getResource();
+            if (resource == null || !resource.endsWith(".xml") || statement.getCache() == null
+                    || !namespace.equals(statement.getCache().getId())) continue;
+            XNode mapper = mapperXml(resource);
+            if (mapper != null && namespace.equals(mapper.getStringAttribute("namespace"))) return mapper.evalNode("cache");
+        }
+        return null;
+    }
+
+    private static CacheNamespace annotatedCache(String namespace) {
+        try {
+            return Resources.classForName(namespace).getAnnotation(CacheNamespace.class);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static XNode mapperXml(String resource) throws IOException {
+        try (InputStream in = Resources.getResourceAsStream(resource)) {
+            return new XPathParser(in, false, null, new XMLMapperEntityResolver()).evalNode("/mapper");
+        }
+    }
+
+    private static void writeResultMap(DataOutputStream out, ResultMap resultMap) throws IOException {
+        if (resultMap.getDiscriminator() != null) throw unsupported("discriminator（" + resultMap.getId() + "）");
+        out.writeUTF(resultMap.getId());
+        out.writeUTF(resultMap.getType().getName());
+        Boolean autoMapping = resultMap.getAutoMapping();
+        out.writeByte(autoMapping == null ? -1 : autoMapping ? 1 : 0);
+        writeResultMappings(out, resultMap.getResultMappings());
+    }
+
+    private static void writeResultMappings(DataOutputStream out, List<ResultMapping> mappings) throws IOException {
+        out.writeInt(mappings.size());
+        for (ResultMapping m : mappings) {
+            writeNullable(out, m.getProperty());
+            writeNullable(out, m.getColumn());
+            writeNullable(out, m.getJavaType() == null ? null : m.getJavaType().getName());
+            writeNullable(out, m.getJdbcType() == null ? null : m.getJdbcType().name());
+            writeNullable(out, m.getTypeHandler() == null ? null : m.getTypeHandler().getClass().getName());
+            writeNullable(out, m.getNestedResultMapId());
+            writeNullable(out, m.getNestedQueryId());
+            out.writeInt(m.getNotNullColumns().size());
+            for (String column : m.getNotNullColumns()) out.writeUTF(column);
+            writeNullable(out, m.getColumnPrefix());
+            out.writeInt(m.getFlags().size());
+            for (ResultFlag flag : m.getFlags()) out.writeUTF(flag.name());
+            writeResultMappings(out, m.getComposites() == null ? Collections.emptyList() : m.getComposites());
+            writeNullable(out, m.getResultSet());
+            writeNullable(out, m.getForeignColumn());
+            out.writeBoolean(m.isLazy());
+        }
+    }
+
+    private static void writeParameterMap(DataOutputStream out, ParameterMap parameterMap) throws IOException {
+        out.writeUTF(parameterMap.getId());
+        writeNullable(out, parameterMap.getType() == null ? null : parameterMap.getType().getName());
+        writeParameterMappings(out, parameterMap.getParameterMappings());
+    }
+
+    private static void writeParameterMappings(DataOutputStream out, List<ParameterMapping> mappings) throws IOException {
+        out.writeInt(mappings.size());
+        for (ParameterMapping m : mappings) {
+            out.writeUTF(m.getProperty());
+            out.writeUTF(m.getMode().name());
+            writeNullable(out, m.getJavaType() == null ? null : m.getJavaType().getName());
+            writeNullable(out, m.getJdbcType() == null ? null : m.getJdbcType().name());
+            writeNullableLong(out, m.getNumericScale() == null ? null : m.getNumericScale().longValue());
+            writeNullable(out, m.getTypeHandler() == null ? null : m.getTypeHandler().getClass().getName());
+            writeNullable(out, m.getResultMapId());
+            writeNullable(out, m.getJdbcTypeName());
+            writeNullable(out, m.getExpression());
+        }
+    }
+
+    private static void writeStatement(DataOutputStream out, Configuration configuration, MappedStatement ms) throws IOException {
+        KeyGenerator keyGenerator = ms.getKeyGenerator();
+        if (!(keyGenerator instanceof NoKeyGenerator) && !(keyGenerator instanceof Jdbc3KeyGenerator)) {
+            throw unsupported("selectKey（" + ms.getId() + "）");
+        }
+        out.writeUTF(ms.getId());
+        writeNullable(out, ms.getResource());
+        out.writeUTF(ms.getSqlCommandType().name());
+        out.writeUTF(ms.getStatementType().name());
+        writeNullable(out, ms.getResultSetType() == null ? null : ms.getResultSetType().name());
+        writeNullableLong(out, ms.getFetchSize() == null ? null : ms.getFetchSize().longValue());
+        writeNullableLong(out, ms.getTimeout() == null ? null : ms.getTimeout().longValue());
+        out.writeBoolean(ms.isFlushCacheRequired());
+        out.writeBoolean(ms.isUseCache());
+        out.writeBoolean(ms.isResultOrdered());
+        out.writeBoolean(keyGenerator instanceof Jdbc3KeyGenerator);
+        writeNullable(out, join(ms.getKeyProperties()));
+        writeNullable(out, join(ms.getKeyColumns()));
+        writeNullable(out, ms.getDatabaseId());
+        out.writeUTF(ms.getLang().getClass().getName());
+        writeNullable(out, join(ms.getResultSets()));
+        writeNullable(out, ms.getCache() == null ? null : ms.getCache().getId());
+        //resultType/parameterType生成的“-Inline”映射不在Configuration里，跟着语句一起保存
+        boolean registered = configuration.hasParameterMap(ms.getParameterMap().getId());
+        out.writeBoolean(registered);
+        if (registered) out.writeUTF(ms.getParameterMap().getId());
+        else writeParameterMap(out, ms.getParameterMap());
+        out.writeInt(ms.getResultMaps().size());
+        for (ResultMap resultMap : ms.getResultMaps()) {
+            registered = configuration.hasResultMap(resultMap.getId());
+            out.writeBoolean(registered);
+            if (registered) out.writeUTF(resultMap.getId());
+            else writeResultMap(out, resultMap);
+        }
+        SqlSource sqlSource = ms.getSqlSource();
+        if (sqlSource instanceof DynamicSqlSource) {
+            out.writeBoolean(true);
+            out.writeUTF(dynamicScript(ms));
+        } else if (sqlSource.getClass().getName().startsWith("org.apache.ibatis.builder.annotation.ProviderSqlSource")) {
+            throw unsupported("SqlProvider（" + ms.getId() + "）");
+        } else {
+            //静态SQL：参数和SQL都已经确定，直接保存结果
+            BoundSql boundSql = sqlSource.getBoundSql(null);
+            out.writeBoolean(false);
+            out.writeUTF(boundSql.getSql());
+            writeParameterMappings(out, boundSql.getParameterMappings());
+        }
+    }
+
+    //动态SQL的原始脚本：注解上的字符串，或者XML里语句标签的内容
+    private static String dynamicScript(MappedStatement ms) throws IOException {
+        String id = ms.getId();
+        String namespace = id.substring(0, id.lastIndexOf('.'));
+        String name = id.substring(id.lastIndexOf('.') + 1);
+        if (ms.getResource() != null && ms.getResource().endsWith(".xml")) {
+            XNode mapper = mapperXml(ms.getResource());
+            for (XNode node : mapper.getChildren()) {
+                if (!name.equals(node.getStringAttribute("id"))) continue;
+                if (node.evalNode("include") != null || node.evalNode("selectKey") != null) {
+                    throw unsupported("<include>/<selectKey>（" + id + "）");
+                }
+                return "<script>" + innerXml(node.getNode()) + "</script>";
+            }
+        }
+        try {
+            for (Method method : Resources.classForName(namespace).getMethods()) {
+                if (!method.getName().equals(name) || method.isBridge()) continue;
+                String[] script = null;
+                if (method.isAnnotationPresent(Select.class)) script = method.getAnnotation(Select.class).value();
+                else if (method.isAnnotationPresent(Insert.class)) script = method.getAnnotation(Insert.class).value();
+                else if (method.isAnnotationPresent(Update.class)) script = method.getAnnotation(Update.class).value();
+                else if (method.isAnnotationPresent(Delete.class)) script = method.getAnnotation(Delete.class).value();
+                if (script != null) return String.join(" ", script).trim();
+            }
+        } catch (ClassNotFoundException e) {
+            //没有对应的接口
+        }
+        throw unsupported("找不到" + id + "的SQL脚本");
+    }
+
+    private static String innerXml(Node node) {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            StringWriter writer = new StringWriter();
+            NodeList children = node.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                transformer.transform(new DOMSource(children.item(i)), new StreamResult(writer));
+            }
+            return writer.toString();
+        } catch (TransformerException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String join(String[] values) {
+        return values == null ? null : String.join(",", values);
+    }
+
+    private static IllegalStateException unsupported(String what) {
+        return new IllegalStateException("配置快照不支持：" + what);
+    }
+
+    //================= 加载快照 =================
+
+    /**
+     * 从快照组装Configuration，不解析XML，也不扫描注解；只校验Mapper接口和Mapper XML，不校验配置文件
+     * @throws StaleSnapshotException 快照过期或者无法按快照组装
+     */
+    public static SqlSessionFactory load(Path snapshot) throws IOException {
+        return load(snapshot, null);
+    }
+
+    /**
+     * 从快照组装Configuration，先校验配置文件、Mapper接口和Mapper XML是否和生成快照时一样
+     * @param configXml 生成快照用的配置文件，null表示不校验
+     * @throws StaleSnapshotException 快照过期或者无法按快照组装，调用者应该改为解析XML
+     */
+    public static SqlSessionFactory load(Path snapshot, Path configXml) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 64 * 1024))) {
+            if (in.readInt() != MAGIC) throw new StaleSnapshotException("不是配置快照或者格式已经变了：" + snapshot);
+            verifySources(in, configXml);
+            Configuration configuration = new Configuration();
+            applySettings(configuration, readProperties(in));
+            int plugins = in.readInt();
+            for (int i = 0; i < plugins; i++) {
+                Interceptor interceptor = newInstance(in.readUTF());
+                interceptor.setProperties(readProperties(in));
+                configuration.addInterceptor(interceptor);
+            }
+            if (in.readBoolean()) {
+                String id = in.readUTF();
+                TransactionFactory transactionFactory = newInstance(in.readUTF());
+                transactionFactory.setProperties(readProperties(in));
+                DataSourceFactory dataSourceFactory = newInstance(in.readUTF());
+                dataSourceFactory.setProperties(readProperties(in));
+                configuration.setEnvironment(new Environment(id, transactionFactory, dataSourceFactory.getDataSource()));
+            }
+            readCaches(in, configuration);
+            int resultMaps = in.readInt();
+            for (int i = 0; i < resultMaps; i++) configuration.addResultMap(readResultMap(in, configuration));
+            int parameterMaps = in.readInt();
+            for (int i = 0; i < parameterMaps; i++) configuration.addParameterMap(readParameterMap(in, configuration));
+            int statements = in.readInt();
+            for (int i = 0; i < statements; i++) configuration.addMappedStatement(readStatement(in, configuration));
+            int mappers = in.readInt();
+            for (int i = 0; i < mappers; i++) registerMapper(configuration, classFor(in.readUTF()));
+            return new SqlSessionFactoryBuilder().build(configuration);
+        }
+    }
+
+    private static void verifySources(DataInputStream in, Path configXml) throws IOException {
+        long config = in.readLong();
+        if (configXml != null && (!Files.exists(configXml) || checksum(Files.readAllBytes(configXml)) != config)) {
+            throw new StaleSnapshotException(configXml + "和生成快照时不一样");
+        }
+        int resources = in.readInt();
+        for (int i = 0; i < resources; i++) {
+            String resource = in.readUTF();
+            long expected = in.readLong();
+            byte[] bytes;
+            try {
+                bytes = resourceBytes(resource);
+            } catch (IOException e) {
+                throw new StaleSnapshotException("找不到" + resource, e);
+            }
+            if (checksum(bytes) != expected) throw new StaleSnapshotException(resource + "和生成快照时不一样");
+        }
+    }
+
+    //settings按名称找到Configuration上对应的setter，再按参数类型转换
+    private static void applySettings(Configuration configuration, Properties settings) {
+        for (String name : settings.stringPropertyNames()) {
+            String value = settings.getProperty(name);
+            Method setter = null;
+            for (Method method : Configuration.class.getMethods()) {
+                if (method.getParameterCount() == 1
+                        && method.getName().equalsIgnoreCase("set" + name)) setter = method;
+            }
+            if (setter == null) throw new IllegalStateException("未知的setting：" + name);
+            Class<?> type = setter.getParameterTypes()[0];
+            Object converted;
+            if (type == boolean.class || type == Boolean.class) converted = Boolean.valueOf(value);
+            else if (type == int.class || type == Integer.class) converted = Integer.valueOf(value);
+            else if (type == String.class) converted = value;
+            else if (type.isEnum()) converted = enumValue(type, value);
+            else if (type == Class.class) converted = configuration.getTypeAliasRegistry().resolveAlias(value);
+            else if (type == Set.class) converted = new HashSet<>(Arrays.asList(value.split("\\s*[,]\\s*")));
+            else throw new IllegalStateException("不支持的setting类型：" + name);
+            try {
+                setter.invoke(configuration, converted);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法设置" + name, e);
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<?> type, String value) {
+        return Enum.valueOf((Class<? extends Enum>) type, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void readCaches(DataInputStream in, Configuration configuration) throws IOException {
+        int caches = in.readInt();
+        for (int i = 0; i < caches; i++) {
+            String id = in.readUTF();
+            Class<? extends Cache> implementation = (Class<? extends Cache>) classFor(in.readUTF());
+            Class<? extends Cache> eviction = (Class<? extends Cache>) classFor(in.readUTF());
+            Long flushInterval = readNullableLong(in);
+            Long size = readNullableLong(in);
+            boolean readWrite = in.readBoolean();
+            boolean blocking = in.readBoolean();
+            Properties properties = readProperties(in);
+            configuration.addCache(new CacheBuilder(id)
+                    .implementation(implementation)
+                    .addDecorator(eviction)
+                    .clearInterval(flushInterval)
+                    .size(size == null ? null : size.intValue())
+                    .readWrite(readWrite)
+                    .blocking(blocking)
+                    .properties(properties)
+                    .build());
+        }
+    }
+
+    private static ResultMap readResultMap(DataInputStream in, Configuration configuration) throws IOException {
+        String id = in.readUTF();
+        Class<?> type = classFor(in.readUTF());
+        byte autoMapping = in.readByte();
+        List<ResultMapping> mappings = readResultMappings(in, configuration);
+        return new ResultMap.Builder(configuration, id, type, mappings, autoMapping < 0 ? null : autoMapping == 1).build();
+    }
+
+    private static ParameterMap readParameterMap(DataInputStream in, Configuration configuration) throws IOException {
+        String id = in.readUTF();
+        String type = readNullable(in);
+        List<ParameterMapping> mappings = readParameterMappings(in, configuration);
+        return new ParameterMap.Builder(configuration, id, type == null ? null : classFor(type), mappings).build();
+    }
+
+    private static List<ResultMapping> readResultMappings(DataInputStream in, Configuration configuration) throws IOException {
+        int n = in.readInt();
+        List<ResultMapping> mappings = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ResultMapping.Builder builder = new ResultMapping.Builder(configuration, readNullable(in));
+            builder.column(readNullable(in));
+            String javaType = readNullable(in);
+            if (javaType != null) builder.javaType(classFor(javaType));
+            String jdbcType = readNullable(in);
+            if (jdbcType != null) builder.jdbcType(JdbcType.valueOf(jdbcType));
+            String typeHandler = readNullable(in);
+            if (typeHandler != null) builder.typeHandler(typeHandler(configuration, javaType, typeHandler));
+            builder.nestedResultMapId(readNullable(in));
+            builder.nestedQueryId(readNullable(in));
+            int notNull = in.readInt();
+            Set<String> notNullColumns = new HashSet<>();
+            for (int j = 0; j < notNull; j++) notNullColumns.add(in.readUTF());
+            builder.notNullColumns(notNullColumns);
+            builder.columnPrefix(readNullable(in));
+            int flags = in.readInt();
+            List<ResultFlag> flagList = new ArrayList<>();
+            for (int j = 0; j < flags; j++) flagList.add(ResultFlag.valueOf(in.readUTF()));
+            builder.flags(flagList);
+            builder.composites(readResultMappings(in, configuration));
+            builder.resultSet(readNullable(in));
+            builder.foreignColumn(readNullable(in));
+            builder.lazy(in.readBoolean());
+            mappings.add(builder.build());
+        }
+        return mappings;
+    }
+
+    private static List<ParameterMapping> readParameterMappings(DataInputStream in, Configuration configuration) throws IOException {
+        int n = in.readInt();
+        List<ParameterMapping> mappings = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String property = in.readUTF();
+            ParameterMode mode = ParameterMode.valueOf(in.readUTF());
+            String javaType = readNullable(in);
+            String jdbcType = readNullable(in);
+            Long numericScale = readNullableLong(in);
+            String typeHandler = readNullable(in);
+            ParameterMapping.Builder builder = typeHandler != null
+                    ? new ParameterMapping.Builder(configuration, property, typeHandler(configuration, javaType, typeHandler))
+                    : new ParameterMapping.Builder(configuration, property, javaType == null ? Object.class : classFor(javaType));
+            builder.mode(mode);
+            if (javaType != null) builder.javaType(classFor(javaType));
+            if (jdbcType != null) builder.jdbcType(JdbcType.valueOf(jdbcType));
+            if (numericScale != null) builder.numericScale(numericScale.intValue());
+            builder.resultMapId(readNullable(in));
+            builder.jdbcTypeName(readNullable(in));
+            builder.expression(readNullable(in));
+            mappings.add(builder.build());
+        }
+        return mappings;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MappedStatement readStatement(DataInputStream in, Configuration configuration) throws IOException {
+        String id = in.readUTF();
+        String resource = readNullable(in);
+        SqlCommandType commandType = SqlCommandType.valueOf(in.readUTF());
+        StatementType statementType = StatementType.valueOf(in.readUTF());
+        String resultSetType = readNullable(in);
+        Long fetchSize = readNullableLong(in);
+        Long timeout = readNullableLong(in);
+        boolean flushCache = in.readBoolean();
+        boolean useCache = in.readBoolean();
+        boolean resultOrdered = in.readBoolean();
+        boolean generatedKeys = in.readBoolean();
+        String keyProperties = readNullable(in);
+        String keyColumns = readNullable(in);
+        String databaseId = readNullable(in);
+        LanguageDriver lang = configuration.getLanguageDriver((Class<? extends LanguageDriver>) classFor(in.readUTF()));
+        String resultSets = readNullable(in);
+        String cache = readNullable(in);
+        ParameterMap parameterMap = in.readBoolean() ? configuration.getParameterMap(in.readUTF())
+                : readParameterMap(in, configuration);
+        int resultMapCount = in.readInt();
+        List<ResultMap> resultMaps = new ArrayList<>(resultMapCount);
+        for (int i = 0; i < resultMapCount; i++) {
+            resultMaps.add(in.readBoolean() ? configuration.getResultMap(in.readUTF()) : readResultMap(in, configuration));
+        }
+        SqlSource sqlSource;
+        if (in.readBoolean()) {
+            sqlSource = lang.createSqlSource(configuration, in.readUTF(), parameterMap.getType());
+        } else {
+            String sql = in.readUTF();
+            sqlSource = new org.apache.ibatis.builder.StaticSqlSource(configuration, sql, readParameterMappings(in, configuration));
+        }
+        MappedStatement.Builder builder = new MappedStatement.Builder(configuration, id, sqlSource, commandType)
+                .resource(resource)
+                .statementType(statementType)
+                .resultSetType(resultSetType == null ? null : ResultSetType.valueOf(resultSetType))
+                .fetchSize(fetchSize == null ? null : fetchSize.intValue())
+                .timeout(timeout == null ? null : timeout.intValue())
+                .flushCacheRequired(flushCache)
+                .useCache(useCache)
+                .resultOrdered(resultOrdered)
+                .keyGenerator(generatedKeys ? Jdbc3KeyGenerator.INSTANCE : NoKeyGenerator.INSTANCE)
+                .keyProperty(keyProperties)
+                .keyColumn(keyColumns)
+                .databaseId(databaseId)
+                .lang(lang)
+                .resultSets(resultSets)
+                .parameterMap(parameterMap)
+                .resultMaps(resultMaps);
+        if (cache != null) builder.cache(configuration.getCache(cache));
+        return builder.build();
+    }
+
+    //addMapper会重新扫描注解，这里只登记接口，语句已经从快照加载好了
+    @SuppressWarnings("unchecked")
+    private static void registerMapper(Configuration configuration, Class<?> type) throws IOException {
+        try {
+            Field field = MapperRegistry.class.getDeclaredField("knownMappers");
+            field.setAccessible(true);
+            ((Map<Class<?>, MapperProxyFactory<?>>) field.get(configuration.getMapperRegistry()))
+                    .put(type, new MapperProxyFactory<>(type));
+            configuration.addLoadedResource(type.toString());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //MyBatis换了版本（字段改名、类型变了）或者模块不允许反射时，这个快照就用不了了
+            throw new StaleSnapshotException("无法注册Mapper：" + type, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TypeHandler<?> typeHandler(Configuration configuration, String javaType, String handlerClass) throws IOException {
+        Class<? extends TypeHandler<?>> type = (Class<? extends TypeHandler<?>>) classFor(handlerClass);
+        TypeHandler<?> handler = configuration.getTypeHandlerRegistry().getMappingTypeHandler(type);
+        if (handler != null) return handler;
+        return configuration.getTypeHandlerRegistry().getInstance(javaType == null ? null : classFor(javaType), type);
+    }
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, short.class, char.class, int.class,
+                long.class, float.class, double.class, void.class}) {
+            PRIMITIVES.put(type.getName(), type);
+        }
+    }
+
+    private static Class<?> classFor(String name) throws IOException {
+        Class<?> primitive = PRIMITIVES.get(name);
+        if (primitive != null) return primitive;
+        try {
+            return Resources.classForName(name);
+        } catch (ClassNotFoundException e) {
+            throw new StaleSnapshotException("快照中的类不存在：" + name, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newInstance(String className) throws IOException {
+        try {
+            return (T) classFor(className).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new StaleSnapshotException("无法创建" + className, e);
+        }
+    }
+
+    //================= 读写工具 =================
+
+    private static String classResource(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static byte[] resourceBytes(String resource) throws IOException {
+        try (InputStream in = Resources.getResourceAsStream(resource)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeLong(value);
+    }
+
+    private static Long readNullableLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeProperties(DataOutputStream out, Properties properties) throws IOException {
+        Set<String> names = properties.stringPropertyNames();
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+            out.writeUTF(properties.getProperty(name));
+        }
+    }
+
+    private static Properties readProperties(DataInputStream in) throws IOException {
+        Properties properties = new Properties();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) properties.setProperty(in.readUTF(), in.readUTF());
+        return properties;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path config = Paths.get(args.length > 0 ? args[0] : "mybatis-config.xml");
+        Path snapshot = Paths.get(args.length > 1 ? args[1] : "mybatis-config.snapshot");
+        long start = System.nanoTime();
+        write(config, snapshot);
+        System.out.printf("已生成配置快照 %s（%d 字节），耗时 %.1f ms%n", snapshot, Files.size(snapshot),
+                (System.nanoTime() - start) / 1e6);
+    }
+}
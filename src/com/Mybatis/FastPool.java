@@ -0,0 +1,458 @@
+package com.Mybatis;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//低竞争的连接池
+//MyBatis自带的PooledDataSource每次借出/归还都要锁住同一个state对象，线程一多就都排队在这把锁上
+//这里的借出顺序是：
+// 1. 先看当前线程上次归还的连接（同一个线程反复借还时几乎不会和别的线程竞争）
+// 2. 再扫描共享列表，用CAS把空闲连接抢过来（无锁）
+// 3. 没有空闲且未达到上限就新建一个
+// 4. 否则等待其它线程归还时直接交接过来
+public class FastPool implements DataSource {
+
+    private static final Logger LOG = Logger.getLogger(FastPool.class.getName());
+
+    private static final int IDLE = 0, IN_USE = 1, REMOVED = -1;
+
+    //========== 配置 ==========
+    private final String url;
+    private final Properties driverProps = new Properties();
+    private final int maximumPoolSize;
+    private final int minimumIdle;
+    private final long connectionTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long idleTimeoutMs;
+    private final long leakDetectionMs;
+    private final long validationIntervalMs;
+    private final long housekeepingMs;
+
+    //========== 状态 ==========
+    //共享列表：写少读多，适合CopyOnWrite
+    private final CopyOnWriteArrayList<Entry> all = new CopyOnWriteArrayList<>();
+    //每个线程最近归还的连接
+    private final ThreadLocal<ArrayDeque<Entry>> local = ThreadLocal.withInitial(() -> new ArrayDeque<>(4));
+    //归还时如果有线程在等，直接交给它
+    private final SynchronousQueue<Entry> handoff = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    //========== 统计 ==========
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    private PrintWriter logWriter;
+
+    /**
+     * 通过配置创建连接池，支持的配置项见FastPoolDataSourceFactory
+     * @param props 配置
+     */
+    public FastPool(Properties props) {
+        String driver = props.getProperty("driver");
+        if (driver != null) {
+            try {
+                Class.forName(driver);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("找不到数据库驱动：" + driver, e);
+            }
+        }
+        this.url = require(props, "url");
+        if (props.getProperty("username") != null) driverProps.setProperty("user", props.getProperty("username"));
+        if (props.getProperty("password") != null) driverProps.setProperty("password", props.getProperty("password"));
+        //driver.xxx 形式的配置直接传给驱动
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith("driver.")) driverProps.setProperty(name.substring(7), props.getProperty(name));
+        }
+        this.maximumPoolSize = intProp(props, "maximumPoolSize", 10);
+        this.minimumIdle = Math.min(intProp(props, "minimumIdle", 0), maximumPoolSize);
+        this.connectionTimeoutMs = longProp(props, "connectionTimeout", 30_000);
+        this.maxLifetimeMs = longProp(props, "maxLifetime", 30 * 60_000);
+        this.idleTimeoutMs = longProp(props, "idleTimeout", 10 * 60_000);
+        this.leakDetectionMs = longProp(props, "leakDetectionThreshold", 0);
+        this.validationIntervalMs = longProp(props, "validationInterval", 5_000);
+        this.housekeepingMs = longProp(props, "housekeepingPeriod", 30_000);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "FastPool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingMs, housekeepingMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("连接池已关闭");
+        long start = System.nanoTime();
+        Entry entry = borrow(start);
+        long waited = System.nanoTime() - start;
+        borrows.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        entry.borrowedAt = System.currentTimeMillis();
+        if (leakDetectionMs > 0) entry.borrowStack = new Throwable("连接借出位置");
+        return entry.proxy();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("连接池使用配置中的用户名和密码");
+    }
+
+    private Entry borrow(long start) throws SQLException {
+        //1. 线程本地的快速路径
+        ArrayDeque<Entry> mine = local.get();
+        Entry e;
+        while ((e = mine.pollLast()) != null) {
+            if (e.state.compareAndSet(IDLE, IN_USE)) {
+                if (usable(e)) return e;
+            }
+        }
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMs);
+        waiters.incrementAndGet();
+        try {
+            while (true) {
+                //2. 扫描共享列表
+                for (Entry candidate : all) {
+                    if (candidate.state.compareAndSet(IDLE, IN_USE)) {
+                        if (usable(candidate)) return candidate;
+                    }
+                }
+                //3. 还没到上限就新建，CAS失败只说明别的线程同时改了total，重新读一次，不要因此去等待
+                for (int size; (size = total.get()) < maximumPoolSize; ) {
+                    if (!total.compareAndSet(size, size + 1)) continue;
+                    try {
+                        Entry created = create(IN_USE);
+                        all.add(created);
+                        return created;
+                    } catch (SQLException ex) {
+                        total.decrementAndGet();
+                        throw ex;
+                    }
+                }
+                //4. 等待别的线程归还，分小段等待，避免错过归还到共享列表的连接
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeouts.increment();
+                    throw new SQLTimeoutException("等待连接超时（" + connectionTimeoutMs + "ms），" + stats());
+                }
+                Entry given = handoff.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)), TimeUnit.NANOSECONDS);
+                if (given != null && given.state.compareAndSet(IDLE, IN_USE) && usable(given)) return given;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待连接时被中断", ex);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    //借出前检查：超过最大存活时间的直接淘汰；空闲超过validationInterval才做一次isValid，不是每次借出都去数据库确认
+    private boolean usable(Entry e) {
+        long now = System.currentTimeMillis();
+        if (now - e.createdAt > maxLifetimeMs) {
+            remove(e);
+            return false;
+        }
+        if (now - e.lastAccess > validationIntervalMs) {
+            try {
+                if (!e.raw.isValid(5)) {
+                    remove(e);
+                    return false;
+                }
+            } catch (SQLException ex) {
+                remove(e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //归还连接
+    private void release(Entry e) {
+        e.lastAccess = System.currentTimeMillis();
+        e.borrowStack = null;
+        try {
+            //和PooledDataSource一样，把没有提交的事务回滚掉，并恢复自动提交
+            if (!e.raw.getAutoCommit()) {
+                e.raw.rollback();
+                e.raw.setAutoCommit(true);
+            }
+            //借出期间改过只读/隔离级别的恢复成新建连接时的值，不然下一个借到的人会带着上一个人的设置
+            if (e.dirty) {
+                if (e.raw.isReadOnly() != e.defaultReadOnly) e.raw.setReadOnly(e.defaultReadOnly);
+                if (e.raw.getTransactionIsolation() != e.defaultIsolation) e.raw.setTransactionIsolation(e.defaultIsolation);
+                e.dirty = false;
+            }
+        } catch (SQLException ex) {
+            e.state.set(IN_USE);
+            remove(e);
+            return;
+        }
+        if (closed || e.lastAccess - e.createdAt > maxLifetimeMs) {
+            remove(e);
+            return;
+        }
+        e.state.set(IDLE);
+        //有线程正在等待就直接交给它（没交接成功也没关系，等待的线程下一轮扫描共享列表时会拿到）
+        if (waiters.get() > 0 && handoff.offer(e)) return;
+        //否则放进当前线程的本地列表，下次优先使用
+        ArrayDeque<Entry> mine = local.get();
+        if (mine.size() >= 4) mine.pollFirst();
+        mine.addLast(e);
+    }
+
+    private Entry create(int state) throws SQLException {
+        Connection raw = DriverManager.getConnection(url, driverProps);
+        try {
+            return new Entry(raw, state);
+        } catch (SQLException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    private void remove(Entry e) {
+        e.state.set(REMOVED);
+        if (all.remove(e)) total.decrementAndGet();
+        try {
+            e.raw.close();
+        } catch (SQLException ex) {
+            LOG.log(Level.FINE, "关闭连接失败", ex);
+        }
+    }
+
+    //后台维护：空闲淘汰、最大存活时间、泄漏检测、补齐最小空闲
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        int idle = idleCount();
+        for (Entry e : all) {
+            int state = e.state.get();
+            if (state == IDLE) {
+                boolean expired = now - e.createdAt > maxLifetimeMs;
+                boolean idleTooLong = idleTimeoutMs > 0 && now - e.lastAccess > idleTimeoutMs && idle > minimumIdle;
+                if ((expired || idleTooLong) && e.state.compareAndSet(IDLE, REMOVED)) {
+                    remove(e);
+                    idle--;
+                }
+            } else if (state == IN_USE && leakDetectionMs > 0 && !e.leakReported
+                    && now - e.borrowedAt > leakDetectionMs) {
+                Throwable stack = e.borrowStack;
+                if (stack != null) {
+                    e.leakReported = true;
+                    leaks.increment();
+                    LOG.log(Level.WARNING, "疑似连接泄漏：连接已被借出" + (now - e.borrowedAt) + "ms未归还", stack);
+                }
+            }
+        }
+        while (!closed && idleCount() < minimumIdle) {
+            int size = total.get();
+            if (size >= maximumPoolSize || !total.compareAndSet(size, size + 1)) break;
+            try {
+                all.add(create(IDLE));
+            } catch (SQLException ex) {
+                total.decrementAndGet();
+                LOG.log(Level.WARNING, "补充空闲连接失败", ex);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 关闭连接池，空闲连接立即关闭，借出的连接会在归还时关闭
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        for (Entry e : all) {
+            if (e.state.compareAndSet(IDLE, REMOVED)) remove(e);
+        }
+    }
+
+    //========== 统计信息 ==========
+
+    public int activeCount() {
+        int n = 0;
+        for (Entry e : all) if (e.state.get() == IN_USE) n++;
+        return n;
+    }
+
+    public int idleCount() {
+        int n = 0;
+        for (Entry e : all) if (e.state.get() == IDLE) n++;
+        return n;
+    }
+
+    public int waitingThreads() {
+        return waiters.get();
+    }
+
+    public long borrowCount() {
+        return borrows.sum();
+    }
+
+    public double averageWaitMicros() {
+        long count = borrows.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1000.0 / count;
+    }
+
+    public long maxWaitMicros() {
+        return maxWaitNanos.get() / 1000;
+    }
+
+    public long timeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long leakCount() {
+        return leaks.sum();
+    }
+
+    public String stats() {
+        return String.format("活跃=%d 空闲=%d 等待=%d 借出次数=%d 平均等待=%.1fus 最大等待=%dus 超时=%d 泄漏=%d",
+                activeCount(), idleCount(), waitingThreads(), borrowCount(), averageWaitMicros(),
+                maxWaitMicros(), timeoutCount(), leakCount());
+    }
+
+    //========== DataSource的其余方法 ==========
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return LOG;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException(getClass().getName() + "不是" + iface.getName() + "的包装");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    private static String require(Properties props, String name) {
+        String value = props.getProperty(name);
+        if (value == null) throw new IllegalArgumentException("缺少配置项：" + name);
+        return value;
+    }
+
+    private static int intProp(Properties props, String name, int def) {
+        String value = props.getProperty(name);
+        return value == null ? def : Integer.parseInt(value.trim());
+    }
+
+    private static long longProp(Properties props, String name, long def) {
+        String value = props.getProperty(name);
+        return value == null ? def : Long.parseLong(value.trim());
+    }
+
+    //池中的一条连接
+    private final class Entry {
+        final Connection raw;
+        final AtomicInteger state;
+        final long createdAt;
+        volatile long lastAccess;
+        volatile long borrowedAt;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+        //新建时的只读和隔离级别；借出期间调用过setReadOnly/setTransactionIsolation时dirty为true，归还时恢复
+        final boolean defaultReadOnly;
+        final int defaultIsolation;
+        boolean dirty;
+
+        Entry(Connection raw, int state) throws SQLException {
+            this.raw = raw;
+            this.state = new AtomicInteger(state);
+            this.createdAt = this.lastAccess = System.currentTimeMillis();
+            this.defaultReadOnly = raw.isReadOnly();
+            this.defaultIsolation = raw.getTransactionIsolation();
+        }
+
+        //每次借出都生成一个新的代理，close()只对本次借出有效，重复close不会把连接归还两次
+        Connection proxy() {
+            leakReported = false;
+            return (Connection) Proxy.newProxyInstance(FastPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+    }
+
+    //借出的连接：调用close()时归还到池中，而不是真正关闭
+    private final class Handle implements InvocationHandler {
+        private Entry entry;
+
+        Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) && method.getParameterCount() == 0) {
+                Entry e = entry;
+                entry = null;
+                if (e != null) release(e);
+                return null;
+            }
+            if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                return entry == null || entry.raw.isClosed();
+            }
+            if (entry == null) {
+                if ("toString".equals(name)) return "FastPool连接(已归还)";
+                throw new SQLException("连接已经归还到连接池：" + name + Arrays.toString(args));
+            }
+            if ("unwrap".equals(name) && args[0] == Connection.class) return proxy;
+            if ("setReadOnly".equals(name) || "setTransactionIsolation".equals(name)) entry.dirty = true;
+            try {
+                return method.invoke(entry.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
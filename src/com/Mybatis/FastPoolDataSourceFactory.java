@@ -0,0 +1,35 @@
+package com.Mybatis;
+
+import org.apache.ibatis.datasource.DataSourceFactory;
+
+import javax.sql.DataSource;
+import java.util.Properties;
+
+//让MyBatis使用FastPool：在mybatis-config.xml中写 <dataSource type="com.Mybatis.FastPoolDataSourceFactory">
+//支持的配置项（时间单位都是毫秒）：
+//  driver / url / username / password   和POOLED相同
+//  maximumPoolSize        最大连接数，默认10
+//  minimumIdle            最少保留的空闲连接，默认0
+//  connectionTimeout      借连接最多等待多久，默认30000
+//  maxLifetime            连接最长存活时间，默认30分钟
+//  idleTimeout            空闲多久后关闭（保留minimumIdle个），默认10分钟
+//  validationInterval     空闲超过这么久才在借出前检查一次连接是否可用，默认5000
+//  leakDetectionThreshold 借出超过这么久未归还就打印借出位置，默认0（关闭）
+//  housekeepingPeriod     后台维护的间隔，默认30000
+//  driver.xxx             直接传给驱动的参数
+public class FastPoolDataSourceFactory implements DataSourceFactory {
+
+    private Properties properties;
+    private FastPool dataSource;
+
+    @Override
+    public void setProperties(Properties props) {
+        this.properties = props;
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        if (dataSource == null) dataSource = new FastPool(properties);
+        return dataSource;
+    }
+}
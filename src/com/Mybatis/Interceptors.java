@@ -0,0 +1,347 @@
+package com.Mybatis;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+//动态代理的拦截器链
+//ShopperProxy每次调用都要走method.invoke(target, args)，反射调用在热点接口上开销很明显。
+//这里在创建代理工厂时就为接口的每个方法生成一个调用类（LambdaMetafactory，和方法引用的实现方式一样），
+//并确定每个方法要经过哪些拦截器：
+// - 没有拦截器的方法直接通过生成的调用类调用目标对象（如果整个接口都没有拦截器，干脆不创建代理）
+// - 有拦截器的方法按添加顺序组成环绕链，before/after也只是特殊的环绕，直接接在链上
+//用法：
+//  Shopper shopper = Interceptors.of(Shopper.class)
+//          .before(m -> m.getName().startsWith("sale"), inv -> System.out.println("讨价还价"))
+//          .build()
+//          .create(new ShopperImpl());
+public final class Interceptors {
+
+    private Interceptors() {
+    }
+
+    //环绕拦截器，调用invocation.proceed()继续执行后面的拦截器和目标方法
+    public interface Interceptor {
+        Object intercept(Invocation invocation) throws Throwable;
+    }
+
+    public static <T> Builder<T> of(Class<T> type) {
+        if (!type.isInterface()) throw new IllegalArgumentException(type.getName() + "不是接口");
+        return new Builder<>(type);
+    }
+
+    public static final class Builder<T> {
+        private final Class<T> type;
+        private final List<Predicate<Method>> matchers = new ArrayList<>();
+        private final List<Interceptor> interceptors = new ArrayList<>();
+
+        private Builder(Class<T> type) {
+            this.type = type;
+        }
+
+        /**
+         * 添加环绕拦截器，先添加的在外层
+         * @param matcher 哪些方法需要拦截
+         */
+        public Builder<T> around(Predicate<Method> matcher, Interceptor interceptor) {
+            matchers.add(matcher);
+            interceptors.add(interceptor);
+            return this;
+        }
+
+        //目标方法执行前
+        public Builder<T> before(Predicate<Method> matcher, Consumer<Invocation> advice) {
+            return around(matcher, new Before(advice));
+        }
+
+        //目标方法正常返回后，可以拿到返回值
+        public Builder<T> after(Predicate<Method> matcher, AfterAdvice advice) {
+            return around(matcher, new After(advice));
+        }
+
+        //只解析一次，之后用同一个工厂创建任意多个代理
+        public Factory<T> build() {
+            return new Factory<>(type, matchers, interceptors);
+        }
+    }
+
+    public interface AfterAdvice {
+        void after(Invocation invocation, Object result);
+    }
+
+    //代理工厂：保存每个方法解析好的调用方式
+    public static final class Factory<T> {
+        private final Class<T> type;
+        private final Map<Method, Call> dispatch = new HashMap<>();
+        private final boolean passThrough;
+
+        private Factory(Class<T> type, List<Predicate<Method>> matchers, List<Interceptor> interceptors) {
+            this.type = type;
+            boolean advised = false;
+            List<Method> methods = new ArrayList<>(Arrays.asList(type.getMethods()));
+            try {
+                methods.add(Object.class.getMethod("equals", Object.class));
+                methods.add(Object.class.getMethod("hashCode"));
+                methods.add(Object.class.getMethod("toString"));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Method m : methods) {
+                if (Modifier.isStatic(m.getModifiers())) continue;
+                List<Interceptor> chain = new ArrayList<>();
+                if (m.getDeclaringClass() != Object.class) {
+                    for (int i = 0; i < matchers.size(); i++) {
+                        if (matchers.get(i).test(m)) chain.add(interceptors.get(i));
+                    }
+                }
+                advised |= !chain.isEmpty();
+                //从内到外把拦截器包在目标方法外面，调用时不需要再按下标递归查找下一个拦截器
+                Call call = Calls.of(type, m);
+                for (int i = chain.size() - 1; i >= 0; i--) call = link(m, chain.get(i), call);
+                dispatch.put(m, call);
+            }
+            this.passThrough = !advised;
+        }
+
+        /**
+         * 为目标对象创建代理，没有任何拦截器时直接返回目标对象本身
+         */
+        public T create(T target) {
+            Objects.requireNonNull(target);
+            if (passThrough) return target;
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new Handler(target, this)));
+        }
+
+        //同一个代理类每次传进来的Method都是同一个对象，先按引用比较查找，比HashMap按equals比较名称和参数类型快得多
+        //Method和对应的Call交替放在一个数组里，查找时只读一次volatile
+        private volatile Object[] seen = new Object[0];
+
+        Call lookup(Method method) {
+            Object[] seen = this.seen;
+            for (int i = 0; i < seen.length; i += 2) {
+                if (seen[i] == method) return (Call) seen[i + 1];
+            }
+            return remember(method);
+        }
+
+        private synchronized Call remember(Method method) {
+            Call d = dispatch.get(method);
+            Object[] next = Arrays.copyOf(seen, seen.length + 2);
+            next[next.length - 2] = method;
+            next[next.length - 1] = d;
+            seen = next;
+            return d;
+        }
+    }
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    //调用目标对象的某个方法，或者是包了一层拦截器的调用
+    private interface Call {
+        Object call(Object target, Object[] args) throws Throwable;
+    }
+
+    //before/after直接在链上调用下一层，比包成环绕拦截器少两层转发
+    private static Call link(Method method, Interceptor interceptor, Call next) {
+        if (interceptor instanceof Before) {
+            Consumer<Invocation> advice = ((Before) interceptor).advice;
+            return (t, a) -> {
+                advice.accept(new Invocation(method, next, t, a));
+                return next.call(t, a);
+            };
+        }
+        if (interceptor instanceof After) {
+            AfterAdvice advice = ((After) interceptor).advice;
+            return (t, a) -> {
+                Object result = next.call(t, a);
+                advice.after(new Invocation(method, next, t, a), result);
+                return result;
+            };
+        }
+        return new Chained(method, interceptor, next);
+    }
+
+    private static final class Before implements Interceptor {
+        final Consumer<Invocation> advice;
+
+        Before(Consumer<Invocation> advice) {
+            this.advice = advice;
+        }
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            advice.accept(invocation);
+            return invocation.proceed();
+        }
+    }
+
+    private static final class After implements Interceptor {
+        final AfterAdvice advice;
+
+        After(AfterAdvice advice) {
+            this.advice = advice;
+        }
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            Object result = invocation.proceed();
+            advice.after(invocation, result);
+            return result;
+        }
+    }
+
+    private static final class Chained implements Call {
+        final Method method;
+        final Interceptor interceptor;
+        final Call next;
+
+        Chained(Method method, Interceptor interceptor, Call next) {
+            this.method = method;
+            this.interceptor = interceptor;
+            this.next = next;
+        }
+
+        @Override
+        public Object call(Object target, Object[] args) throws Throwable {
+            return interceptor.intercept(new Invocation(method, next, target, args));
+        }
+    }
+
+    //LambdaMetafactory生成的调用类要实现的接口，按参数个数区分，生成的类在目标接口所在的包里，所以必须是public
+    public interface F0 { Object invoke(Object t); }
+    public interface F1 { Object invoke(Object t, Object a); }
+    public interface F2 { Object invoke(Object t, Object a, Object b); }
+    public interface F3 { Object invoke(Object t, Object a, Object b, Object c); }
+    public interface V0 { void invoke(Object t); }
+    public interface V1 { void invoke(Object t, Object a); }
+    public interface V2 { void invoke(Object t, Object a, Object b); }
+    public interface V3 { void invoke(Object t, Object a, Object b, Object c); }
+
+    private static final class Calls {
+        private static final Class<?>[] FUNCTIONS = {F0.class, F1.class, F2.class, F3.class};
+        private static final Class<?>[] VOIDS = {V0.class, V1.class, V2.class, V3.class};
+
+        //参数不超过3个时生成调用类，和直接写代码调用的速度一样；
+        //其它情况（参数太多、接口无法访问、Object的方法）退回到MethodHandle
+        static Call of(Class<?> type, Method m) {
+            int n = m.getParameterCount();
+            if (n <= 3 && m.getDeclaringClass() != Object.class) {
+                try {
+                    return generate(type, m, n);
+                } catch (Throwable ignored) {
+                    //退回到MethodHandle
+                }
+            }
+            return handle(m);
+        }
+
+        private static Call generate(Class<?> type, Method m, int n) throws Throwable {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            MethodHandle impl = lookup.unreflect(m);
+            boolean isVoid = m.getReturnType() == void.class;
+            Class<?> fn = isVoid ? VOIDS[n] : FUNCTIONS[n];
+            //接口方法的类型：(Object, Object...) -> Object/void
+            Class<?>[] erased = new Class<?>[n + 1];
+            Arrays.fill(erased, Object.class);
+            MethodType sam = MethodType.methodType(isVoid ? void.class : Object.class, erased);
+            //实际类型：参数和返回值都用包装类型，由生成的类负责拆箱/装箱
+            Class<?>[] actual = new Class<?>[n + 1];
+            actual[0] = m.getDeclaringClass();
+            for (int i = 0; i < n; i++) actual[i + 1] = box(m.getParameterTypes()[i]);
+            MethodType instantiated = MethodType.methodType(isVoid ? void.class : box(m.getReturnType()), actual);
+            Object f = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(fn),
+                    sam, impl, instantiated).getTarget().invoke();
+            switch (n) {
+                case 0:
+                    if (isVoid) { V0 v = (V0) f; return (t, a) -> { v.invoke(t); return null; }; }
+                    F0 f0 = (F0) f;
+                    return (t, a) -> f0.invoke(t);
+                case 1:
+                    if (isVoid) { V1 v = (V1) f; return (t, a) -> { v.invoke(t, a[0]); return null; }; }
+                    F1 f1 = (F1) f;
+                    return (t, a) -> f1.invoke(t, a[0]);
+                case 2:
+                    if (isVoid) { V2 v = (V2) f; return (t, a) -> { v.invoke(t, a[0], a[1]); return null; }; }
+                    F2 f2 = (F2) f;
+                    return (t, a) -> f2.invoke(t, a[0], a[1]);
+                default:
+                    if (isVoid) { V3 v = (V3) f; return (t, a) -> { v.invoke(t, a[0], a[1], a[2]); return null; }; }
+                    F3 f3 = (F3) f;
+                    return (t, a) -> f3.invoke(t, a[0], a[1], a[2]);
+            }
+        }
+
+        //统一成 (Object target, Object[] args) -> Object，调用时用invokeExact，不再走Method.invoke
+        private static Call handle(Method m) {
+            MethodHandle handle;
+            try {
+                m.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(m)
+                        .asSpreader(Object[].class, m.getParameterCount())
+                        .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("无法访问方法：" + m, e);
+            }
+            return (t, a) -> (Object) handle.invokeExact(t, a);
+        }
+
+        private static Class<?> box(Class<?> c) {
+            return c.isPrimitive() ? MethodType.methodType(c).wrap().returnType() : c;
+        }
+    }
+
+    private static final class Handler implements InvocationHandler {
+        private final Object target;
+        private final Factory<?> factory;
+
+        Handler(Object target, Factory<?> factory) {
+            this.target = target;
+            this.factory = factory;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            return factory.lookup(method).call(target, args == null ? NO_ARGS : args);
+        }
+    }
+
+    //一次方法调用，拦截器通过它拿到方法、参数，并继续执行
+    public static final class Invocation {
+        private final Method method;
+        private final Call next;
+        private final Object target;
+        private final Object[] args;
+
+        private Invocation(Method method, Call next, Object target, Object[] args) {
+            this.method = method;
+            this.next = next;
+            this.target = target;
+            this.args = args;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        //可以在拦截器中修改参数
+        public Object[] getArgs() {
+            return args;
+        }
+
+        public Object getTarget() {
+            return target;
+        }
+
+        public Object proceed() throws Throwable {
+            return next.call(target, args);
+        }
+    }
+}
@@ -1,22 +1,28 @@
 package com.Mybatis;
 
 import com.jdbc.Student;
+import com.jdbc.Teacher;
 import lombok.SneakyThrows;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
-import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class Main {
     @SneakyThrows // 因为用到了文件io流 使用lombok注解自动生成try-catch代码块
     public static void main(String[] args) throws FileNotFoundException {
         Student student001;
-        //通过文件io流的方式读取
-        SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(new FileInputStream("mybatis-config.xml"));
+        //工厂只在MybatisUtil里创建一次，不再单独读取一遍mybatis-config.xml
+        //（可以先用ConfigurationSnapshot生成快照，再加上 -Dmybatis.snapshot=mybatis-config.snapshot 启动）
+        SqlSessionFactory sqlSessionFactory = MybatisUtil.getFactory();
+        //连接池和常用语句先预热好
+        MybatisUtil.warmUp(2);
         //try (SqlSession sqlSession = sqlSessionFactory.openSession(true)){
             try (SqlSession sqlSession = MybatisUtil.getSession(true)){
                 //暂时还没有业务
@@ -68,14 +74,52 @@ public class Main {
             TestMapper testMapper2 = sqlSession2.getMapper(TestMapper.class);
             Student s02 = testMapper2.getStudentBySid(1);
             System.out.println(student001 == s02); //true
+            //查看二级缓存的命中情况
+            System.out.println(TinyLfuCache.get(TestMapper.class.getName()));
 
 
             //使用注解的方式 添加数据
             //System.out.println(testMapper2.addStudent(new Student().setSid(5001).setName("yyh").setSex("男")));
 
             System.out.println(testMapper2.getTeacherByTid02(101));
+
+            //批量加载：查询多个老师时不再每个老师单独查一次学生
+            TeacherLoader loader = new TeacherLoader(sqlSession2);
+            System.out.println(loader.getTeachers(Arrays.asList(101, 102, 103), true));
+        }
+
+        //流式读取：适合数据量很大的表，读到一行处理一行，不会把整张表放进内存
+        try (Stream<Student> stream = MybatisUtil.streamStudent()) {
+            stream.forEach(Student::say);
         }
 
+        //异步查询：几个互不相关的查询同时执行，而不是一个接一个
+        try (AsyncMapper async = new AsyncMapper(10)) {
+            CompletableFuture<Student> a = async.call(TestMapper.class, m -> m.getStudentBySid(1001));
+            CompletableFuture<Student> b = async.call(TestMapper.class, m -> m.getStudentBySid(1002));
+            CompletableFuture<Teacher> t = async.call(TestMapper.class, m -> m.getTeacherByTid(101), 3, TimeUnit.SECONDS);
+            CompletableFuture.allOf(a, b, t).join();
+            System.out.println(a.join() + " " + b.join() + " " + t.join());
+        }
+
+        //student表整张放进内存，按sid查询不再走SQL；通过Mapper增删学生时对应的sid自动失效
+        try (StudentStore store = StudentStore.load(sqlSessionFactory)) {
+            System.out.println(store.get(1003) + " " + store.sexOf(1003));
+            System.out.println(store);
+        }
+
+        //整表读取：按sid键集分页，并行扫描时每个sid区间一个会话
+        StudentScan scan = new StudentScan(sqlSessionFactory, 500);
+        System.out.println(scan.page(Integer.MIN_VALUE).size() + " " + scan.scan(4, page -> {}));
+
+        //每个语句的次数和耗时分布（mybatis-config.xml里配置的StatementMetrics插件）
+        System.out.println(StatementMetrics.get().getReport());
+
+        //批量插入：每100条发送并提交一次
+        //List<Student> list = new ArrayList<>();
+        //for (int i = 0; i < 1000; i++) list.add(new Student().setSid(10000 + i).setName("batch" + i).setSex("男"));
+        //System.out.println(new BatchInsert(100).addStudents(list));
+
 
         //代理的方式 卖西瓜
         //静态代理，也就是说我们需要提前知道接口的定义并进行实现才可以完成代理
@@ -89,5 +133,14 @@ public class Main {
                 impl.getClass().getInterfaces(), new ShopperProxy(impl));
         shopper.saleWatermelon("小强");
         System.out.println(shopper.getClass());
+
+        //拦截器链：代理只在创建工厂时解析一次，调用时不再走method.invoke
+        Shopper shopper2 = Interceptors.of(Shopper.class)
+                .before(m -> m.getName().equals("saleWatermelon"),
+                        inv -> System.out.println(inv.getArgs()[0] + "：哥们，这瓜多少钱一斤啊？"))
+                .after(m -> m.getName().equals("saleWatermelon"), (inv, result) -> System.out.println("交易完成"))
+                .build()
+                .create(impl);
+        shopper2.saleWatermelon("小强");
     }
 }
@@ -1,30 +1,160 @@
 package com.Mybatis;
 
+import com.jdbc.Student;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-class MybatisUtil {
+public class MybatisUtil {
 
-    //在类加载时就进行创建
-    private static SqlSessionFactory sqlSessionFactory;
-    static {
+    private static final Logger LOG = Logger.getLogger(MybatisUtil.class.getName());
+
+    //配置文件的位置，可以用 -Dmybatis.config=... 修改
+    private static final Path CONFIG = Paths.get(System.getProperty("mybatis.config", "mybatis-config.xml"));
+    //配置快照（ConfigurationSnapshot生成），-Dmybatis.snapshot=mybatis-config.snapshot 时启用
+    private static final String SNAPSHOT = System.getProperty("mybatis.snapshot");
+
+    //整个程序只有一个工厂，第一次用到时才创建；类加载本身保证了只创建一次并且线程安全
+    private static final class Holder {
+        static final SqlSessionFactory FACTORY = build();
+    }
+
+    /**
+     * 获取全局共享的SqlSessionFactory，第一次调用时创建
+     * @return SqlSessionFactory对象
+     */
+    public static SqlSessionFactory getFactory(){
+        return Holder.FACTORY;
+    }
+
+    //快照存在并且和配置文件、Mapper都对得上时直接加载快照，否则解析XML；找不到配置文件直接报错，而不是留下一个null
+    private static SqlSessionFactory build(){
         try {
-            sqlSessionFactory = new SqlSessionFactoryBuilder().build(new FileInputStream("mybatis-config.xml"));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            if (SNAPSHOT != null) {
+                Path snapshot = Paths.get(SNAPSHOT);
+                if (Files.exists(snapshot)) {
+                    try {
+                        return ConfigurationSnapshot.load(snapshot, Files.exists(CONFIG) ? CONFIG : null);
+                    } catch (IOException | RuntimeException e) {
+                        //快照过期、损坏，或者按快照组装失败（例如换了MyBatis版本），都退回到解析XML
+                        LOG.log(Level.WARNING, "无法使用配置快照，改为解析XML（请重新生成快照）：" + e.getMessage());
+                    }
+                }
+            }
+            try (InputStream in = Files.newInputStream(CONFIG)) {
+                return new SqlSessionFactoryBuilder().build(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("无法加载MyBatis配置：" + CONFIG.toAbsolutePath(), e);
         }
     }
 
+    /**
+     * 预热：在正式请求到来之前先把连接池里的连接建好，并把常用语句各执行一次
+     * （第一次执行时要加载驱动里的类、创建结果对象的反射信息、JIT编译等，都放在这里完成）
+     * @param connections 同时借出多少个连接，连接池会按这个数量建好连接
+     * @param statements 在每个会话上执行的预热语句
+     */
+    public static void warmUp(int connections, Consumer<SqlSession> statements){
+        SqlSessionFactory factory = getFactory();
+        List<SqlSession> sessions = new ArrayList<>(connections);
+        try {
+            //先全部借出再一起归还，否则每次拿到的都是同一个连接
+            for (int i = 0; i < connections; i++) {
+                SqlSession session = factory.openSession(true);
+                sessions.add(session);
+                session.getConnection();
+            }
+            for (SqlSession session : sessions) {
+                statements.accept(session);
+                session.clearCache();
+            }
+        } finally {
+            sessions.forEach(SqlSession::close);
+        }
+    }
+
+    /**
+     * 用TestMapper里的常用查询预热
+     * @param connections 同时借出多少个连接
+     */
+    public static void warmUp(int connections){
+        warmUp(connections, session -> {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            mapper.getStudentBySid(0);
+            mapper.getTeacherByTid(0);
+        });
+    }
+
     /**
      * 获取一个新的会话
      * @param autoCommit 是否开启自动提交（跟JDBC是一样的，如果不自动提交，则会变成事务操作）
      * @return SqlSession对象
      */
     public static SqlSession getSession(boolean autoCommit){
-        return sqlSessionFactory.openSession(autoCommit);
+        return getFactory().openSession(autoCommit);
+    }
+
+    /**
+     * 获取一个指定执行器类型的会话
+     * @param type 执行器类型，BATCH会把多条语句攒起来一次性发送
+     * @param autoCommit 是否开启自动提交
+     * @return SqlSession对象
+     */
+    public static SqlSession getSession(ExecutorType type, boolean autoCommit){
+        return getFactory().openSession(type, autoCommit);
+    }
+
+    /**
+     * 以流的方式读取全部学生，内存里同一时间只保留当前这一行
+     * 使用完毕后必须关闭流（推荐try-with-resources），关闭时会一并关闭游标和会话
+     * @return 学生流
+     */
+    public static Stream<Student> streamStudent(){
+        return stream(session -> session.getMapper(TestMapper.class).cursorStudent());
+    }
+
+    /**
+     * 打开一个新的会话执行游标查询，并把游标包装为Stream
+     * @param query 在会话上执行的游标查询
+     * @return 关闭时会同时关闭游标和会话的流
+     */
+    public static <T> Stream<T> stream(Function<SqlSession, Cursor<T>> query){
+        SqlSession session = getSession(false);
+        try {
+            Cursor<T> cursor = query.apply(session);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor.iterator(), Spliterator.ORDERED), false)
+                    .onClose(() -> {
+                        try {
+                            cursor.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        } finally {
+                            session.close();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
     }
 }
@@ -0,0 +1,937 @@
+package com.Mybatis;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//读写分离 + 按sid分片的数据源，Mapper的代码不需要任何修改
+//每个分片有一个主库和若干只读从库（只有一个分片时就是普通的读写分离）
+//MyBatis拿到的连接是一个“路由连接”，真正的连接要等到执行语句时才按SQL决定去哪个库拿：
+// - 自动提交下的select发到从库，同一个连接第一次读时选当前未完成请求最少的从库，之后一直用它
+// - 写操作、事务中（关闭了自动提交）的读、以及同一个连接写过之后的读都发到主库，保证读到自己刚写的数据
+// - 涉及分片表（默认student、teach）的语句按 sid = ? 的参数值计算分片；insert按列表里sid对应的值
+// - 分片表上没有sid条件的查询发到所有分片并发执行，结果合并成一个ResultSet（scatter-gather），
+//   带 order by 列 [limit n] 时按这一列归并排序并截取前n行，所以 where sid > ? order by sid limit ? 的分页也能用
+// - 分片表上没有sid条件的更新发到所有分片；没有sid的insert直接报错
+// - 不涉及分片表的语句（teacher等，每个分片上都有一份完整的数据）：读发到一个分片，写发到所有分片
+//限制：跨分片的事务不是原子的（各分片依次提交）；跨分片的count/sum等聚合不会合并，是每个分片一行；
+//     跨分片查询不支持offset分页
+public class RoutingDataSource implements DataSource {
+
+    private static final Logger LOG = Logger.getLogger(RoutingDataSource.class.getName());
+
+    //scatter-gather时并发执行各分片上的语句
+    private static final ExecutorService SCATTER = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "routing-scatter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 一个分片：一个主库和若干只读从库
+     */
+    public static final class Shard {
+        final DataSource primary;
+        final DataSource[] replicas;
+        //每个从库上正在执行的语句数
+        final AtomicInteger[] outstanding;
+        final AtomicInteger next = new AtomicInteger();
+
+        public Shard(DataSource primary, List<? extends DataSource> replicas) {
+            this.primary = Objects.requireNonNull(primary);
+            this.replicas = replicas.toArray(new DataSource[0]);
+            this.outstanding = new AtomicInteger[this.replicas.length];
+            for (int i = 0; i < outstanding.length; i++) outstanding[i] = new AtomicInteger();
+        }
+
+        //未完成请求最少的从库，一样多时轮流选
+        int leastOutstanding() {
+            int n = replicas.length, start = Math.floorMod(next.getAndIncrement(), n), best = start;
+            for (int i = 1; i < n; i++) {
+                int candidate = (start + i) % n;
+                if (outstanding[candidate].get() < outstanding[best].get()) best = candidate;
+            }
+            return best;
+        }
+    }
+
+    private final Shard[] shards;
+    private final Set<String> shardedTables;
+    private final String shardKey;
+    private final Pattern keyPattern;
+    //SQL的分析结果，MyBatis的SQL基本是固定的几条
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder scatters = new LongAdder();
+
+    private PrintWriter logWriter;
+
+    /**
+     * @param shards 各个分片，只有一个时就是普通的读写分离
+     * @param shardedTables 按分片键拆分的表，其余的表认为每个分片上都有完整的一份
+     * @param shardKey 分片键的列名
+     */
+    public RoutingDataSource(List<Shard> shards, Collection<String> shardedTables, String shardKey) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("至少要有一个分片");
+        this.shards = shards.toArray(new Shard[0]);
+        this.shardedTables = new HashSet<>();
+        for (String table : shardedTables) this.shardedTables.add(table.trim().toLowerCase(Locale.ROOT));
+        this.shardKey = shardKey.toLowerCase(Locale.ROOT);
+        this.keyPattern = Pattern.compile("(?:^|[\\s(,])(?:\\w+\\.)?" + Pattern.quote(this.shardKey)
+                + "\\s*=\\s*(\\?|-?\\d+)(?=[\\s)]|$)");
+    }
+
+    /**
+     * 只有读写分离，不分片
+     */
+    public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas) {
+        this(Collections.singletonList(new Shard(primary, replicas)), Collections.emptySet(), "sid");
+    }
+
+    /**
+     * 分片键的值属于哪个分片（先打散再取余，连续的sid会均匀分到各个分片）
+     */
+    public static int shardOf(long key, int shards) {
+        return (int) (((key * 0x9E3779B97F4A7C15L) >>> 33) % shards);
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public Connection getConnection() {
+        return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new RoutingConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("各个库使用配置中的用户名和密码");
+    }
+
+    //================= SQL分析 =================
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern TABLES = Pattern.compile("\\b(?:from|join|into|update)\\s+`?(?:\\w+`?\\.`?)?(\\w+)`?");
+    private static final Pattern INSERT = Pattern.compile("^insert into `?(?:\\w+`?\\.`?)?\\w+`?\\s*\\(([^)]*)\\)\\s*values\\s*\\(([^)]*)\\)$");
+    private static final Pattern ORDER_LIMIT = Pattern.compile("order by (?:\\w+\\.)?(\\w+)(?: (asc|desc))?(?: limit (\\?|\\d+))?$");
+    private static final Pattern LIMIT = Pattern.compile("limit (\\?|\\d+)$");
+
+    //一条SQL应该怎么路由
+    static final class Route {
+        boolean read;             //select，并且不是select ... for update
+        boolean sharded;          //涉及分片表
+        boolean insert;
+        int keyParam;             //分片键是第几个参数，0表示不是参数
+        Long keyLiteral;          //分片键直接写在SQL里
+        String orderColumn;       //跨分片合并时的排序列
+        boolean descending;
+        int limitParam;
+        Long limitLiteral;
+        boolean offset;           //limit a, b 或者 offset
+    }
+
+    Route route(String sql) {
+        Route route = routes.get(sql);
+        if (route != null) return route;
+        route = analyze(sql);
+        if (routes.size() > 4096) routes.clear();   //动态SQL（in列表）可能有很多种，不让它无限增长
+        routes.put(sql, route);
+        return route;
+    }
+
+    private Route analyze(String rawSql) {
+        String sql = SPACES.matcher(rawSql.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+        if (sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1).trim();
+        Route route = new Route();
+        route.read = sql.startsWith("select") && !sql.endsWith(" for update") && !sql.contains(" for update ");
+        route.insert = sql.startsWith("insert");
+        Matcher tables = TABLES.matcher(sql);
+        while (tables.find()) {
+            if (shardedTables.contains(tables.group(1))) route.sharded = true;
+        }
+        if (route.sharded) findKey(sql, route);
+        Matcher order = ORDER_LIMIT.matcher(sql);
+        Matcher limit = LIMIT.matcher(sql);
+        if (order.find()) {
+            route.orderColumn = order.group(1);
+            route.descending = "desc".equals(order.group(2));
+            if (order.group(3) != null) setLimit(route, sql, order.start(3), order.group(3));
+        } else if (limit.find()) {
+            setLimit(route, sql, limit.start(1), limit.group(1));
+        }
+        route.offset = sql.contains(" offset ") || sql.matches(".* limit (\\?|\\d+) ?, ?(\\?|\\d+).*");
+        return route;
+    }
+
+    private void findKey(String sql, Route route) {
+        if (route.insert) {
+            //insert into student(sid,name,sex) values(?,?,?)，只支持单行
+            Matcher m = INSERT.matcher(sql);
+            if (!m.matches()) return;
+            String[] columns = m.group(1).split(",");
+            String[] values = m.group(2).split(",");
+            if (columns.length != values.length) return;
+            int before = count(sql.substring(0, m.start(2)));
+            for (int i = 0; i < columns.length; i++) {
+                String value = values[i].trim();
+                if (columns[i].trim().replace("`", "").equals(shardKey)) {
+                    if (value.equals("?")) route.keyParam = before + 1;
+                    else if (value.matches("-?\\d+")) route.keyLiteral = Long.parseLong(value);
+                    return;
+                }
+                if (value.equals("?")) before++;
+            }
+            return;
+        }
+        //where ... sid = ? ...，where里有or就不能确定只在一个分片上了
+        int where = sql.indexOf(" where ");
+        if (where < 0 || sql.indexOf(" or ", where) >= 0) return;
+        Matcher m = keyPattern.matcher(sql);
+        if (!m.find(where)) return;
+        if (m.group(1).equals("?")) route.keyParam = count(sql.substring(0, m.start(1))) + 1;
+        else route.keyLiteral = Long.parseLong(m.group(1));
+    }
+
+    private static void setLimit(Route route, String sql, int position, String value) {
+        if (value.equals("?")) route.limitParam = count(sql.substring(0, position)) + 1;
+        else route.limitLiteral = Long.parseLong(value);
+    }
+
+    private static int count(String sql) {
+        int n = 0;
+        for (int i = 0; i < sql.length(); i++) if (sql.charAt(i) == '?') n++;
+        return n;
+    }
+
+    //================= 路由连接 =================
+
+    //一个参数设置调用，比如 setInt(1, 1005)
+    private static final class Call {
+        final Method method;
+        final Object[] args;
+
+        Call(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        void apply(Object target) throws SQLException {
+            reflect(method, target, args);
+        }
+    }
+
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("setFetchSize", "setQueryTimeout",
+            "setMaxRows", "setLargeMaxRows", "setFetchDirection", "setMaxFieldSize", "setEscapeProcessing",
+            "setPoolable", "setCursorName"));
+
+    private final class RoutingConnection implements InvocationHandler {
+        //每个分片上已经拿到的主库/从库连接
+        final Connection[] primaries = new Connection[shards.length];
+        final Connection[] replicas = new Connection[shards.length];
+        final int[] replicaIndex = new int[shards.length];
+        final List<Object> statements = new ArrayList<>();
+        boolean autoCommit = true, readOnly, wrote, closed;
+        Integer isolation;
+
+        RoutingConnection() {
+            Arrays.fill(replicaIndex, -1);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "prepareStatement":
+                case "createStatement": {
+                    if (closed) throw new SQLException("连接已关闭");
+                    Class<?> type = name.equals("prepareStatement") ? PreparedStatement.class : Statement.class;
+                    Object statement = Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                            new Class<?>[]{type}, new RoutingStatement(this, proxy, method, args));
+                    statements.add(statement);
+                    return statement;
+                }
+                case "prepareCall":
+                    throw new SQLFeatureNotSupportedException("路由连接不支持存储过程");
+                case "setAutoCommit": {
+                    boolean value = (Boolean) args[0];
+                    //和JDBC一样：重新打开自动提交时，提交当前事务
+                    if (value && !autoCommit) forEachOpen(Connection::commit);
+                    autoCommit = value;
+                    forEachOpen(c -> c.setAutoCommit(value));
+                    return null;
+                }
+                case "getAutoCommit":
+                    return autoCommit;
+                case "commit":
+                    forEachOpen(Connection::commit);
+                    return null;
+                case "rollback":
+                    if (args == null) {
+                        forEachOpen(Connection::rollback);
+                        return null;
+                    }
+                    return reflect(method, onlyPrimary(), args);
+                case "setSavepoint":
+                case "releaseSavepoint":
+                    return reflect(method, onlyPrimary(), args);
+                case "setTransactionIsolation": {
+                    int level = (Integer) args[0];
+                    isolation = level;
+                    forEachOpen(c -> c.setTransactionIsolation(level));
+                    return null;
+                }
+                case "getTransactionIsolation":
+                    return isolation != null ? isolation : connection(0, false).getTransactionIsolation();
+                case "setReadOnly":
+                    readOnly = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return readOnly;
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "getWarnings":
+                    return null;
+                case "clearWarnings":
+                    return null;
+                case "unwrap":
+                    if (args[0] == Connection.class) return proxy;
+                    break;
+                case "isWrapperFor":
+                    if (args[0] == Connection.class) return true;
+                    break;
+                case "toString":
+                    return "RoutingConnection" + (closed ? "(已关闭)" : "");
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            if (closed) throw new SQLException("连接已关闭");
+            //其余方法（getMetaData、getSchema等）交给第一个分片的主库
+            return reflect(method, connection(0, false), args);
+        }
+
+        //读操作能不能用从库
+        boolean useReplica(Route route) {
+            return route.read && !wrote && (autoCommit || readOnly);
+        }
+
+        Connection connection(int shard, boolean replica) throws SQLException {
+            Shard s = shards[shard];
+            if (replica && s.replicas.length > 0) {
+                if (replicas[shard] == null) {
+                    int index = s.leastOutstanding();
+                    replicas[shard] = prepare(s.replicas[index].getConnection());
+                    replicaIndex[shard] = index;
+                }
+                return replicas[shard];
+            }
+            if (primaries[shard] == null) primaries[shard] = prepare(s.primary.getConnection());
+            return primaries[shard];
+        }
+
+        private Connection prepare(Connection connection) throws SQLException {
+            try {
+                if (connection.getAutoCommit() != autoCommit) connection.setAutoCommit(autoCommit);
+                if (isolation != null) connection.setTransactionIsolation(isolation);
+                return connection;
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        //保存点只在只用到一个主库时才有意义
+        private Connection onlyPrimary() throws SQLException {
+            Connection only = null;
+            for (Connection c : primaries) {
+                if (c == null) continue;
+                if (only != null) throw new SQLFeatureNotSupportedException("事务涉及多个分片，不支持保存点");
+                only = c;
+            }
+            return only != null ? only : connection(0, false);
+        }
+
+        private void forEachOpen(SqlAction action) throws SQLException {
+            SQLException failure = null;
+            for (Connection[] group : new Connection[][]{primaries, replicas}) {
+                for (Connection c : group) {
+                    if (c == null) continue;
+                    try {
+                        action.apply(c);
+                    } catch (SQLException e) {
+                        if (failure == null) failure = e;
+                        else failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) throw failure;
+        }
+
+        private void close() throws SQLException {
+            if (closed) return;
+            closed = true;
+            for (Object statement : statements) {
+                try {
+                    ((Statement) statement).close();
+                } catch (SQLException e) {
+                    //关闭连接时忽略语句的错误
+                }
+            }
+            statements.clear();
+            try {
+                forEachOpen(Connection::close);
+            } finally {
+                Arrays.fill(primaries, null);
+                Arrays.fill(replicas, null);
+            }
+        }
+    }
+
+    private interface SqlAction {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    //================= 路由语句 =================
+
+    private final class RoutingStatement implements InvocationHandler {
+        final RoutingConnection owner;
+        final Object connectionProxy;
+        final Method prepare;
+        final Object[] prepareArgs;
+        final String sql;
+        final Map<Integer, Call> params = new TreeMap<>();
+        final List<Call> options = new ArrayList<>();
+        final List<Object[]> batch = new ArrayList<>();   //{sql, 参数}
+        //上一次执行用到的真实语句
+        final List<Statement> physical = new ArrayList<>();
+        Statement single;
+        ResultSet resultSet;
+        int updateCount = -1;
+        boolean closed;
+
+        RoutingStatement(RoutingConnection owner, Object connectionProxy, Method prepare, Object[] prepareArgs) {
+            this.owner = owner;
+            this.connectionProxy = connectionProxy;
+            this.prepare = prepare;
+            this.prepareArgs = prepareArgs;
+            this.sql = prepare.getName().equals("prepareStatement") ? (String) prepareArgs[0] : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && !OPTIONS.contains(name) && args != null && args.length >= 2
+                    && args[0] instanceof Integer) {
+                params.put((Integer) args[0], new Call(method, args));
+                return null;
+            }
+            if (OPTIONS.contains(name)) {
+                options.add(new Call(method, args));
+                return null;
+            }
+            switch (name) {
+                case "executeQuery": {
+                    if (!run(proxy, args == null ? sql : (String) args[0], args))
+                        throw new SQLException("不是查询语句：" + sql);
+                    return resultSet;
+                }
+                case "execute":
+                    return run(proxy, args == null ? sql : (String) args[0], args);
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    run(proxy, args == null ? sql : (String) args[0], args);
+                    return name.equals("executeUpdate") ? (Object) updateCount : (Object) (long) updateCount;
+                case "addBatch":
+                    batch.add(new Object[]{args == null ? sql : (String) args[0], new TreeMap<>(params)});
+                    return null;
+                case "clearBatch":
+                    batch.clear();
+                    return null;
+                case "executeBatch":
+                    return executeBatch();
+                case "executeLargeBatch":
+                    return Arrays.stream(executeBatch()).asLongStream().toArray();
+                case "clearParameters":
+                    params.clear();
+                    return null;
+                case "getResultSet":
+                    return single != null ? single.getResultSet() : resultSet;
+                case "getUpdateCount":
+                    return single != null ? single.getUpdateCount() : resultSet == null ? updateCount : -1;
+                case "getLargeUpdateCount":
+                    return single != null ? single.getLargeUpdateCount() : resultSet == null ? (long) updateCount : -1L;
+                case "getMoreResults":
+                    if (single != null) return reflect(method, single, args);
+                    resultSet = null;
+                    updateCount = -1;
+                    return false;
+                case "getGeneratedKeys":
+                    if (physical.isEmpty()) throw new SQLException("语句还没有执行");
+                    return physical.get(0).getGeneratedKeys();
+                case "getConnection":
+                    return connectionProxy;
+                case "cancel":
+                    for (Statement s : physical) s.cancel();
+                    return null;
+                case "close":
+                    closed = true;
+                    closePhysical();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getWarnings":
+                    return null;
+                case "clearWarnings":
+                    return null;
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "toString":
+                    return "RoutingStatement[" + sql + "]";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            //getFetchSize等：返回设置过的值
+            if (name.startsWith("get") && method.getParameterCount() == 0) {
+                for (int i = options.size() - 1; i >= 0; i--) {
+                    Call call = options.get(i);
+                    if (call.method.getName().equals("s" + name.substring(1))) return call.args[0];
+                }
+            }
+            if (single != null) return reflect(method, single, args);
+            throw new SQLFeatureNotSupportedException("路由语句不支持：" + name);
+        }
+
+        //执行一条语句，返回是否有结果集
+        private boolean run(Object proxy, String sql, Object[] executeArgs) throws SQLException {
+            if (closed) throw new SQLException("语句已关闭");
+            closePhysical();
+            Route route = route(sql);
+            int[] targets = targets(route, params);
+            boolean replica = owner.useReplica(route);
+            if (!route.read) {
+                owner.wrote = true;
+                writes.increment();
+            } else if (replica) {
+                replicaReads.increment();
+            } else {
+                primaryReads.increment();
+            }
+            if (targets.length > 1 && route.read) scatters.increment();
+            Statement[] statements = new Statement[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                statements[i] = open(targets[i], replica, params);
+            }
+            if (targets.length == 1) {
+                single = statements[0];
+                boolean hasResult = execute(targets[0], replica, statements[0], executeArgs == null ? null : sql);
+                resultSet = hasResult ? single.getResultSet() : null;
+                updateCount = hasResult ? -1 : single.getUpdateCount();
+                return hasResult;
+            }
+            //多个分片：并发执行，当前线程执行第一个
+            String plainSql = executeArgs == null ? null : sql;
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 1; i < targets.length; i++) {
+                int shard = targets[i];
+                Statement statement = statements[i];
+                futures.add(SCATTER.submit(() -> execute(shard, replica, statement, plainSql)));
+            }
+            boolean hasResult = execute(targets[0], replica, statements[0], plainSql);
+            for (Future<Boolean> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("等待分片执行结果时被中断", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SQLException) throw (SQLException) cause;
+                    throw new SQLException(cause);
+                }
+            }
+            if (hasResult) {
+                List<ResultSet> parts = new ArrayList<>(statements.length);
+                for (Statement statement : statements) parts.add(statement.getResultSet());
+                long limit = route.limitLiteral != null ? route.limitLiteral
+                        : route.limitParam > 0 ? number(params.get(route.limitParam)) : -1;
+                resultSet = (ResultSet) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, new MergedResultSet(proxy, parts, route.orderColumn, route.descending, limit));
+                updateCount = -1;
+            } else {
+                resultSet = null;
+                updateCount = 0;
+                for (Statement statement : statements) updateCount += Math.max(0, statement.getUpdateCount());
+            }
+            return hasResult;
+        }
+
+        //在分片的真实连接上创建同样的语句，并设置参数
+        private Statement open(int shard, boolean replica, Map<Integer, Call> values) throws SQLException {
+            Connection connection = owner.connection(shard, replica);
+            Statement statement = (Statement) reflect(prepare, connection, prepareArgs);
+            physical.add(statement);
+            for (Call option : options) option.apply(statement);
+            for (Call value : values.values()) value.apply(statement);
+            return statement;
+        }
+
+        //plainSql不为null时是Statement.execute(sql)
+        private boolean execute(int shard, boolean replica, Statement statement, String plainSql) throws SQLException {
+            AtomicInteger outstanding = replica && owner.replicaIndex[shard] >= 0
+                    ? shards[shard].outstanding[owner.replicaIndex[shard]] : null;
+            if (outstanding != null) outstanding.incrementAndGet();
+            try {
+                return plainSql == null ? ((PreparedStatement) statement).execute() : statement.execute(plainSql);
+            } finally {
+                if (outstanding != null) outstanding.decrementAndGet();
+            }
+        }
+
+        //批量执行：每条按自己的参数路由，同一个分片上的合成一批
+        @SuppressWarnings("unchecked")
+        private int[] executeBatch() throws SQLException {
+            if (closed) throw new SQLException("语句已关闭");
+            closePhysical();
+            int[] counts = new int[batch.size()];
+            Map<Integer, List<Integer>> byShard = new TreeMap<>();
+            Map<Integer, Statement> statements = new HashMap<>();
+            for (int i = 0; i < batch.size(); i++) {
+                String entrySql = (String) batch.get(i)[0];
+                Map<Integer, Call> values = (Map<Integer, Call>) batch.get(i)[1];
+                Route route = route(entrySql);
+                if (route.read) throw new BatchUpdateException("批量执行中不能有查询", new int[0]);
+                owner.wrote = true;
+                writes.increment();
+                for (int shard : targets(route, values)) {
+                    Statement statement = statements.get(shard);
+                    if (sql != null) {
+                        if (statement == null) {
+                            statement = open(shard, false, Collections.emptyMap());
+                            statements.put(shard, statement);
+                        }
+                        for (Call value : values.values()) value.apply(statement);
+                        ((PreparedStatement) statement).addBatch();
+                    } else {
+                        if (statement == null) {
+                            statement = open(shard, false, Collections.emptyMap());
+                            statements.put(shard, statement);
+                        }
+                        statement.addBatch(entrySql);
+                    }
+                    byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(i);
+                }
+            }
+            batch.clear();
+            for (Map.Entry<Integer, List<Integer>> entry : byShard.entrySet()) {
+                int[] shardCounts = statements.get(entry.getKey()).executeBatch();
+                List<Integer> indexes = entry.getValue();
+                for (int j = 0; j < shardCounts.length && j < indexes.size(); j++) {
+                    int i = indexes.get(j);
+                    if (shardCounts[j] == Statement.SUCCESS_NO_INFO || counts[i] == Statement.SUCCESS_NO_INFO) {
+                        counts[i] = Statement.SUCCESS_NO_INFO;
+                    } else {
+                        counts[i] += shardCounts[j];
+                    }
+                }
+            }
+            single = statements.size() == 1 ? statements.values().iterator().next() : null;
+            return counts;
+        }
+
+        //语句要发到哪些分片
+        private int[] targets(Route route, Map<Integer, Call> values) throws SQLException {
+            int n = shards.length;
+            if (n == 1) return new int[]{0};
+            Long key = route.keyLiteral;
+            if (key == null && route.keyParam > 0) {
+                Call call = values.get(route.keyParam);
+                if (call == null) throw new SQLException("分片键" + shardKey + "没有设置参数");
+                key = number(call);
+            }
+            if (route.sharded && key != null) return new int[]{shardOf(key, n)};
+            if (route.read && !route.sharded) {
+                //每个分片上都有完整的一份，优先用这个连接已经拿到的
+                for (int i = 0; i < n; i++) {
+                    if (owner.primaries[i] != null || owner.replicas[i] != null) return new int[]{i};
+                }
+                return new int[]{ThreadLocalRandom.current().nextInt(n)};
+            }
+            if (route.sharded && route.insert) throw new SQLException("分片表的insert必须带" + shardKey);
+            if (route.read && route.offset) {
+                throw new SQLException("跨分片查询不支持offset分页，请用 where " + shardKey + " > ? 的键集分页");
+            }
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+
+        private void closePhysical() {
+            for (Statement statement : physical) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    //忽略
+                }
+            }
+            physical.clear();
+            single = null;
+            resultSet = null;
+            updateCount = -1;
+        }
+    }
+
+    private static long number(Call call) throws SQLException {
+        Object value = call == null ? null : call.args[1];
+        if (value instanceof Number) return ((Number) value).longValue();
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                //落到下面报错
+            }
+        }
+        throw new SQLException("分片键/limit必须是整数：" + value);
+    }
+
+    //================= 合并多个分片的结果 =================
+
+    private static final class MergedResultSet implements InvocationHandler {
+        final Object statement;
+        final ResultSet[] parts;
+        final String orderColumn;
+        final boolean descending;
+        final long limit;
+        //有序合并时：每个分片当前行是否有效
+        boolean[] hasRow;
+        int current = -1;
+        long returned;
+        boolean closed;
+
+        MergedResultSet(Object statement, List<ResultSet> parts, String orderColumn, boolean descending, long limit) {
+            this.statement = statement;
+            this.parts = parts.toArray(new ResultSet[0]);
+            this.orderColumn = orderColumn;
+            this.descending = descending;
+            this.limit = limit;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    return next();
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        for (ResultSet part : parts) part.close();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getStatement":
+                    return statement;
+                case "getMetaData":
+                case "findColumn":
+                case "getType":
+                case "getConcurrency":
+                case "getHoldability":
+                    return reflect(method, parts[0], args);
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "toString":
+                    return "MergedResultSet(" + parts.length + "个分片)";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            return reflect(method, parts[Math.max(current, 0)], args);
+        }
+
+        private boolean next() throws SQLException {
+            if (limit >= 0 && returned >= limit) return false;
+            boolean found = orderColumn == null ? nextInOrder() : nextMerged();
+            if (found) returned++;
+            return found;
+        }
+
+        //不排序：一个分片读完再读下一个
+        private boolean nextInOrder() throws SQLException {
+            if (current < 0) current = 0;
+            while (current < parts.length) {
+                if (parts[current].next()) return true;
+                if (current == parts.length - 1) return false;
+                current++;
+            }
+            return false;
+        }
+
+        //按排序列归并：每个分片的结果都已经是有序的，每次取各分片当前行中最小（desc时最大）的
+        private boolean nextMerged() throws SQLException {
+            if (hasRow == null) {
+                hasRow = new boolean[parts.length];
+                for (int i = 0; i < parts.length; i++) hasRow[i] = parts[i].next();
+            } else if (current >= 0) {
+                hasRow[current] = parts[current].next();
+            }
+            int best = -1;
+            Object bestValue = null;
+            for (int i = 0; i < parts.length; i++) {
+                if (!hasRow[i]) continue;
+                Object value = parts[i].getObject(orderColumn);
+                int c = best < 0 ? 0 : compare(value, bestValue);
+                if (best < 0 || (descending ? c > 0 : c < 0)) {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            if (best < 0) return false;
+            current = best;
+            return true;
+        }
+
+        //null排在最前面（和MySQL一样）
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compare(Object a, Object b) {
+            if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+            if (a instanceof Number && b instanceof Number && !(a instanceof java.math.BigDecimal)
+                    && !(b instanceof java.math.BigDecimal)) {
+                if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+                    return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+                }
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            }
+            return ((Comparable) a).compareTo(b);
+        }
+    }
+
+    private static Object reflect(Method method, Object target, Object[] args) throws SQLException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new SQLException(cause);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    //================= 统计 =================
+
+    public long replicaReadCount() {
+        return replicaReads.sum();
+    }
+
+    public long primaryReadCount() {
+        return primaryReads.sum();
+    }
+
+    public long writeCount() {
+        return writes.sum();
+    }
+
+    public long scatterCount() {
+        return scatters.sum();
+    }
+
+    public String stats() {
+        return String.format("分片=%d 从库读=%d 主库读=%d 写=%d 跨分片查询=%d",
+                shards.length, replicaReadCount(), primaryReadCount(), writeCount(), scatterCount());
+    }
+
+    /**
+     * 关闭各个库的连接池
+     */
+    public void close() {
+        for (Shard shard : shards) {
+            closeQuietly(shard.primary);
+            for (DataSource replica : shard.replicas) closeQuietly(replica);
+        }
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        if (dataSource instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) dataSource).close();
+            } catch (Exception e) {
+                LOG.warning("关闭数据源失败：" + e);
+            }
+        }
+    }
+
+    //========== DataSource的其余方法 ==========
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return LOG;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException(getClass().getName() + "不是" + iface.getName() + "的包装");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
@@ -0,0 +1,64 @@
+package com.Mybatis;
+
+import org.apache.ibatis.datasource.DataSourceFactory;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+//让MyBatis使用RoutingDataSource：<dataSource type="com.Mybatis.RoutingDataSourceFactory">
+//每个库都是一个FastPool，除了下面几项，其余配置（driver/username/password/maximumPoolSize...）每个库都一样
+//只做读写分离：
+//  url              主库
+//  replicas         从库，逗号分隔
+//分片：
+//  shards           分片数，默认1
+//  shard.N.url      第N个分片（从0开始）的主库
+//  shard.N.replicas 第N个分片的从库，逗号分隔
+//  shardedTables    按分片键拆分的表，默认 student,teach
+//  shardKey         分片键，默认 sid
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+    private Properties properties;
+    private RoutingDataSource dataSource;
+
+    @Override
+    public void setProperties(Properties props) {
+        this.properties = props;
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        if (dataSource == null) dataSource = create(properties);
+        return dataSource;
+    }
+
+    private static RoutingDataSource create(Properties props) {
+        int count = Integer.parseInt(props.getProperty("shards", "1").trim());
+        List<RoutingDataSource.Shard> shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String prefix = count == 1 && props.getProperty("shard.0.url") == null ? "" : "shard." + i + ".";
+            String url = props.getProperty(prefix + "url");
+            if (url == null) throw new IllegalArgumentException("缺少配置项：" + prefix + "url");
+            List<DataSource> replicas = new ArrayList<>();
+            String replicaUrls = props.getProperty(prefix + "replicas", "").trim();
+            if (!replicaUrls.isEmpty()) {
+                for (String replica : replicaUrls.split("\\s*,\\s*")) replicas.add(pool(props, replica));
+            }
+            shards.add(new RoutingDataSource.Shard(pool(props, url.trim()), replicas));
+        }
+        List<String> tables = Arrays.asList(props.getProperty("shardedTables", "student,teach").split(","));
+        return new RoutingDataSource(shards, tables, props.getProperty("shardKey", "sid").trim());
+    }
+
+    private static FastPool pool(Properties props, String url) {
+        Properties copy = new Properties();
+        for (String name : props.stringPropertyNames()) {
+            if (!name.startsWith("shard") && !name.equals("replicas")) copy.setProperty(name, props.getProperty(name));
+        }
+        copy.setProperty("url", url);
+        return new FastPool(copy);
+    }
+}
@@ -0,0 +1,447 @@
+package com.Mybatis;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.*;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//按语句统计耗时的MyBatis插件，代替STDOUT_LOGGING
+//STDOUT_LOGGING会把每条SQL、参数、每一行结果都打印出来，又慢又看不出哪条语句慢；
+//这里每个语句（TestMapper的每个方法）记录：次数、耗时分布（p50/p99/最大）、返回行数、结果映射花的时间
+// - 耗时分布用对数分桶的直方图（每个2的幂分8个桶，误差约12%），按线程分成几份各自计数，不加锁
+// - 超过slowQueryMillis的语句通过JUL打一条WARNING
+// - 返回游标的语句（queryCursor）在游标读完或者关闭时才记录：耗时是打开游标加上每次取行的时间，
+//   取行时从结果集读一行和映射一起发生，都算作映射时间；调用者在两次取行之间做的事不计入
+// - 统计可以通过JMX查看（com.Mybatis:type=StatementMetrics），也可以设置dumpSeconds定时输出到日志
+//
+//mybatis-config.xml中使用：
+//  <plugins>
+//      <plugin interceptor="com.Mybatis.StatementMetrics">
+//          <property name="slowQueryMillis" value="200"/>
+//          <property name="dumpSeconds" value="60"/>
+//      </plugin>
+//  </plugins>
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor",
+                args = {MappedStatement.class, Object.class, RowBounds.class}),
+        @Signature(type = Executor.class, method = "update",
+                args = {MappedStatement.class, Object.class}),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = {Statement.class})
+})
+public class StatementMetrics implements Interceptor, StatementMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(StatementMetrics.class.getName());
+    private static volatile StatementMetrics instance;
+
+    //MappedStatement没有重写equals/hashCode，按对象本身查找
+    private final Map<MappedStatement, Metrics> metrics = new ConcurrentHashMap<>();
+    //当前线程正在执行的语句，结果映射的耗时记到它头上
+    private final ThreadLocal<Metrics> current = new ThreadLocal<>();
+
+    private volatile long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(500);
+    private ScheduledExecutorService dumper;
+
+    public StatementMetrics() {
+        instance = this;
+    }
+
+    /**
+     * 最近创建的插件实例（一般只有一个SqlSessionFactory）
+     */
+    public static StatementMetrics get() {
+        return instance;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (invocation.getTarget() instanceof ResultSetHandler) return mapResults(invocation);
+        MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+        Metrics m = metrics.get(statement);
+        if (m == null) m = metrics.computeIfAbsent(statement, s -> new Metrics(s.getId()));
+        Metrics previous = current.get();
+        current.set(m);
+        long start = System.nanoTime();
+        boolean failed = true;
+        Object result = null;
+        try {
+            result = invocation.proceed();
+            failed = false;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            current.set(previous);
+            //游标这时才刚打开，等读完或者关闭时再记录
+            if (failed || !(result instanceof Cursor)) {
+                m.record(elapsed, failed);
+                if (result instanceof List) m.rows.add(((List<?>) result).size());
+                if (elapsed >= slowQueryNanos) slowQuery(m, elapsed, invocation.getArgs()[1], result);
+            } else {
+                result = new TimedCursor<>((Cursor<?>) result, m, elapsed, invocation.getArgs()[1]);
+            }
+        }
+        return result;
+    }
+
+    //结果映射的耗时（嵌套查询在映射过程中执行，也算在外层语句的映射时间里）
+    private Object mapResults(Invocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            Metrics m = current.get();
+            if (m != null) m.mappingNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void slowQuery(Metrics m, long elapsed, Object parameter, Object result) {
+        if (!LOG.isLoggable(Level.WARNING)) return;
+        String rows = result instanceof List ? "，" + ((List<?>) result).size() + "行"
+                : result instanceof TimedCursor ? "，" + ((TimedCursor<?>) result).rows + "行（游标）"
+                : result instanceof Integer ? "，影响" + result + "行" : "";
+        LOG.log(Level.WARNING, "慢查询 {0}：{1} ms{2}，参数：{3}",
+                new Object[]{m.id, elapsed / 1_000_000, rows, parameter});
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        //只包装需要的两种对象，其他的原样返回，省得每个StatementHandler/ParameterHandler都多一层代理
+        if (target instanceof Executor || target instanceof ResultSetHandler) return Plugin.wrap(target, this);
+        return target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+        String slow = properties.getProperty("slowQueryMillis");
+        if (slow != null) setSlowQueryMillis(Long.parseLong(slow.trim()));
+        long dumpSeconds = Long.parseLong(properties.getProperty("dumpSeconds", "0").trim());
+        if (dumpSeconds > 0) startDump(dumpSeconds);
+        if (Boolean.parseBoolean(properties.getProperty("jmx", "true").trim())) registerMBean();
+    }
+
+    //定时把统计输出到日志
+    public synchronized void startDump(long seconds) {
+        if (dumper != null) dumper.shutdownNow();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "statement-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> LOG.info(getReport()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.Mybatis:type=StatementMetrics");
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "注册JMX失败", e);
+        }
+    }
+
+    //包装queryCursor返回的游标：统计取行的耗时和行数，读完或者关闭时记录一次
+    //游标只在一个线程上使用，不需要同步
+    private final class TimedCursor<T> implements Cursor<T> {
+        private final Cursor<T> cursor;
+        private final Metrics m;
+        private final Object parameter;
+        private final long openNanos;
+        private long fetchNanos;
+        long rows;
+        private boolean failed, recorded;
+
+        TimedCursor(Cursor<T> cursor, Metrics m, long openNanos, Object parameter) {
+            this.cursor = cursor;
+            this.m = m;
+            this.openNanos = openNanos;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            Iterator<T> iterator = cursor.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    long start = System.nanoTime();
+                    boolean next;
+                    try {
+                        next = iterator.hasNext();
+                    } catch (RuntimeException | Error e) {
+                        failed(start);
+                        throw e;
+                    }
+                    fetched(start);
+                    if (!next) finish();
+                    return next;
+                }
+
+                @Override
+                public T next() {
+                    long start = System.nanoTime();
+                    T value;
+                    try {
+                        value = iterator.next();
+                    } catch (RuntimeException | Error e) {
+                        failed(start);
+                        throw e;
+                    }
+                    fetched(start);
+                    rows++;
+                    return value;
+                }
+            };
+        }
+
+        private void fetched(long start) {
+            fetchNanos += System.nanoTime() - start;
+        }
+
+        private void failed(long start) {
+            fetched(start);
+            failed = true;
+            finish();
+        }
+
+        private void finish() {
+            if (recorded) return;
+            recorded = true;
+            long elapsed = openNanos + fetchNanos;
+            m.record(elapsed, failed);
+            m.rows.add(rows);
+            m.mappingNanos.add(fetchNanos);
+            if (elapsed >= slowQueryNanos) slowQuery(m, elapsed, parameter, this);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return cursor.isOpen();
+        }
+
+        @Override
+        public boolean isConsumed() {
+            return cursor.isConsumed();
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return cursor.getCurrentIndex();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                cursor.close();
+            } finally {
+                finish();
+            }
+        }
+    }
+
+    //================= JMX =================
+
+    @Override
+    public List<StatementSnapshot> getStatements() {
+        List<StatementSnapshot> list = new ArrayList<>();
+        for (Metrics m : metrics.values()) list.add(m.snapshot());
+        list.sort((a, b) -> Long.compare(b.getTotalMillis(), a.getTotalMillis()));
+        return list;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder builder = new StringBuilder("语句耗时统计（按总耗时排序）：\n");
+        builder.append(String.format("%-40s %8s %6s %10s %10s %10s %10s %12s%n",
+                "语句", "次数", "失败", "p50(us)", "p99(us)", "max(us)", "行数", "映射(ms)"));
+        for (StatementSnapshot s : getStatements()) {
+            builder.append(String.format("%-40s %8d %6d %10d %10d %10d %10d %12d%n", s.getId(), s.getCount(),
+                    s.getErrors(), s.getP50Micros(), s.getP99Micros(), s.getMaxMicros(), s.getRows(), s.getMappingMillis()));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public long getSlowQueryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowQueryNanos);
+    }
+
+    @Override
+    public void setSlowQueryMillis(long millis) {
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public void reset() {
+        metrics.clear();
+    }
+
+    //================= 单个语句的统计 =================
+
+    private static final class Metrics {
+        final String id;
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder mappingNanos = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Metrics(String id) {
+            this.id = id;
+        }
+
+        void record(long nanos, boolean failed) {
+            latency.record(nanos);
+            totalNanos.add(nanos);
+            max.accumulate(nanos);
+            if (failed) errors.increment();
+        }
+
+        StatementSnapshot snapshot() {
+            long[] counts = latency.counts();
+            long count = 0;
+            for (long c : counts) count += c;
+            //桶的上界可能比实际最大值还大
+            long maxNanos = max.get();
+            return new StatementSnapshot(id, count, errors.sum(),
+                    Math.min(Histogram.percentile(counts, count, 0.50), maxNanos) / 1000,
+                    Math.min(Histogram.percentile(counts, count, 0.99), maxNanos) / 1000,
+                    maxNanos / 1000, rows.sum(), mappingNanos.sum() / 1_000_000, totalNanos.sum() / 1_000_000);
+        }
+    }
+
+    //对数分桶的直方图：小于8的值各占一个桶，之后每个2的幂分成8个桶
+    //按线程ID分成STRIPES份，每份单独计数，读取时再加起来
+    static final class Histogram {
+        private static final int STRIPES = 8;
+        private static final int BUCKETS = 61 * 8;
+        private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+        Histogram() {
+            for (int i = 0; i < STRIPES; i++) stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            stripes[stripe].getAndIncrement(bucket(value));
+        }
+
+        static int bucket(long value) {
+            if (value < 8) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - 2) * 8 + (int) ((value >>> (exponent - 3)) & 7);
+        }
+
+        //桶的上界
+        static long upperBound(int bucket) {
+            if (bucket < 8) return bucket;
+            int exponent = bucket / 8 + 2;
+            long sub = bucket % 8;
+            return ((8 + sub + 1) << (exponent - 3)) - 1;
+        }
+
+        long[] counts() {
+            long[] counts = new long[BUCKETS];
+            for (AtomicLongArray stripe : stripes) {
+                for (int i = 0; i < BUCKETS; i++) counts[i] += stripe.get(i);
+            }
+            return counts;
+        }
+
+        static long percentile(long[] counts, long total, double p) {
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return upperBound(counts.length - 1);
+        }
+    }
+
+    //JMX中显示的一行统计
+    public static class StatementSnapshot {
+        private final String id;
+        private final long count, errors, p50Micros, p99Micros, maxMicros, rows, mappingMillis, totalMillis;
+
+        public StatementSnapshot(String id, long count, long errors, long p50Micros, long p99Micros, long maxMicros,
+                                 long rows, long mappingMillis, long totalMillis) {
+            this.id = id;
+            this.count = count;
+            this.errors = errors;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+            this.rows = rows;
+            this.mappingMillis = mappingMillis;
+            this.totalMillis = totalMillis;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMappingMillis() {
+            return mappingMillis;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+    }
+}
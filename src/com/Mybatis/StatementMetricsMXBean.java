@@ -0,0 +1,17 @@
+package com.Mybatis;
+
+import java.util.List;
+
+//StatementMetrics在JMX中暴露的属性和操作（jconsole里com.Mybatis/StatementMetrics）
+public interface StatementMetricsMXBean {
+
+    List<StatementMetrics.StatementSnapshot> getStatements();
+
+    String getReport();
+
+    long getSlowQueryMillis();
+
+    void setSlowQueryMillis(long millis);
+
+    void reset();
+}
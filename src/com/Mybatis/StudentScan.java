@@ -0,0 +1,301 @@
+package com.Mybatis;
+
+import com.jdbc.Student;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//整表读取student：导出、重建索引这类任务
+//selectStudent一次把整张表装进内存，limit/offset分页又越翻越慢（数据库要先数过前面offset行），
+//这里用键集分页：where sid > 上一页最后一个sid order by sid limit pageSize，每一页都只是一次主键范围查找
+//并行扫描把sid分成若干区间(after, to]，每个区间一个会话各自翻页，
+//同时扫描的区间数不要超过连接池的最大连接数
+//划分区间有两种方式：
+//  byKeys   按min(sid)~max(sid)平均分，只需要一次查询，sid比较连续时用这个
+//  byRows   每rows行一个区间，用 limit 1 offset 找分界点（只走主键索引），sid有大段空洞时各区间也一样大
+//           跨分片时不支持offset，RoutingDataSource分片后只能用byKeys
+//第一个区间从Integer.MIN_VALUE开始，最后一个区间到Integer.MAX_VALUE结束，扫描期间新插入到两头的学生也能读到
+public class StudentScan {
+
+    /**
+     * 一个sid区间(after, to]
+     */
+    public static final class Range {
+        public final int after, to;
+
+        public Range(int after, int to) {
+            this.after = after;
+            this.to = to;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + after + ", " + to + "]";
+        }
+    }
+
+    //把一页交给调用者，放进队列时可能要等待
+    @FunctionalInterface
+    private interface PageSink {
+        void accept(List<Student> page) throws InterruptedException;
+    }
+
+    private final SqlSessionFactory factory;
+    private final int pageSize;
+
+    /**
+     * @param pageSize 每页多少行
+     */
+    public StudentScan(int pageSize) {
+        this(MybatisUtil.getFactory(), pageSize);
+    }
+
+    public StudentScan(SqlSessionFactory factory, int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize必须大于0");
+        this.factory = factory;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * 取after之后的一页
+     * @param after 上一页最后一个sid，第一页传Integer.MIN_VALUE
+     */
+    public List<Student> page(int after) {
+        try (SqlSession session = factory.openSession(true)) {
+            return session.getMapper(TestMapper.class).pageStudent(after, pageSize);
+        }
+    }
+
+    /**
+     * 按sid顺序逐页读取全部学生，每一页用一个短会话，不会长时间占着连接，内存里只有当前这一页
+     */
+    public Stream<Student> stream() {
+        Iterator<Student> iterator = new Iterator<Student>() {
+            List<Student> page = Collections.emptyList();
+            int index;
+            boolean last;
+
+            @Override
+            public boolean hasNext() {
+                if (index < page.size()) return true;
+                if (last) return false;
+                page = page(page.isEmpty() ? Integer.MIN_VALUE : page.get(page.size() - 1).getSid());
+                index = 0;
+                last = page.size() < pageSize;
+                return !page.isEmpty();
+            }
+
+            @Override
+            public Student next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.get(index++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    /**
+     * 按min(sid)~max(sid)平均分成count个区间，表为空时返回空列表
+     */
+    public List<Range> byKeys(int count) {
+        if (count <= 0) throw new IllegalArgumentException("count必须大于0");
+        long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+        try (SqlSession session = factory.openSession(true)) {
+            //分片时每个分片返回一行
+            for (Map<String, Object> row : session.getMapper(TestMapper.class).studentSidBounds()) {
+                if (row == null || row.get("lo") == null) continue;
+                lo = Math.min(lo, ((Number) row.get("lo")).longValue());
+                hi = Math.max(hi, ((Number) row.get("hi")).longValue());
+            }
+        }
+        List<Range> ranges = new ArrayList<>(count);
+        if (lo > hi) return ranges;
+        long span = hi - lo + 1;
+        count = (int) Math.min(count, span);
+        long after = Integer.MIN_VALUE;
+        for (int i = 1; i < count; i++) {
+            long to = lo - 1 + span * i / count;
+            ranges.add(new Range((int) after, (int) to));
+            after = to;
+        }
+        ranges.add(new Range((int) after, Integer.MAX_VALUE));
+        return ranges;
+    }
+
+    /**
+     * 每rows行分一个区间（最后一个区间可能不满）
+     */
+    public List<Range> byRows(int rows) {
+        if (rows <= 0) throw new IllegalArgumentException("rows必须大于0");
+        List<Range> ranges = new ArrayList<>();
+        try (SqlSession session = factory.openSession(true)) {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            int after = Integer.MIN_VALUE;
+            for (Integer next; (next = mapper.nextStudentSid(after, rows - 1)) != null; after = next) {
+                ranges.add(new Range(after, next));
+            }
+            ranges.add(new Range(after, Integer.MAX_VALUE));
+        }
+        return ranges;
+    }
+
+    /**
+     * 并行扫描整张表，区间按min/max平均划分为parallelism的4倍，先扫完的线程接着扫剩下的区间
+     * @see #scan(int, List, Consumer)
+     */
+    public long scan(int parallelism, Consumer<? super List<Student>> consumer) {
+        return scan(parallelism, byKeys(parallelism * 4), consumer);
+    }
+
+    /**
+     * 并行扫描给定的区间，每个区间用一个会话，区间内按sid顺序翻页
+     * 每一页交给consumer，consumer会被多个线程同时调用，页之间没有顺序
+     * 任何一个区间出错时其余区间在下一页之前停下，异常抛给调用者
+     * @param parallelism 同时扫描几个区间
+     * @return 读到的行数
+     */
+    public long scan(int parallelism, List<Range> ranges, Consumer<? super List<Student>> consumer) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return start(pool, ranges, consumer::accept, new AtomicBoolean()).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 并行扫描整张表，合并成一个流（没有顺序）
+     * @see #parallelStream(int, List)
+     */
+    public Stream<Student> parallelStream(int parallelism) {
+        return parallelStream(parallelism, byKeys(parallelism * 4));
+    }
+
+    /**
+     * 并行扫描给定的区间，合并成一个流，流里学生的顺序不确定
+     * 读到的页放进一个长度为parallelism*2的队列，流消费得慢时扫描线程会等待，不会把整张表堆在内存里
+     * 使用完必须关闭流（推荐try-with-resources），提前关闭会停止扫描
+     */
+    public Stream<Student> parallelStream(int parallelism, List<Range> ranges) {
+        BlockingQueue<List<Student>> queue = new ArrayBlockingQueue<>(parallelism * 2);
+        //扫描结束的标记，用对象地址区分
+        List<Student> end = new ArrayList<>(0);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Throwable[] error = new Throwable[1];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        start(pool, ranges, page -> offer(queue, page, cancelled), cancelled).whenComplete((rows, e) -> {
+            pool.shutdown();
+            error[0] = e;
+            //这时所有区间都已经结束，不会再有页放进队列，结束标记一定要放进去，否则读取的一方会一直等下去：
+            //出错时剩下的页反正不再交给调用者，清空后一定放得下；
+            //正常结束时等调用者取走队列里的页，调用者提前关闭流时onClose会清空队列
+            if (e != null) queue.clear();
+            try {
+                queue.put(end);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Iterator<Student> iterator = new Iterator<Student>() {
+            List<Student> page = Collections.emptyList();
+            int index;
+
+            @Override
+            public boolean hasNext() {
+                while (index == page.size()) {
+                    if (page == end) return false;
+                    try {
+                        page = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("读取时被中断");
+                    }
+                    index = 0;
+                    //error在放入结束标记之前写入，取到结束标记后一定能看到
+                    if (page == end && error[0] != null) {
+                        Throwable cause = error[0] instanceof CompletionException ? error[0].getCause() : error[0];
+                        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                        throw new CompletionException(cause);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Student next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.get(index++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.NONNULL | Spliterator.DISTINCT), false).onClose(() -> {
+            cancelled.set(true);
+            queue.clear();
+        });
+    }
+
+    //每个区间一个任务，任何一个失败时通过cancelled让其余的停下
+    private CompletableFuture<Long> start(ForkJoinPool pool, List<Range> ranges, PageSink sink, AtomicBoolean cancelled) {
+        LongAdder rows = new LongAdder();
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[ranges.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            Range range = ranges.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> scanRange(range, sink, cancelled, rows), pool)
+                    .whenComplete((v, e) -> {
+                        if (e != null) cancelled.set(true);
+                    });
+        }
+        return CompletableFuture.allOf(tasks).thenApply(v -> rows.sum());
+    }
+
+    //在一个会话里把区间从头翻到尾
+    private void scanRange(Range range, PageSink sink, AtomicBoolean cancelled, LongAdder rows) {
+        try (SqlSession session = factory.openSession(true)) {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            int after = range.after;
+            while (!cancelled.get()) {
+                List<Student> page = mapper.pageStudentBetween(after, range.to, pageSize);
+                if (page.isEmpty()) return;
+                rows.add(page.size());
+                sink.accept(page);
+                if (page.size() < pageSize) return;
+                after = page.get(page.size() - 1).getSid();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("扫描被中断");
+        }
+    }
+
+    //放进队列，流被关闭后放弃
+    private static void offer(BlockingQueue<List<Student>> queue, List<Student> page, AtomicBoolean cancelled)
+            throws InterruptedException {
+        while (!queue.offer(page, 100, TimeUnit.MILLISECONDS)) {
+            if (cancelled.get()) return;
+        }
+    }
+}
@@ -0,0 +1,646 @@
+package com.Mybatis;
+
+import com.jdbc.Student;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//student表的进程内近端缓存，getStudentBySid不走SQL
+//MyBatis的二级缓存每次命中都要算CacheKey、经过几层装饰器；HashMap<Integer, Student>每行要几个对象（约120字节）
+//这里按列存储，每行只有几个数组元素：
+// - sid -> 行号：开放寻址的int哈希表（线性探测，槽里只放行号，sid从sids列里取），不装箱
+// - name：所有名字的UTF-8字节连续放在一个byte数组里，每行记录起始位置和长度
+// - sex：取值很少，去重后每行只存一个byte编号
+//不保存Student对象：get每次从数组解码出一个新对象，调用者随便改都不影响缓存；
+//热点路径可以用read(sid, view)把调用者自己的只读视图指向这一行，或者用sexOf只取一列，都不创建对象
+//读不加锁（StampedLock乐观读，被写打断时再加读锁）
+//
+//数据来源：
+// - load(factory)：用游标读一遍全表，之后表里没有的sid直接返回null，不再查库
+// - 通过Mapper执行addStudent/deleteStudent时由StudentStoreInvalidator插件让对应的sid失效，下次get时重新查一次
+// - startPolling(feed, ...)：定时拉取增量变化（比如按updated_at列），也可以由binlog之类的变更流调用upsert/delete
+public class StudentStore implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(StudentStore.class.getName());
+
+    //所有的实例，插件按sid让它们失效
+    private static final List<StudentStore> STORES = new CopyOnWriteArrayList<>();
+
+    //索引的槽里放行号+1，0是空位
+    private static final int EMPTY = 0;
+    //nameLengths的特殊值：null，以及“已失效，需要重新查库”
+    private static final int NULL_NAME = -1, STALE = -2;
+
+    private final StampedLock lock = new StampedLock();
+    //未命中/失效时按sid查库，返回null表示不存在
+    private final IntFunction<Student> loader;
+
+    //========== 索引 ==========
+    private int[] index = new int[16];
+    private int indexed;
+
+    //========== 列 ==========
+    private int[] sids = new int[16];
+    private int[] nameOffsets = new int[16];
+    private int[] nameLengths = new int[16];  //NULL_NAME、STALE或者字节数
+    private byte[] sexCodes = new byte[16];   //0表示null，其余是sexValues里的下标
+    private String[] sexValues = {null};
+    private byte[] names = new byte[256];
+    private int rows, nameBytes;
+    private int deadRows, deadBytes;          //删除/更新后留下的空间，太多时整理一次
+
+    //装载过全表：表里没有的sid就是不存在
+    private volatile boolean complete;
+    //每次失效加一，查库期间发生过失效的结果就不放进来
+    private volatile long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private ScheduledExecutorService poller;
+
+    /**
+     * @param loader 按sid查库，缓存里没有或者已失效时调用
+     */
+    public StudentStore(IntFunction<Student> loader) {
+        this.loader = loader;
+        STORES.add(this);
+    }
+
+    /**
+     * 用游标读取整张student表，之后按sid查询都不再走SQL
+     */
+    public static StudentStore load(SqlSessionFactory factory) {
+        StudentStore store = new StudentStore(sid -> {
+            try (SqlSession session = factory.openSession(true)) {
+                return session.getMapper(TestMapper.class).getStudentBySid(sid);
+            }
+        });
+        try (SqlSession session = factory.openSession(true);
+             Cursor<Student> cursor = session.getMapper(TestMapper.class).cursorStudent()) {
+            for (Student student : cursor) store.upsert(student);
+        } catch (IOException e) {
+            throw new IllegalStateException("读取student表失败", e);
+        }
+        store.complete = true;
+        store.trim();
+        return store;
+    }
+
+    //================= 查询 =================
+
+    /**
+     * 按sid查询，没有时返回null；返回的是新建的对象，修改它不影响缓存
+     */
+    public Student get(int sid) {
+        long stamp = lock.tryOptimisticRead();
+        Student student = read(sid);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                student = read(sid);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (student != null) {
+            hits.increment();
+            return student == MISSING ? null : student;
+        }
+        misses.increment();
+        return load(sid);
+    }
+
+    //标记：不需要查库，确定不存在
+    private static final Student MISSING = new Student();
+
+    //返回null表示需要查库；乐观读期间数组可能被换掉，所有下标都检查过再用
+    private Student read(int sid) {
+        int row = lookup(sid);
+        if (row < 0) return complete ? MISSING : null;
+        int[] nameOffsets = this.nameOffsets, nameLengths = this.nameLengths;
+        byte[] sexCodes = this.sexCodes, names = this.names;
+        String[] sexValues = this.sexValues;
+        if (row >= nameOffsets.length || row >= nameLengths.length || row >= sexCodes.length) return null;
+        int offset = nameOffsets[row], length = nameLengths[row], sex = sexCodes[row] & 0xff;
+        if (length == STALE) return null;
+        if (offset < 0 || offset + Math.max(length, 0) > names.length || sex >= sexValues.length) return null;
+        //名字的字节只追加不覆盖，乐观读失败时这里解码出来的字符串也会被丢掉
+        String name = length < 0 ? null : new String(names, offset, length, StandardCharsets.UTF_8);
+        return new Student(sid, name, sexValues[sex]);
+    }
+
+    /**
+     * 调用者自己持有的只读视图：read(sid, view)只记下这一行在数组里的位置，不创建Student，名字在调用name()时才解码
+     * 视图是读取那一刻的内容，之后的修改看不到；视图不是线程安全的，每个线程用自己的
+     */
+    public static final class View {
+        private int sid;
+        private String sex;
+        //名字的字节所在的数组：数组只追加不覆盖，整理时换成新数组，所以记下的这一段不会再变
+        private byte[] names;
+        private int offset, length;
+        private String name;
+        private boolean decoded;
+
+        public int sid() {
+            return sid;
+        }
+
+        public String sex() {
+            return sex;
+        }
+
+        public String name() {
+            if (!decoded) {
+                name = length < 0 ? null : new String(names, offset, length, StandardCharsets.UTF_8);
+                names = null;
+                decoded = true;
+            }
+            return name;
+        }
+
+        /**
+         * 复制成一个Student对象
+         */
+        public Student toStudent() {
+            return new Student(sid, name(), sex);
+        }
+
+        private void set(int sid, byte[] names, int offset, int length, String sex) {
+            this.sid = sid;
+            this.names = names;
+            this.offset = offset;
+            this.length = length;
+            this.sex = sex;
+            this.name = null;
+            this.decoded = false;
+        }
+
+        private void set(Student student) {
+            set(student.getSid(), null, 0, 0, student.getSex());
+            name = student.getName();
+            decoded = true;
+        }
+
+        @Override
+        public String toString() {
+            return "StudentStore.View(sid=" + sid + ", name=" + name() + ", sex=" + sex + ")";
+        }
+    }
+
+    /**
+     * 按sid把view指向一行，命中时不分配内存；未命中时和get一样查库
+     * @return 没有这个学生时返回false，view保持原样
+     */
+    public boolean read(int sid, View view) {
+        long stamp = lock.tryOptimisticRead();
+        int row = lookup(sid);
+        if (row >= 0) {
+            int[] nameOffsets = this.nameOffsets, nameLengths = this.nameLengths;
+            byte[] sexCodes = this.sexCodes, names = this.names;
+            String[] sexValues = this.sexValues;
+            if (row < nameOffsets.length && row < nameLengths.length && row < sexCodes.length) {
+                int offset = nameOffsets[row], length = nameLengths[row], code = sexCodes[row] & 0xff;
+                String sex = code < sexValues.length ? sexValues[code] : null;
+                if (lock.validate(stamp) && length != STALE) {
+                    view.set(sid, names, offset, length, sex);
+                    hits.increment();
+                    return true;
+                }
+            }
+        } else if (complete && lock.validate(stamp)) {
+            hits.increment();
+            return false;
+        }
+        //被写打断、已失效或者需要查库
+        Student student = get(sid);
+        if (student == null) return false;
+        view.set(student);
+        return true;
+    }
+
+    //乐观读：sid对应的行号，没有返回-1
+    private int lookup(int sid) {
+        int[] index = this.index, sids = this.sids;
+        int mask = index.length - 1;
+        int slot = mix(sid) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            int row = index[slot] - 1;
+            if (row < 0) return -1;
+            if (row < sids.length && sids[row] == sid) return row;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 只查性别，不创建对象（返回的是去重后的同一个字符串）
+     * @return 性别，没有这个学生或者需要查库时和get一样处理
+     */
+    public String sexOf(int sid) {
+        long stamp = lock.tryOptimisticRead();
+        int row = lookup(sid);
+        byte[] sexCodes = this.sexCodes;
+        int[] nameLengths = this.nameLengths;
+        String[] sexValues = this.sexValues;
+        int code = row >= 0 && row < sexCodes.length ? sexCodes[row] & 0xff : -1;
+        boolean stale = row >= 0 && row < nameLengths.length && nameLengths[row] == STALE;
+        if (lock.validate(stamp) && code >= 0 && code < sexValues.length && !stale) {
+            hits.increment();
+            return sexValues[code];
+        }
+        Student student = get(sid);
+        return student == null ? null : student.getSex();
+    }
+
+    private Student load(int sid) {
+        long before = generation;
+        Student student = loader.apply(sid);
+        loads.increment();
+        long stamp = lock.writeLock();
+        try {
+            //查库期间有过失效，结果可能已经旧了，这次不放进来
+            if (generation == before) {
+                if (student != null) put(sid, student.getName(), student.getSex());
+                else remove(sid);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return student;
+    }
+
+    public boolean contains(int sid) {
+        return get(sid) != null;
+    }
+
+    //================= 修改 =================
+
+    public void upsert(Student student) {
+        upsert(student.getSid(), student.getName(), student.getSex());
+    }
+
+    /**
+     * 新增或更新一行（变更流、轮询调用）
+     */
+    public void upsert(int sid, String name, String sex) {
+        long stamp = lock.writeLock();
+        try {
+            put(sid, name, sex);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除一行
+     */
+    public void delete(int sid) {
+        long stamp = lock.writeLock();
+        try {
+            remove(sid);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 让sid失效，下次get时重新查库
+     */
+    public void invalidate(int sid) {
+        long stamp = lock.writeLock();
+        try {
+            generation++;
+            int slot = find(sid);
+            int row;
+            if (slot >= 0) {
+                row = index[slot] - 1;
+                if (nameLengths[row] > 0) deadBytes += nameLengths[row];
+            } else {
+                row = newRow();
+                sids[row] = sid;
+                insertKey(row);
+            }
+            nameLengths[row] = STALE;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 全部失效（无法确定影响了哪些sid的更新），之后每个sid第一次get都会查库
+     */
+    public void invalidateAll() {
+        long stamp = lock.writeLock();
+        try {
+            generation++;
+            complete = false;
+            index = new int[16];
+            indexed = 0;
+            sids = new int[16];
+            nameOffsets = new int[16];
+            nameLengths = new int[16];
+            sexCodes = new byte[16];
+            names = new byte[256];
+            rows = nameBytes = deadRows = deadBytes = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //以下方法都在写锁里调用
+
+    private void put(int sid, String name, String sex) {
+        int slot = find(sid);
+        int row;
+        if (slot >= 0) {
+            row = index[slot] - 1;
+            if (nameLengths[row] > 0) deadBytes += nameLengths[row];
+        } else {
+            row = newRow();
+            sids[row] = sid;
+            insertKey(row);
+        }
+        if (name == null) {
+            nameOffsets[row] = 0;
+            nameLengths[row] = NULL_NAME;
+        } else {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes + bytes.length > names.length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, nameBytes + bytes.length));
+            }
+            System.arraycopy(bytes, 0, names, nameBytes, bytes.length);
+            nameOffsets[row] = nameBytes;
+            nameLengths[row] = bytes.length;
+            nameBytes += bytes.length;
+        }
+        sexCodes[row] = sexCode(sex);
+        compactIfNeeded();
+    }
+
+    private void remove(int sid) {
+        int slot = find(sid);
+        if (slot < 0) return;
+        int row = index[slot] - 1;
+        deadRows++;
+        if (nameLengths[row] > 0) deadBytes += nameLengths[row];
+        deleteSlot(slot);
+        compactIfNeeded();
+    }
+
+    private int newRow() {
+        if (rows == sids.length) {
+            int capacity = rows * 2;
+            sids = Arrays.copyOf(sids, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+            sexCodes = Arrays.copyOf(sexCodes, capacity);
+        }
+        return rows++;
+    }
+
+    //取值很少的字符串去重，最多255种
+    private byte sexCode(String sex) {
+        if (sex == null) return 0;
+        for (int i = 1; i < sexValues.length; i++) {
+            if (sexValues[i].equals(sex)) return (byte) i;
+        }
+        if (sexValues.length == 256) throw new IllegalStateException("sex的取值超过255种");
+        sexValues = Arrays.copyOf(sexValues, sexValues.length + 1);
+        sexValues[sexValues.length - 1] = sex;
+        return (byte) (sexValues.length - 1);
+    }
+
+    //删除/更新留下的空间超过一半时重新排列
+    private void compactIfNeeded() {
+        if (deadRows > 1024 && deadRows * 2 > rows || deadBytes > 4096 && deadBytes * 2 > nameBytes) {
+            compact(Math.max(16, Integer.highestOneBit(Math.max(1, rows - deadRows)) * 2));
+        }
+    }
+
+    /**
+     * 去掉多余的空间（全表装载之后调用一次）
+     */
+    public void trim() {
+        long stamp = lock.writeLock();
+        try {
+            compact(Math.max(16, rows - deadRows));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void compact(int capacity) {
+        int[] newSids = new int[capacity], newOffsets = new int[capacity], newLengths = new int[capacity];
+        byte[] newSex = new byte[capacity];
+        byte[] newNames = new byte[Math.max(16, nameBytes - deadBytes)];
+        int n = 0, bytes = 0;
+        for (int slot = 0; slot < index.length; slot++) {
+            int row = index[slot] - 1;
+            if (row < 0) continue;
+            newSids[n] = sids[row];
+            newSex[n] = sexCodes[row];
+            int length = nameLengths[row];
+            newLengths[n] = length;
+            if (length > 0) {
+                System.arraycopy(names, nameOffsets[row], newNames, bytes, length);
+                newOffsets[n] = bytes;
+                bytes += length;
+            }
+            index[slot] = ++n;
+        }
+        sids = newSids;
+        nameOffsets = newOffsets;
+        nameLengths = newLengths;
+        sexCodes = newSex;
+        names = newNames;
+        rows = n;
+        nameBytes = bytes;
+        deadRows = deadBytes = 0;
+    }
+
+    //================= 开放寻址索引 =================
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    //sid所在的槽，没有返回-1
+    private int find(int sid) {
+        int mask = index.length - 1;
+        int slot = mix(sid) & mask;
+        while (index[slot] != EMPTY) {
+            if (sids[index[slot] - 1] == sid) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insertKey(int row) {
+        //负载超过一半时扩容，线性探测的链保持很短
+        if ((indexed + 1) * 2 > index.length) {
+            int[] old = index;
+            int[] table = new int[old.length * 2];
+            int mask = table.length - 1;
+            for (int value : old) {
+                if (value == EMPTY) continue;
+                int s = mix(sids[value - 1]) & mask;
+                while (table[s] != EMPTY) s = (s + 1) & mask;
+                table[s] = value;
+            }
+            index = table;
+        }
+        int mask = index.length - 1;
+        int slot = mix(sids[row]) & mask;
+        while (index[slot] != EMPTY) slot = (slot + 1) & mask;
+        index[slot] = row + 1;
+        indexed++;
+    }
+
+    //线性探测的删除：把后面应该在前面的key往前挪，不留墓碑
+    private void deleteSlot(int slot) {
+        int mask = index.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (index[next] != EMPTY) {
+            int home = mix(sids[index[next] - 1]) & mask;
+            //home不在(hole, next]之间时，这个key可以挪到hole
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        index[hole] = EMPTY;
+        indexed--;
+    }
+
+    //================= 增量刷新 =================
+
+    /**
+     * 增量变化的来源
+     */
+    public interface ChangeFeed {
+        /**
+         * 把since之后的变化应用到store上（upsert/delete），返回新的位置
+         */
+        long poll(long since, StudentStore store) throws Exception;
+    }
+
+    /**
+     * 按“最后修改时间”列轮询：select sid, name, sex, 时间列[, 删除标记列] from student where 时间列 >= ?
+     * 和上次的位置相同的那一毫秒会再读一遍（重复应用没有影响），避免同一毫秒内后提交的修改被漏掉
+     * @param updatedColumn 最后修改时间列
+     * @param deletedColumn 逻辑删除标记列，没有就传null
+     */
+    public static ChangeFeed updatedSince(DataSource dataSource, String updatedColumn, String deletedColumn) {
+        String sql = "select sid, name, sex, " + updatedColumn + (deletedColumn == null ? "" : ", " + deletedColumn)
+                + " from student where " + updatedColumn + " >= ? order by " + updatedColumn;
+        return (since, store) -> {
+            long last = since;
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setTimestamp(1, new Timestamp(since));
+                try (ResultSet set = statement.executeQuery()) {
+                    while (set.next()) {
+                        int sid = set.getInt(1);
+                        if (deletedColumn != null && set.getBoolean(5)) store.delete(sid);
+                        else store.upsert(sid, set.getString(2), set.getString(3));
+                        last = Math.max(last, set.getTimestamp(4).getTime());
+                    }
+                }
+            }
+            return last;
+        };
+    }
+
+    /**
+     * 定时拉取增量变化
+     * @param since 从哪个位置开始（一般是load之前记下的时间）
+     */
+    public synchronized void startPolling(ChangeFeed feed, long since, long periodMillis) {
+        if (poller != null) throw new IllegalStateException("已经在轮询了");
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "student-store-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] position = {since};
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                position[0] = feed.poll(position[0], this);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "拉取student的变化失败", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (poller != null) poller.shutdownNow();
+        poller = null;
+        STORES.remove(this);
+    }
+
+    //================= 插件调用 =================
+
+    static void invalidateEverywhere(int sid) {
+        for (StudentStore store : STORES) store.invalidate(sid);
+    }
+
+    static void invalidateAllEverywhere() {
+        for (StudentStore store : STORES) store.invalidateAll();
+    }
+
+    //================= 统计 =================
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return rows - deadRows;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 各个数组占用的内存（字节），这就是全部的行数据
+     */
+    public long memoryBytes() {
+        long stamp = lock.readLock();
+        try {
+            return 16L + index.length * 4L + 16 + sids.length * 4L + 16 + nameOffsets.length * 4L + 16
+                    + nameLengths.length * 4L + 16 + sexCodes.length + 16 + names.length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long h = hits.sum(), m = misses.sum();
+        return String.format("StudentStore 行数=%d 内存=%dKB 命中=%d 未命中=%d 查库=%d 命中率=%.2f%%",
+                size(), memoryBytes() / 1024, h, m, loads.sum(), h + m == 0 ? 0 : h * 100.0 / (h + m));
+    }
+}
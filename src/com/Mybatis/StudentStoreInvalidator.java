@@ -0,0 +1,87 @@
+package com.Mybatis;
+
+import com.jdbc.Student;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+//通过Mapper修改student表时，让StudentStore里对应的sid失效
+//从参数里找sid：Student对象、int参数（deleteStudent(int sid)）、或者@Param("sid")；找不到sid的更新让整个缓存失效
+//执行时失效一次，事务提交/回滚时再失效一次：
+//执行和提交之间别的线程可能又把旧数据查进了缓存，提交之后再清一次才能保证读到新数据
+//（自动提交的会话没有commit，在关闭会话时再清）
+//
+//mybatis-config.xml中使用：
+//  <plugin interceptor="com.Mybatis.StudentStoreInvalidator"/>
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "commit", args = {boolean.class}),
+        @Signature(type = Executor.class, method = "rollback", args = {boolean.class}),
+        @Signature(type = Executor.class, method = "close", args = {boolean.class})
+})
+public class StudentStoreInvalidator implements Interceptor {
+
+    private static final Pattern STUDENT = Pattern.compile("\\bstudent\\b");
+    private static final int ALL = Integer.MIN_VALUE;
+
+    //每个会话（Executor）在事务里改过的sid，提交/回滚时再失效一次
+    private final Map<Executor, List<Integer>> pending = new ConcurrentHashMap<>();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Executor executor = (Executor) invocation.getTarget();
+        if (!invocation.getMethod().getName().equals("update")) {
+            try {
+                return invocation.proceed();
+            } finally {
+                List<Integer> sids = pending.remove(executor);
+                if (sids != null) for (int sid : sids) invalidate(sid);
+            }
+        }
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        Object parameter = invocation.getArgs()[1];
+        String sql = ms.getBoundSql(parameter).getSql().toLowerCase(Locale.ROOT);
+        if (!STUDENT.matcher(sql).find()) return invocation.proceed();
+        int sid = sidOf(parameter);
+        try {
+            return invocation.proceed();
+        } finally {
+            invalidate(sid);
+            pending.computeIfAbsent(executor, k -> new ArrayList<>()).add(sid);
+        }
+    }
+
+    private static void invalidate(int sid) {
+        if (sid == ALL) StudentStore.invalidateAllEverywhere();
+        else StudentStore.invalidateEverywhere(sid);
+    }
+
+    private static int sidOf(Object parameter) {
+        if (parameter instanceof Student && ((Student) parameter).getSid() != null) return ((Student) parameter).getSid();
+        if (parameter instanceof Integer) return (Integer) parameter;
+        if (parameter instanceof Map) {
+            Object value = ((Map<?, ?>) parameter).containsKey("sid") ? ((Map<?, ?>) parameter).get("sid") : null;
+            if (value instanceof Integer) return (Integer) value;
+            if (value instanceof Student && ((Student) value).getSid() != null) return ((Student) value).getSid();
+        }
+        return ALL;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return target instanceof Executor ? Plugin.wrap(target, this) : target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+        //没有配置项
+    }
+}
@@ -0,0 +1,102 @@
+package com.Mybatis;
+
+import com.jdbc.Student;
+import com.jdbc.Teacher;
+import org.apache.ibatis.session.SqlSession;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+//批量加载老师和他们的学生
+//getTeacherByTid02里的@Many会为每个老师单独查一次学生，查N个老师就要1+N次查询；
+//这里先用一次in查询查出所有老师，再用一次in查询查出所有老师的学生，然后按tid分给各个老师，一共2次
+public class TeacherLoader {
+
+    private final TestMapper mapper;
+    private final int maxBatchSize;
+    //tid -> 这个老师的学生
+    private final BatchLoader<Integer, List<Student>> students;
+
+    public TeacherLoader(SqlSession session) {
+        this(session, 500);
+    }
+
+    /**
+     * @param session 使用的会话，懒加载时在访问学生列表之前不能关闭
+     * @param maxBatchSize 一次in查询最多带多少个tid
+     */
+    public TeacherLoader(SqlSession session, int maxBatchSize) {
+        this.mapper = session.getMapper(TestMapper.class);
+        this.maxBatchSize = maxBatchSize;
+        this.students = new BatchLoader<>(this::loadStudents, maxBatchSize);
+    }
+
+    /**
+     * 查询一组老师及其学生
+     * @param tids 老师编号
+     * @param lazy 为true时学生列表在第一次访问时才查询（所有老师的学生仍然合并成一次查询）
+     * @return 老师列表，顺序和数据库返回的一致
+     */
+    public List<Teacher> getTeachers(Collection<Integer> tids, boolean lazy) {
+        List<Integer> keys = new ArrayList<>(new LinkedHashSet<>(tids));
+        List<Teacher> teachers = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += maxBatchSize) {
+            teachers.addAll(mapper.getTeachersByTids(keys.subList(from, Math.min(keys.size(), from + maxBatchSize))));
+        }
+        for (Teacher teacher : teachers) {
+            CompletableFuture<List<Student>> future = students.load(teacher.getTid());
+            if (lazy) teacher.setStudentList(new LazyList(future));
+        }
+        if (!lazy) {
+            students.dispatch();
+            for (Teacher teacher : teachers) teacher.setStudentList(students.load(teacher.getTid()).join());
+        }
+        return teachers;
+    }
+
+    /**
+     * 执行过多少次学生的批量查询
+     */
+    public int studentQueryCount() {
+        return students.batchCount();
+    }
+
+    //一次查出多个老师的学生，再按tid分组
+    private Map<Integer, List<Student>> loadStudents(List<Integer> tids) {
+        Map<Integer, List<Student>> map = new HashMap<>();
+        for (Integer tid : tids) map.put(tid, new ArrayList<>());
+        for (Map<String, Object> row : mapper.getStudentsByTids(tids)) {
+            Student student = Student.builder()
+                    .sid(((Number) row.get("sid")).intValue())
+                    .name((String) row.get("name"))
+                    .sex((String) row.get("sex"))
+                    .build();
+            map.get(((Number) row.get("tid")).intValue()).add(student);
+        }
+        return map;
+    }
+
+    //懒加载的学生列表：第一次访问时才触发批量查询，此时会把所有已登记的老师一起查出来
+    private final class LazyList extends AbstractList<Student> {
+        private final CompletableFuture<List<Student>> future;
+
+        LazyList(CompletableFuture<List<Student>> future) {
+            this.future = future;
+        }
+
+        private List<Student> list() {
+            if (!future.isDone()) students.dispatch();
+            return future.join();
+        }
+
+        @Override
+        public Student get(int index) {
+            return list().get(index);
+        }
+
+        @Override
+        public int size() {
+            return list().size();
+        }
+    }
+}
@@ -4,11 +4,45 @@ import com.jdbc.Student;
 import com.jdbc.Teacher;
 import org.apache.ibatis.annotations.*;
 import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.ResultSetType;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 //@CacheNamespace(readWrite = false,eviction = FifoCache.class)
+//也可以用注解开启自定义缓存（需要先去掉TestMapper.xml里的<cache>，同一个命名空间只能有一个缓存）
+//@CacheNamespace(implementation = TinyLfuCache.class, properties = {
+//        @Property(name = "size", value = "512"),
+//        @Property(name = "flushInterval", value = "60000")
+//})
 public interface TestMapper {
     List<Student> selectStudent();
+
+    //流式查询：返回游标而不是一次性把整张表装进List
+    //MySQL驱动只有在 FORWARD_ONLY + fetchSize = Integer.MIN_VALUE 时才会逐行从服务端读取
+    //注意游标需要在会话关闭前读完，推荐直接使用 MybatisUtil.streamStudent()
+    @Select("select * from student")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    Cursor<Student> cursorStudent();
+
+    //键集分页：按sid顺序取after之后的limit个学生，下一页从这一页最后一个sid开始
+    //limit/offset翻页时数据库要先数过前面offset行，越往后越慢；这里每一页都只是一次主键范围查找
+    //注解语句不会用到TestMapper.xml里的<cache>（它只对xml中的语句生效），所以分页扫描不会把二级缓存里的热点数据挤出去
+    @Select("select * from student where sid > #{after} order by sid limit #{limit}")
+    List<Student> pageStudent(@Param("after") int after, @Param("limit") int limit);
+
+    //只翻(after, to]这个区间，StudentScan并行扫描时每个区间各自翻页
+    @Select("select * from student where sid > #{after} and sid <= #{to} order by sid limit #{limit}")
+    List<Student> pageStudentBetween(@Param("after") int after, @Param("to") int to, @Param("limit") int limit);
+
+    //sid的最小值和最大值（表为空时都是null），分片时每个分片各返回一行
+    @Select("select min(sid) as lo, max(sid) as hi from student")
+    List<Map<String, Object>> studentSidBounds();
+
+    //after之后跳过skip个sid，返回下一个sid，没有时返回null；只用到主键索引，用来按行数划分区间
+    @Select("select sid from student where sid > #{after} order by sid limit 1 offset #{skip}")
+    Integer nextStudentSid(@Param("after") int after, @Param("skip") int skip);
     //如何才能让 mybatis知道 我们的接口 和 xml文件是关联的？
     Student getStudentBySid(int sid);
 
@@ -39,4 +73,15 @@ public interface TestMapper {
 
     @Select("select * from student inner join teach on student.sid = teach.sid where tid = #{tid}")
     List<Student> getStudentByTid02(int tid);
+
+    //批量查询，配合TeacherLoader把1+N次查询合并成2次
+    @Select("<script>select * from teacher where tid in " +
+            "<foreach collection='tids' item='tid' open='(' separator=',' close=')'>#{tid}</foreach></script>")
+    List<Teacher> getTeachersByTids(@Param("tids") Collection<Integer> tids);
+
+    //返回的每一行带上tid，用来区分是哪个老师的学生
+    @Select("<script>select student.sid, student.name, student.sex, teach.tid from student " +
+            "inner join teach on student.sid = teach.sid where teach.tid in " +
+            "<foreach collection='tids' item='tid' open='(' separator=',' close=')'>#{tid}</foreach></script>")
+    List<Map<String, Object>> getStudentsByTids(@Param("tids") Collection<Integer> tids);
 }
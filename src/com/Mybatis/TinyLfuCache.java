@@ -0,0 +1,490 @@
+package com.Mybatis;
+
+import org.apache.ibatis.cache.Cache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+//二级缓存：W-TinyLFU淘汰策略 + 分段锁
+//FIFO只看进入的先后顺序，一次全表扫描进来的数据会把热点数据全部挤出去；
+//外面再套一层SynchronizedCache，每次命中都要抢同一把锁。这里的做法是：
+// 1. 新数据先进入一个很小的窗口区（LRU），从窗口区出来时和主区里最该淘汰的数据比较访问频率，
+//    频率更高的才能留下，所以只访问过一次的扫描数据进不了主区
+// 2. 访问频率用Count-Min Sketch估算（4位计数器，定期减半，让旧的热点慢慢冷却）
+// 3. 按key的hash分成多段，每段一把锁；读取时不加锁，只用tryLock顺便调整顺序，抢不到就跳过
+//
+//XML中使用：<cache type="com.Mybatis.TinyLfuCache"><property name="size" value="512"/></cache>
+//注解中使用：@CacheNamespace(implementation = TinyLfuCache.class, properties = @Property(name = "size", value = "512"))
+//（两者不能同时在同一个命名空间上开启，MyBatis会报重复缓存）
+public class TinyLfuCache implements Cache {
+
+    //按id记录所有实例，方便拿到统计数据（MyBatis会在外面再包一层LoggingCache）
+    private static final Map<String, TinyLfuCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    //可以通过<property>配置的参数，在第一次使用时才真正创建分段
+    private int size = 1024;           //最多缓存多少条（按条数限制时）
+    private long maxWeightBytes = 0;   //按估算的内存大小限制，大于0时代替size
+    private int segments = 16;         //分段数
+    private long flushInterval = 0;    //和<cache flushInterval>一样，定时清空整个缓存
+
+    private volatile Segment[] table;
+    private volatile long lastClear = System.currentTimeMillis();
+
+    public TinyLfuCache(String id) {
+        this.id = id;
+        INSTANCES.put(id, this);
+    }
+
+    /**
+     * 按命名空间获取缓存实例，用来查看统计信息
+     * @param id 命名空间，例如com.Mybatis.TestMapper
+     * @return 缓存实例，不存在时为null
+     */
+    public static TinyLfuCache get(String id) {
+        return INSTANCES.get(id);
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public void setMaxWeightBytes(long maxWeightBytes) {
+        this.maxWeightBytes = maxWeightBytes;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        if (clearWhenStale()) return;
+        int h = spread(key.hashCode());
+        Segment[] t = segments();
+        t[h & (t.length - 1)].put(key, value, h, maxWeightBytes > 0 ? Weigher.estimate(value) : 1);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        if (clearWhenStale()) {
+            misses.increment();
+            return null;
+        }
+        int h = spread(key.hashCode());
+        Segment[] t = segments();
+        Object value = t[h & (t.length - 1)].get(key, h);
+        if (value == null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        int h = spread(key.hashCode());
+        Segment[] t = segments();
+        return t[h & (t.length - 1)].remove(key);
+    }
+
+    @Override
+    public void clear() {
+        lastClear = System.currentTimeMillis();
+        Segment[] t = table;
+        if (t != null) for (Segment s : t) s.clear();
+    }
+
+    @Override
+    public int getSize() {
+        Segment[] t = table;
+        if (t == null) return 0;
+        int n = 0;
+        for (Segment s : t) n += s.map.size();
+        return n;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public String stats() {
+        return String.format("%s：条数=%d 命中=%d 未命中=%d 命中率=%.2f%% 淘汰=%d",
+                id, getSize(), hitCount(), missCount(), hitRate() * 100, evictionCount());
+    }
+
+    @Override
+    public String toString() {
+        return stats();
+    }
+
+    //到了flushInterval就整体清空
+    private boolean clearWhenStale() {
+        if (flushInterval > 0 && System.currentTimeMillis() - lastClear > flushInterval) {
+            clear();
+            return true;
+        }
+        return false;
+    }
+
+    private Segment[] segments() {
+        Segment[] t = table;
+        if (t == null) {
+            synchronized (this) {
+                t = table;
+                if (t == null) {
+                    int n = Integer.highestOneBit(Math.max(1, segments));
+                    long capacity = maxWeightBytes > 0 ? maxWeightBytes : size;
+                    t = new Segment[n];
+                    for (int i = 0; i < n; i++) t[i] = new Segment(Math.max(1, capacity / n));
+                    table = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    //================= 一个分段：窗口区(LRU) + 主区(试用区probation + 保护区protected) =================
+
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private static final class Node {
+        final Object key;
+        final int hash;
+        volatile Object value;
+        long weight;
+        int queue;
+        Node prev, next;
+
+        Node(Object key, int hash, Object value, long weight) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    //带头尾指针的双向链表，头部是最久没有访问的
+    private static final class Queue {
+        Node head, tail;
+        long weight;
+
+        void add(Node n) {
+            n.prev = tail;
+            n.next = null;
+            if (tail == null) head = n;
+            else tail.next = n;
+            tail = n;
+            weight += n.weight;
+        }
+
+        void unlink(Node n) {
+            if (n.prev == null) head = n.next;
+            else n.prev.next = n.next;
+            if (n.next == null) tail = n.prev;
+            else n.next.prev = n.prev;
+            n.prev = n.next = null;
+            weight -= n.weight;
+        }
+
+        void moveToTail(Node n) {
+            if (tail == n) return;
+            unlink(n);
+            add(n);
+        }
+    }
+
+    private final class Segment {
+        final ConcurrentHashMap<Object, Node> map = new ConcurrentHashMap<>();
+        final ReentrantLock lock = new ReentrantLock();
+        final FrequencySketch sketch;
+        final Queue window = new Queue(), probation = new Queue(), protect = new Queue();
+        final long windowMax, mainMax, protectedMax;
+
+        Segment(long capacity) {
+            //窗口区占1%，主区中保护区占80%，和Caffeine的默认比例一致
+            this.windowMax = Math.max(1, capacity / 100);
+            this.mainMax = Math.max(1, capacity - windowMax);
+            this.protectedMax = mainMax * 8 / 10;
+            this.sketch = new FrequencySketch(maxWeightBytes > 0 ? Math.max(16, capacity / 256) : capacity);
+        }
+
+        Object get(Object key, int hash) {
+            sketch.increment(hash);
+            Node n = map.get(key);
+            if (n == null) return null;
+            //读路径不等待锁：抢到锁就顺便调整位置，抢不到就算了，只影响淘汰顺序的精确度
+            if (lock.tryLock()) {
+                try {
+                    if (map.get(key) == n) onAccess(n);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return n.value;
+        }
+
+        void put(Object key, Object value, int hash, long weight) {
+            lock.lock();
+            try {
+                sketch.increment(hash);
+                Node old = map.get(key);
+                if (old != null) {
+                    old.value = value;
+                    queueOf(old).weight += weight - old.weight;
+                    old.weight = weight;
+                    onAccess(old);
+                } else {
+                    Node n = new Node(key, hash, value, weight);
+                    n.queue = WINDOW;
+                    map.put(key, n);
+                    window.add(n);
+                }
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Object remove(Object key) {
+            lock.lock();
+            try {
+                Node n = map.remove(key);
+                if (n == null) return null;
+                queueOf(n).unlink(n);
+                return n.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                map.clear();
+                window.head = window.tail = null;
+                probation.head = probation.tail = null;
+                protect.head = protect.tail = null;
+                window.weight = probation.weight = protect.weight = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Queue queueOf(Node n) {
+            return n.queue == WINDOW ? window : n.queue == PROBATION ? probation : protect;
+        }
+
+        //命中后：窗口区和保护区移到队尾，试用区的晋升到保护区
+        private void onAccess(Node n) {
+            if (n.queue == WINDOW) {
+                window.moveToTail(n);
+            } else if (n.queue == PROTECTED) {
+                protect.moveToTail(n);
+            } else {
+                probation.unlink(n);
+                n.queue = PROTECTED;
+                protect.add(n);
+                //保护区满了，把最久没访问的降级回试用区
+                while (protect.weight > protectedMax && protect.head != null) {
+                    Node demoted = protect.head;
+                    protect.unlink(demoted);
+                    demoted.queue = PROBATION;
+                    probation.add(demoted);
+                }
+            }
+        }
+
+        //窗口区溢出的数据作为候选者，和主区最该淘汰的数据比较频率，输的一方被淘汰
+        private void evict() {
+            while (window.weight > windowMax && window.head != null) {
+                Node candidate = window.head;
+                window.unlink(candidate);
+                admit(candidate);
+            }
+        }
+
+        private void admit(Node candidate) {
+            if (candidate.weight > mainMax) {
+                drop(candidate);
+                return;
+            }
+            int candidateFreq = sketch.frequency(candidate.hash);
+            while (probation.weight + protect.weight + candidate.weight > mainMax) {
+                Node victim = probation.head != null ? probation.head : protect.head;
+                if (victim == null) break;
+                if (candidateFreq <= sketch.frequency(victim.hash)) {
+                    drop(candidate);
+                    return;
+                }
+                queueOf(victim).unlink(victim);
+                drop(victim);
+            }
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+        }
+
+        private void drop(Node n) {
+            map.remove(n.key, n);
+            evictions.increment();
+        }
+    }
+
+    //================= 频率估算：4位计数器的Count-Min Sketch =================
+
+    //读路径不加锁，多个线程会同时调用increment：
+    //一个long里放了16个4位计数器，普通的 table[i] += x 在两个线程同时加到15时会溢出到相邻的计数器，
+    //所以每次修改都用CAS，已经是15的计数器不再增加
+    private static final class FrequencySketch {
+        private final AtomicLongArray table;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(long capacity) {
+            int size = Integer.highestOneBit((int) Math.max(8, Math.min(1 << 24, capacity)) * 2 - 1);
+            this.table = new AtomicLongArray(size);
+            this.mask = size - 1;
+            this.sampleSize = size * 10;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                long mask = 0xfL << offset;
+                for (long v = table.get(index); (v & mask) != mask; v = table.get(index)) {
+                    if (table.compareAndSet(index, v, v + (1L << offset))) {
+                        added = true;
+                        break;
+                    }
+                }
+            }
+            //只有正好加到sampleSize的那个线程负责减半
+            if (added && additions.incrementAndGet() == sampleSize) reset();
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+                min = Math.min(min, (int) ((table.get(index) >>> offset) & 0xf));
+            }
+            return min;
+        }
+
+        //所有计数器减半，让过去的热点慢慢冷却
+        private void reset() {
+            for (int i = 0; i < table.length(); i++) table.getAndUpdate(i, v -> (v >>> 1) & 0x7777777777777777L);
+            additions.set(0);
+        }
+
+        //每一行使用long中不同的16位，再由hash选其中一个4位计数器
+        private static int offsetOf(int hash, int i) {
+            return (i << 4) | (((hash >>> (i << 3)) & 3) << 2);
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    }
+
+    //================= 内存估算：按字段粗略估算一个缓存值占用的字节数 =================
+
+    private static final class Weigher {
+        private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<>();
+
+        static long estimate(Object value) {
+            return Math.max(1, estimate(value, 3));
+        }
+
+        private static long estimate(Object value, int depth) {
+            if (value == null) return 0;
+            if (value instanceof String) return 40 + 2L * ((String) value).length();
+            if (value instanceof Number || value instanceof Boolean || value instanceof Character) return 16;
+            if (value instanceof Collection) {
+                long sum = 40;
+                for (Object o : (Collection<?>) value) sum += 8 + (depth > 0 ? estimate(o, depth - 1) : 16);
+                return sum;
+            }
+            long sum = 16;
+            for (Field f : fields(value.getClass())) {
+                if (f.getType().isPrimitive()) {
+                    sum += 8;
+                    continue;
+                }
+                sum += 8;
+                if (depth > 0) {
+                    try {
+                        sum += estimate(f.get(value), depth - 1);
+                    } catch (IllegalAccessException ignored) {
+                    }
+                }
+            }
+            return sum;
+        }
+
+        private static Field[] fields(Class<?> clazz) {
+            return FIELDS.computeIfAbsent(clazz, c -> {
+                List<Field> list = new ArrayList<>();
+                for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+                    for (Field f : k.getDeclaredFields()) {
+                        if (Modifier.isStatic(f.getModifiers())) continue;
+                        try {
+                            f.setAccessible(true);
+                            list.add(f);
+                        } catch (RuntimeException ignored) {
+                            //JDK内部类的字段无法访问，直接跳过
+                        }
+                    }
+                }
+                return list.toArray(new Field[0]);
+            });
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+//简单的基准测试工具
+//先预热让JIT编译完成，再在测量时间内反复执行，输出：
+// - 吞吐量（次/秒）
+// - 延迟分位数（每16次抽样测量一次，避免nanoTime本身的开销影响太大）
+// - 每次操作分配的内存和分配速率（和JMH的gc profiler一样读取线程已分配的字节数）
+//运行参数：-Dbench.warmup=预热秒数（默认2） -Dbench.time=测量秒数（默认5）
+public final class Bench {
+
+    private static final int SAMPLE_MASK = 15;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Bench() {
+    }
+
+    public interface Op {
+        void run() throws Exception;
+    }
+
+    /**
+     * 使用系统属性里的时间运行一个测试
+     */
+    public static Result run(String name, Op op) throws Exception {
+        return run(name, op, Long.getLong("bench.warmup", 2), Long.getLong("bench.time", 5));
+    }
+
+    public static Result run(String name, Op op, long warmupSeconds, long measureSeconds) throws Exception {
+        long end = System.nanoTime() + warmupSeconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 64; i++) op.run();
+        }
+        System.gc();
+
+        long[] samples = new long[1 << 20];
+        int sampleCount = 0;
+        long ops = 0;
+        long tid = Thread.currentThread().getId();
+        long allocStart = THREADS.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        end = start + measureSeconds * 1_000_000_000L;
+        long now = start;
+        while (now < end) {
+            for (int i = 0; i < 64; i++, ops++) {
+                if ((ops & SAMPLE_MASK) == 0) {
+                    long t0 = System.nanoTime();
+                    op.run();
+                    long t1 = System.nanoTime();
+                    samples[sampleCount++ & (samples.length - 1)] = t1 - t0;
+                } else {
+                    op.run();
+                }
+            }
+            now = System.nanoTime();
+        }
+        long elapsed = now - start;
+        long allocated = THREADS.getThreadAllocatedBytes(tid) - allocStart;
+        long[] sorted = Arrays.copyOf(samples, Math.min(sampleCount, samples.length));
+        Arrays.sort(sorted);
+        Result result = new Result(name, ops, elapsed, allocated, sorted);
+        System.out.println(result);
+        return result;
+    }
+
+    public static final class Result {
+        public final String name;
+        public final long ops;
+        public final long nanos;
+        public final long allocatedBytes;
+        private final long[] sortedLatencies;
+
+        Result(String name, long ops, long nanos, long allocatedBytes, long[] sortedLatencies) {
+            this.name = name;
+            this.ops = ops;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.sortedLatencies = sortedLatencies;
+        }
+
+        public double opsPerSecond() {
+            return ops * 1e9 / nanos;
+        }
+
+        //分位数，单位纳秒
+        public long percentile(double p) {
+            if (sortedLatencies.length == 0) return 0;
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.ceil(p / 100 * sortedLatencies.length) - 1);
+            return sortedLatencies[Math.max(0, index)];
+        }
+
+        public double bytesPerOp() {
+            return ops == 0 ? 0 : (double) allocatedBytes / ops;
+        }
+
+        public double allocMBPerSecond() {
+            return allocatedBytes / 1024.0 / 1024.0 * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %14.1f 次/秒  p50=%9s p99=%9s p99.9=%9s  分配=%10.1f B/次 %8.1f MB/s",
+                    name, opsPerSecond(), time(percentile(50)), time(percentile(99)), time(percentile(99.9)),
+                    bytesPerOp(), allocMBPerSecond());
+        }
+
+        private static String time(long nanos) {
+            if (nanos < 10_000) return nanos + "ns";
+            if (nanos < 10_000_000) return nanos / 1000 + "us";
+            return nanos / 1_000_000 + "ms";
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.bench;
+
+import com.JUL.ColorFormatter;
+import com.Mybatis.Interceptors;
+import com.Mybatis.Shopper;
+import com.Mybatis.StudentStore;
+import com.Mybatis.TestMapper;
+import com.jdbc.JdbcObject;
+import com.jdbc.RowMapper;
+import com.jdbc.Student;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+//各条热点路径的基准测试，不需要MySQL，数据库换成了进程内的StubDriver
+//运行：java -cp "out:lib/*" com.bench.Benchmarks [名称过滤]
+//     例如 com.bench.Benchmarks jdbc 只运行jdbc这一组（jdbc/mapper/store/proxy/logging/socket）
+//注意：mapper测试会从classpath加载com/Mybatis/TestMapper.xml，需要和编译结果放在一起（IDEA会自动复制）
+public class Benchmarks {
+
+    static long sink;
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 ? args[0] : "";
+        StubDriver.seed(10_000, 100);
+
+        //================= JdbcObject.convert：每行反射 vs RowMapper =================
+        if (selected(filter, "jdbc")) {
+            StubDriver.seed(1_000, 100);
+            try (Connection connection = DriverManager.getConnection(StubDriver.URL);
+                 Statement statement = connection.createStatement()) {
+                Bench.run("jdbc.convertReflect (1000行)", () -> {
+                    try (ResultSet set = statement.executeQuery("select * from student")) {
+                        while (set.next()) if (JdbcObject.convertReflect(set, Student.class) != null) sink++;
+                    }
+                });
+                Bench.run("jdbc.RowMapper (1000行)", () -> {
+                    try (ResultSet set = statement.executeQuery("select * from student")) {
+                        RowMapper<Student> mapper = RowMapper.of(Student.class, set.getMetaData());
+                        while (set.next()) if (mapper.map(set) != null) sink++;
+                    }
+                });
+            }
+            StubDriver.seed(10_000, 100);
+        }
+
+        //================= TestMapper通过会话调用 =================
+        if (selected(filter, "mapper")) {
+            SqlSessionFactory factory = stubFactory();
+            Bench.run("mapper.getStudentBySid", () -> {
+                try (SqlSession session = factory.openSession(true)) {
+                    int sid = 1000 + ThreadLocalRandom.current().nextInt(10_000);
+                    sink += session.getMapper(TestMapper.class).getStudentBySid(sid).getSid();
+                }
+            });
+            Bench.run("mapper.getTeacherByTid02 (1+1查询)", () -> {
+                try (SqlSession session = factory.openSession(true)) {
+                    int tid = 100 + ThreadLocalRandom.current().nextInt(100);
+                    sink += session.getMapper(TestMapper.class).getTeacherByTid02(tid).getStudentList().size();
+                }
+            });
+        }
+
+        //================= Student近端缓存：StudentStore vs HashMap vs 二级缓存 =================
+        if (selected(filter, "store")) {
+            SqlSessionFactory factory = stubFactory();
+            StudentStore store = StudentStore.load(factory);
+            long before = usedHeap();
+            Map<Integer, Student> map = new HashMap<>();
+            for (int i = 0; i < 10_000; i++) map.put(1000 + i, new Student(1000 + i, "student" + (1000 + i), i % 2 == 0 ? "男" : "女"));
+            long mapHeap = usedHeap() - before;
+            System.out.printf("10000行：StudentStore %d字节，HashMap<Integer, Student> 约%d字节%n", store.memoryBytes(), mapHeap);
+            //每行都get过一次之后：store不保存行对象，占用的内存不变
+            before = usedHeap();
+            for (int i = 0; i < 10_000; i++) sink += store.get(1000 + i).getSid();
+            System.out.printf("全部行都读过之后：StudentStore %d字节，堆增加约%d字节%n", store.memoryBytes(), usedHeap() - before);
+            Bench.run("store.StudentStore.get", () -> {
+                int sid = 1000 + ThreadLocalRandom.current().nextInt(10_000);
+                sink += store.get(sid).getSid();
+            });
+            StudentStore.View view = new StudentStore.View();
+            Bench.run("store.StudentStore.read (只读视图)", () -> {
+                int sid = 1000 + ThreadLocalRandom.current().nextInt(10_000);
+                if (store.read(sid, view)) sink += view.sid();
+            });
+            Bench.run("store.StudentStore.sexOf (不创建对象)", () -> {
+                int sid = 1000 + ThreadLocalRandom.current().nextInt(10_000);
+                sink += store.sexOf(sid).length();
+            });
+            Bench.run("store.HashMap.get", () -> {
+                int sid = 1000 + ThreadLocalRandom.current().nextInt(10_000);
+                sink += map.get(sid).getSid();
+            });
+            try (SqlSession session = factory.openSession(true)) {
+                TestMapper mapper = session.getMapper(TestMapper.class);
+                Bench.run("store.mapper.getStudentBySid (二级缓存)", () -> {
+                    int sid = 1000 + ThreadLocalRandom.current().nextInt(10_000);
+                    sink += mapper.getStudentBySid(sid).getSid();
+                });
+            }
+            System.out.println(store);
+            store.close();
+        }
+
+        //================= 动态代理 =================
+        if (selected(filter, "proxy")) {
+            Shopper impl = customer -> sink++;
+            Shopper reflective = (Shopper) Proxy.newProxyInstance(Shopper.class.getClassLoader(),
+                    new Class<?>[]{Shopper.class}, (proxy, method, params) -> {
+                        sink++;
+                        return method.invoke(impl, params);
+                    });
+            Shopper intercepted = Interceptors.of(Shopper.class)
+                    .before(m -> true, inv -> sink++)
+                    .build()
+                    .create(impl);
+            Bench.run("proxy.method.invoke", () -> reflective.saleWatermelon("小强"));
+            Bench.run("proxy.Interceptors", () -> intercepted.saleWatermelon("小强"));
+        }
+
+        //================= 日志格式化 =================
+        if (selected(filter, "logging")) {
+            ColorFormatter formatter = new ColorFormatter();
+            LogRecord record = new LogRecord(Level.WARNING, "警告的内容");
+            record.setSourceClassName("com.JUL.Main");
+            record.setSourceMethodName("main");
+            Bench.run("logging.SimpleDateFormat (原来的写法)", () -> {
+                record.setInstant(Instant.now());
+                sink += oldFormat(record).length();
+            });
+            Bench.run("logging.ColorFormatter.format", () -> {
+                record.setInstant(Instant.now());
+                sink += formatter.format(record).length();
+            });
+            OutputStream nowhere = OutputStream.nullOutputStream();
+            Bench.run("logging.ColorFormatter.encodeTo", () -> {
+                record.setInstant(Instant.now());
+                formatter.encodeTo(record, nowhere);
+            });
+        }
+
+        //================= socket文件传输（本机回环） =================
+        if (selected(filter, "socket")) {
+            byte[] payload = new byte[8 * 1024 * 1024];
+            ThreadLocalRandom.current().nextBytes(payload);
+            try (ServerSocket server = new ServerSocket(0)) {
+                Thread drain = new Thread(() -> drainForever(server), "bench-drain");
+                drain.setDaemon(true);
+                drain.start();
+                try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+                    OutputStream out = socket.getOutputStream();
+                    //和File_Clinet/File_Server一样的1KB缓冲区循环
+                    Bench.run("socket.copy 8MB (1KB缓冲)", () -> copy(new ByteArrayInputStream(payload), out, 1024));
+                    Bench.run("socket.copy 8MB (64KB缓冲)", () -> copy(new ByteArrayInputStream(payload), out, 64 * 1024));
+                }
+            }
+        }
+        System.out.println("sink=" + sink);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static boolean selected(String filter, String group) {
+        return filter.isEmpty() || filter.equals(group);
+    }
+
+    //用StubDriver代替mybatis-config.xml中的MySQL
+    static SqlSessionFactory stubFactory() {
+        StubDriver.register();
+        PooledDataSource dataSource = new PooledDataSource(StubDriver.class.getName(), StubDriver.URL, null, null);
+        Configuration configuration = new Configuration(new Environment("bench", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(TestMapper.class);
+        return new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    //ColorFormatter原来的实现，用来对比
+    static String oldFormat(LogRecord record) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        String time = format.format(new Date(record.getMillis()));
+        String level = record.getLevel().getName();
+        String thread = String.format("%10s", Thread.currentThread().getName());
+        long threadID = record.getLongThreadID();
+        String className = String.format("%-20s", record.getSourceClassName());
+        String msg = record.getMessage();
+        return "\033[38m" + time + "  \033[33m" + level + " \033[35m" + threadID
+                + "\033[38m --- [" + thread + "] \033[36m" + className + "\033[38m : " + msg + "\n";
+    }
+
+    private static void copy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        byte[] bytes = new byte[bufferSize];
+        int i;
+        while ((i = in.read(bytes)) != -1) out.write(bytes, 0, i);
+        out.flush();
+    }
+
+    private static void drainForever(ServerSocket server) {
+        try (Socket socket = server.accept(); InputStream in = socket.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {
+                //丢弃
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
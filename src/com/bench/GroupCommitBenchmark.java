@@ -0,0 +1,172 @@
+package com.bench;
+
+import com.Mybatis.FastPool;
+import com.jdbc.GroupCommit;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+//GroupCommit的测试：每个事务插两条（和Transaction_xyc一样），比较“每个事务自己提交”和“组提交”
+//StubDriver里的库限制了处理能力：每条语句50微秒，每次提交刷盘1毫秒，同一时间只能有一个刷盘
+//有10%的事务在插完第一条之后失败，检查最后提交的行数：失败的事务一条都不能留下，其余的两条都在
+//运行：java -cp "out:lib/*" com.bench.GroupCommitBenchmark [线程数]
+public class GroupCommitBenchmark {
+
+    private static final String SQL = "insert into user values (?, ?)";
+    private static final long STATEMENT_MICROS = 50, FSYNC_MICROS = 1000;
+    private static final int FAIL_PERCENT = 10;
+    private static final long SECONDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        StubDriver.register();
+
+        //================= 每个事务单独提交 =================
+        StubDriver.seed("single", 0, 0, sid -> true);
+        StubDriver.limit("single", 16, STATEMENT_MICROS);
+        StubDriver.fsync("single", FSYNC_MICROS);
+        FastPool pool = pool("single", threads);
+        try {
+            Result result = run(threads, () -> {
+                try (Connection connection = pool.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(SQL)) {
+                    connection.setAutoCommit(false);
+                    try {
+                        insertTwo(statement);
+                        connection.commit();
+                        return true;
+                    } catch (IllegalStateException e) {
+                        connection.rollback();
+                        return false;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            });
+            result.print("每个事务单独提交", "single");
+        } finally {
+            pool.close();
+        }
+
+        //================= 组提交 =================
+        for (long maxWait : new long[]{0, 2}) {
+            String name = "group" + maxWait;
+            StubDriver.seed(name, 0, 0, sid -> true);
+            StubDriver.limit(name, 16, STATEMENT_MICROS);
+            StubDriver.fsync(name, FSYNC_MICROS);
+            try (GroupCommit group = GroupCommit.open(StubDriver.URL + name, "", "", 64, maxWait)) {
+                Result result = run(threads, () -> {
+                    try {
+                        group.submit(session -> {
+                            insertTwo(session.prepare(SQL));
+                            return null;
+                        }).get();
+                        return true;
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IllegalStateException) return false;
+                        throw e;
+                    }
+                });
+                result.print("组提交（最多等" + maxWait + "毫秒）", name);
+                System.out.println("  " + group.stats());
+            }
+        }
+    }
+
+    //插两条，其中FAIL_PERCENT%在第一条之后失败
+    private static void insertTwo(PreparedStatement statement) throws SQLException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        statement.setString(1, "a");
+        statement.setInt(2, random.nextInt());
+        statement.executeUpdate();
+        if (random.nextInt(100) < FAIL_PERCENT) throw new IllegalStateException("模拟业务失败");
+        statement.setString(1, "b");
+        statement.setInt(2, random.nextInt());
+        statement.executeUpdate();
+    }
+
+    @FunctionalInterface
+    private interface Transaction {
+        //返回是否成功提交
+        boolean run() throws Exception;
+    }
+
+    private static final class Result {
+        long ok, failed;
+        double seconds;
+        long[] latencies;
+
+        void print(String title, String database) {
+            Arrays.sort(latencies);
+            System.out.printf("%s：%,10.0f 事务/秒  p50=%.2fms p99=%.2fms  刷盘%d次%n", title, (ok + failed) / seconds,
+                    percentile(0.5) / 1e6, percentile(0.99) / 1e6, StubDriver.commits(database));
+            long committed = StubDriver.committed(database);
+            if (committed != ok * 2) throw new AssertionError("提交的行数" + committed + "，应该是" + ok * 2);
+            System.out.printf("  通过：成功%d个事务，失败%d个，提交了%d行%n", ok, failed, committed);
+        }
+
+        double percentile(double p) {
+            return latencies.length == 0 ? 0 : latencies[(int) Math.min(latencies.length - 1, latencies.length * p)];
+        }
+    }
+
+    //每个线程不停地执行事务，测SECONDS秒
+    private static Result run(int threads, Transaction transaction) throws InterruptedException {
+        LongAdder ok = new LongAdder(), failed = new LongAdder();
+        long[][] latencies = new long[threads][];
+        int[] counts = new int[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        long end = start + SECONDS * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            new Thread(() -> {
+                long[] mine = new long[1024];
+                int n = 0;
+                try {
+                    for (long now = System.nanoTime(); now < end; ) {
+                        if (transaction.run()) ok.increment();
+                        else failed.increment();
+                        long after = System.nanoTime();
+                        if (n == mine.length) mine = Arrays.copyOf(mine, n * 2);
+                        mine[n++] = after - now;
+                        now = after;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    latencies[index] = mine;
+                    counts[index] = n;
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        Result result = new Result();
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        result.ok = ok.sum();
+        result.failed = failed.sum();
+        int total = 0;
+        for (int c : counts) total += c;
+        result.latencies = new long[total];
+        for (int t = 0, at = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, result.latencies, at, counts[t]);
+            at += counts[t];
+        }
+        return result;
+    }
+
+    private static FastPool pool(String database, int size) {
+        Properties props = new Properties();
+        props.setProperty("url", StubDriver.URL + database);
+        props.setProperty("maximumPoolSize", String.valueOf(size));
+        return new FastPool(props);
+    }
+}
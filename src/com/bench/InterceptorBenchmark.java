@@ -0,0 +1,54 @@
+package com.bench;
+
+import com.Mybatis.Interceptors;
+import com.Mybatis.Shopper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+//对比几种调用Shopper.saleWatermelon的方式的速度：
+//1. 直接调用目标对象（对照）
+//2. 和ShopperProxy一样的 Proxy.newProxyInstance + method.invoke
+//3. Interceptors的代理（Proxy + LambdaMetafactory生成的调用类），带一个前置操作
+//4. Interceptors没有拦截器时（直接返回目标对象）
+//为了不让打印影响结果，目标对象和前置操作都只做计数
+//运行：java -cp "out:lib/*" com.bench.InterceptorBenchmark
+public class InterceptorBenchmark {
+
+    static long sold, bargained;
+
+    public static void main(String[] args) {
+        Shopper impl = customer -> sold++;
+
+        InvocationHandler reflective = (proxy, method, params) -> {
+            bargained++;
+            return method.invoke(impl, params);
+        };
+        Shopper proxy = (Shopper) Proxy.newProxyInstance(Shopper.class.getClassLoader(),
+                new Class<?>[]{Shopper.class}, reflective);
+
+        Interceptors.Factory<Shopper> factory = Interceptors.of(Shopper.class)
+                .before(m -> m.getName().equals("saleWatermelon"), inv -> bargained++)
+                .build();
+        Shopper intercepted = factory.create(impl);
+
+        Shopper passThrough = Interceptors.of(Shopper.class).build().create(impl);
+
+        int n = 20_000_000;
+        for (int round = 0; round < 3; round++) {   //前两轮用来预热
+            System.out.println("第" + (round + 1) + "轮：");
+            run("直接调用", impl, n);
+            run("Proxy + method.invoke", proxy, n);
+            run("Interceptors（有前置操作）", intercepted, n);
+            run("Interceptors（无拦截器）", passThrough, n);
+        }
+        System.out.println(sold + " " + bargained);
+    }
+
+    private static void run(String name, Shopper shopper, int n) {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) shopper.saleWatermelon("小强");
+        long nanos = System.nanoTime() - start;
+        System.out.printf("  %-24s %.2f ns/次%n", name, (double) nanos / n);
+    }
+}
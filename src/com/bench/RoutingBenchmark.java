@@ -0,0 +1,160 @@
+package com.bench;
+
+import com.Mybatis.FastPool;
+import com.Mybatis.RoutingDataSource;
+import com.Mybatis.TestMapper;
+import com.jdbc.Student;
+import com.jdbc.Teacher;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+//RoutingDataSource的测试：每个“数据库”是StubDriver里一个单独的库，并且限制了处理能力
+//（同时最多4条语句，每条200微秒），这样加从库、加分片带来的吞吐量变化才看得出来
+//运行：java -cp "out:lib/*" com.bench.RoutingBenchmark [线程数]
+public class RoutingBenchmark {
+
+    private static final int STUDENTS = 10_000, TEACHERS = 100;
+    private static final int CONCURRENCY = 4;
+    private static final long LATENCY_MICROS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        StubDriver.register();
+
+        //================= 读写分离：只有主库 vs 主库+3个从库 =================
+        for (String name : new String[]{"primary", "replica1", "replica2", "replica3"}) {
+            StubDriver.seed(name, STUDENTS, TEACHERS, sid -> true);
+            StubDriver.limit(name, CONCURRENCY, LATENCY_MICROS);
+        }
+        List<DataSource> replicas = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) replicas.add(pool("replica" + i));
+        RoutingDataSource single = new RoutingDataSource(pool("primary"), Collections.emptyList());
+        RoutingDataSource split = new RoutingDataSource(pool("primary"), replicas);
+        System.out.printf("只有主库：      %,10.0f 次/秒%n", throughput(factory(single), threads));
+        System.out.printf("主库+3个从库：  %,10.0f 次/秒%n", throughput(factory(split), threads));
+        System.out.printf("  各库查询次数：primary=%d replica1=%d replica2=%d replica3=%d%n",
+                StubDriver.queries("primary"), StubDriver.queries("replica1"),
+                StubDriver.queries("replica2"), StubDriver.queries("replica3"));
+        System.out.println("  " + split.stats());
+
+        //写之后的读、事务中的读都要回到主库
+        SqlSessionFactory factory = factory(split);
+        long before = StubDriver.queries("primary");
+        try (SqlSession session = factory.openSession(false)) {
+            session.getMapper(TestMapper.class).getStudentBySid(1001);
+            session.commit();
+        }
+        try (SqlSession session = factory.openSession(true)) {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            mapper.deleteStudent(999_999);
+            mapper.getStudentBySid(1002);
+        }
+        check(StubDriver.queries("primary") - before == 2, "事务中的读和写之后的读应该都在主库");
+
+        //================= 分片：2个分片，每个一主一从 =================
+        int shardCount = 2;
+        List<RoutingDataSource.Shard> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            int shard = i;
+            for (String role : new String[]{"p", "r"}) {
+                String name = "shard" + i + role;
+                StubDriver.seed(name, STUDENTS, TEACHERS, sid -> RoutingDataSource.shardOf(sid, shardCount) == shard);
+                StubDriver.limit(name, CONCURRENCY, LATENCY_MICROS);
+            }
+            shards.add(new RoutingDataSource.Shard(pool("shard" + i + "p"),
+                    Collections.singletonList(pool("shard" + i + "r"))));
+        }
+        RoutingDataSource sharded = new RoutingDataSource(shards, List.of("student", "teach"), "sid");
+        factory = factory(sharded);
+        try (SqlSession session = factory.openSession(true)) {
+            TestMapper mapper = session.getMapper(TestMapper.class);
+            check(mapper.getStudentBySid(1234).getSid() == 1234, "按sid查询");
+            check(mapper.selectStudent().size() == STUDENTS, "跨分片查询全部学生");
+            Teacher teacher = mapper.getTeacherByTid02(101);
+            check(teacher.getStudentList().size() == STUDENTS / TEACHERS, "老师的学生来自所有分片");
+            mapper.addStudent(new Student().setSid(20_001).setName("new").setSex("男"));
+        }
+        int target = RoutingDataSource.shardOf(20_001, shardCount);
+        check(StubDriver.updates("shard" + target + "p") == 1 && StubDriver.updates("shard" + (1 - target) + "p") == 0,
+                "insert只发到sid所在分片的主库");
+        //键集分页：各分片分别取前n行，再按sid归并
+        try (Connection connection = sharded.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "select * from student where sid > ? order by sid limit ?")) {
+            statement.setInt(1, 1500);
+            statement.setInt(2, 50);
+            int expected = 1501, rows = 0;
+            boolean ordered = true;
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    ordered &= set.getInt("sid") == expected++;
+                    rows++;
+                }
+            }
+            check(ordered && rows == 50, "归并后按sid有序并且只取limit行");
+        }
+        System.out.printf("2个分片（一主一从）：%,10.0f 次/秒%n", throughput(factory, threads));
+        System.out.println("  " + sharded.stats());
+    }
+
+    //多个线程随机按sid查询，测3秒
+    private static double throughput(SqlSessionFactory factory, int threads) throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long end = System.nanoTime() + 3_000_000_000L;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        try (SqlSession session = factory.openSession(true)) {
+                            int sid = 1000 + ThreadLocalRandom.current().nextInt(STUDENTS);
+                            session.getMapper(TestMapper.class).getStudentBySid(sid);
+                        }
+                        ops.increment();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        return ops.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static SqlSessionFactory factory(DataSource dataSource) {
+        Configuration configuration = new Configuration(new Environment("routing", new JdbcTransactionFactory(), dataSource));
+        //关闭二级缓存，每次都真正查询
+        configuration.setCacheEnabled(false);
+        configuration.addMapper(TestMapper.class);
+        return new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    private static FastPool pool(String database) {
+        Properties props = new Properties();
+        props.setProperty("url", StubDriver.URL + database);
+        props.setProperty("maximumPoolSize", "32");
+        return new FastPool(props);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+        System.out.println("  通过：" + what);
+    }
+}
@@ -0,0 +1,144 @@
+package com.bench;
+
+import com.Mybatis.FastPool;
+import com.Mybatis.RoutingDataSource;
+import com.Mybatis.StudentScan;
+import com.Mybatis.TestMapper;
+import com.jdbc.Student;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+//StudentScan的测试：读完整张student表（10万行）
+//StubDriver里的库同时最多执行8条语句，每条耗时1毫秒（网络往返），另外每读一行0.5微秒（offset跳过的行也要读）
+//比较 limit/offset分页、键集分页、并行扫描（按min/max划分、按行数划分、合并成流），并检查每种方式读到的行都不多不少
+//最后在2个分片的RoutingDataSource上再并行扫描一次
+//运行：java -cp "out:lib/*" com.bench.ScanBenchmark [并行数]
+public class ScanBenchmark {
+
+    private static final int STUDENTS = 100_000, PAGE = 1000;
+    private static final int CONCURRENCY = 8;
+    private static final long LATENCY_MICROS = 1000, ROW_NANOS = 500;
+    //sid从1000开始连续编号，全部sid之和
+    private static final long SID_SUM = (1000L + 1000 + STUDENTS - 1) * STUDENTS / 2;
+
+    //对照组：limit/offset分页
+    public interface OffsetMapper {
+        @Select("select * from student order by sid limit #{limit} offset #{offset}")
+        List<Student> page(@Param("limit") int limit, @Param("offset") int offset);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int parallelism = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        StubDriver.register();
+        StubDriver.seed("scan", STUDENTS, 0, sid -> true);
+        StubDriver.limit("scan", CONCURRENCY, LATENCY_MICROS, ROW_NANOS);
+        SqlSessionFactory factory = factory(pool("scan"));
+        StudentScan scan = new StudentScan(factory, PAGE);
+
+        //================= limit/offset分页 =================
+        long start = System.nanoTime();
+        LongAdder rows = new LongAdder(), sum = new LongAdder();
+        for (int offset = 0; ; offset += PAGE) {
+            List<Student> page;
+            try (SqlSession session = factory.openSession(true)) {
+                page = session.getMapper(OffsetMapper.class).page(PAGE, offset);
+            }
+            page.forEach(s -> count(s, rows, sum));
+            if (page.size() < PAGE) break;
+        }
+        report("limit/offset分页", start, rows, sum);
+
+        //================= 键集分页 =================
+        start = System.nanoTime();
+        rows.reset();
+        sum.reset();
+        scan.stream().forEach(s -> count(s, rows, sum));
+        report("键集分页", start, rows, sum);
+
+        //================= 并行扫描 =================
+        start = System.nanoTime();
+        rows.reset();
+        sum.reset();
+        scan.scan(parallelism, page -> page.forEach(s -> count(s, rows, sum)));
+        report("并行扫描（按min/max划分）", start, rows, sum);
+
+        start = System.nanoTime();
+        rows.reset();
+        sum.reset();
+        List<StudentScan.Range> ranges = scan.byRows(STUDENTS / (parallelism * 4));
+        scan.scan(parallelism, ranges, page -> page.forEach(s -> count(s, rows, sum)));
+        report("并行扫描（每" + STUDENTS / (parallelism * 4) + "行一个区间，" + ranges.size() + "个）", start, rows, sum);
+
+        start = System.nanoTime();
+        rows.reset();
+        sum.reset();
+        try (Stream<Student> stream = scan.parallelStream(parallelism)) {
+            stream.forEach(s -> count(s, rows, sum));
+        }
+        report("并行扫描合并成流", start, rows, sum);
+
+        //提前关闭流：扫描停下，不会一直占着连接
+        try (Stream<Student> stream = scan.parallelStream(parallelism)) {
+            check(stream.limit(10).count() == 10, "提前关闭流");
+        }
+
+        //================= 分片后并行扫描 =================
+        List<RoutingDataSource.Shard> shards = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            int shard = i;
+            StubDriver.seed("scan" + i, STUDENTS, 0, sid -> RoutingDataSource.shardOf(sid, 2) == shard);
+            StubDriver.limit("scan" + i, CONCURRENCY, LATENCY_MICROS, ROW_NANOS);
+            shards.add(new RoutingDataSource.Shard(pool("scan" + i), Collections.emptyList()));
+        }
+        StudentScan sharded = new StudentScan(factory(new RoutingDataSource(shards, List.of("student"), "sid")), PAGE);
+        start = System.nanoTime();
+        rows.reset();
+        sum.reset();
+        sharded.scan(parallelism, page -> page.forEach(s -> count(s, rows, sum)));
+        report("2个分片并行扫描", start, rows, sum);
+    }
+
+    private static void count(Student student, LongAdder rows, LongAdder sum) {
+        rows.increment();
+        sum.add(student.getSid());
+    }
+
+    private static void report(String title, long start, LongAdder rows, LongAdder sum) {
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%s：%,8.0f ms  %,10.0f 行/秒%n", title, ms, rows.sum() / (ms / 1000));
+        check(rows.sum() == STUDENTS && sum.sum() == SID_SUM, "每个学生正好读到一次");
+    }
+
+    private static SqlSessionFactory factory(DataSource dataSource) {
+        Configuration configuration = new Configuration(new Environment("scan", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(TestMapper.class);
+        configuration.addMapper(OffsetMapper.class);
+        return new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    private static FastPool pool(String database) {
+        Properties props = new Properties();
+        props.setProperty("url", StubDriver.URL + database);
+        props.setProperty("maximumPoolSize", "32");
+        return new FastPool(props);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+        System.out.println("  通过：" + what);
+    }
+}
@@ -0,0 +1,115 @@
+package com.bench;
+
+import com.Mybatis.ConfigurationSnapshot;
+import com.Mybatis.TestMapper;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//冷启动测试：每次都启动一个新的JVM，测从JVM启动到拿到可用的Mapper一共花了多久
+//同一个JVM里重复测只能测到热的情况（类已经加载、JIT已经编译），和短任务的实际情况差得很远
+//  double   原来的做法：Main和MybatisUtil各解析一遍mybatis-config.xml
+//  single   只解析一遍XML（MybatisUtil.getFactory的默认做法）
+//  snapshot 从ConfigurationSnapshot生成的快照加载，不解析XML，不扫描注解
+//运行：java -cp "out:lib/*" com.bench.StartupBenchmark [次数]    （在mybatis-config.xml所在目录运行）
+//注意：只创建工厂和Mapper，不连接数据库
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            child(args[1], Paths.get(args[2]), Paths.get(args[3]));
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Path config = Paths.get("mybatis-config.xml");
+        Path snapshot = Files.createTempFile("mybatis-config", ".snapshot");
+        try {
+            ConfigurationSnapshot.write(config, snapshot);
+            System.out.printf("快照大小：%d 字节%n", Files.size(snapshot));
+            System.out.printf("%-10s %14s %14s %14s%n", "模式", "进程总耗时", "启动到可用", "创建工厂");
+            for (String mode : new String[]{"double", "single", "snapshot"}) {
+                List<Long> wall = new ArrayList<>(), ready = new ArrayList<>(), build = new ArrayList<>();
+                for (int i = 0; i < runs + 1; i++) {
+                    long start = System.nanoTime();
+                    long[] result = spawn(mode, config, snapshot);
+                    long elapsed = System.nanoTime() - start;
+                    if (i == 0) continue;   //第一次把文件系统缓存热起来，不计入
+                    wall.add(elapsed / 1_000_000);
+                    ready.add(result[0]);
+                    build.add(result[1] / 1_000_000);
+                }
+                System.out.printf("%-10s %12d ms %12d ms %12d ms%n", mode, median(wall), median(ready), median(build));
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private static long[] spawn(String mode, Path config, Path snapshot) throws Exception {
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), StartupBenchmark.class.getName(),
+                "--child", mode, config.toString(), snapshot.toString())
+                .redirectErrorStream(true)
+                .start();
+        String last = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line; (line = reader.readLine()) != null; ) last = line;
+        }
+        if (process.waitFor() != 0 || last == null || !last.startsWith("RESULT ")) {
+            throw new IllegalStateException(mode + " 运行失败：" + last);
+        }
+        String[] parts = last.split(" ");
+        return new long[]{Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+    }
+
+    //子进程：按模式创建工厂，输出 “RESULT 启动到可用的毫秒数 创建工厂的纳秒数”
+    private static void child(String mode, Path config, Path snapshot) throws Exception {
+        long start = System.nanoTime();
+        SqlSessionFactory factory;
+        switch (mode) {
+            case "double":
+                build(config);
+                factory = build(config);
+                break;
+            case "single":
+                factory = build(config);
+                break;
+            case "snapshot":
+                factory = ConfigurationSnapshot.load(snapshot, config);
+                break;
+            default:
+                throw new IllegalArgumentException(mode);
+        }
+        try (SqlSession session = factory.openSession()) {
+            session.getMapper(TestMapper.class);
+        }
+        long build = System.nanoTime() - start;
+        long ready = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("RESULT " + ready + " " + build);
+    }
+
+    private static SqlSessionFactory build(Path config) throws IOException {
+        try (InputStream in = new FileInputStream(config.toFile())) {
+            return new SqlSessionFactoryBuilder().build(in);
+        }
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,616 @@
+package com.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntPredicate;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//进程内的“假数据库”驱动，地址为 jdbc:stub:
+//基准测试不依赖真正的MySQL，这里把student/teacher/teach三张表放在内存里，
+//只认识项目中实际用到的几种查询（按表名和where条件匹配），其余SQL当作更新语句返回1
+//jdbc:stub:名称 是另外一个独立的库（测试读写分离、分片时当作多台数据库），用seed(名称, ...)生成数据
+//Connection/Statement/ResultSet都是用动态代理实现的，只实现了MyBatis和JDBC示例会调用的方法
+//事务只记录条数：commit时把连接上未提交的更新计入committed，rollback/回滚到保存点时丢掉相应的更新
+public final class StubDriver implements Driver {
+
+    public static final String URL = "jdbc:stub:";
+
+    private static final StubDriver INSTANCE = new StubDriver();
+    private static volatile Data data = new Data(10_000, 100, sid -> true);
+    //jdbc:stub:名称 对应的库
+    private static final Map<String, Data> databases = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(INSTANCE);
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 注册驱动并重新生成数据
+     * @param students 学生数量
+     * @param teachers 老师数量，学生按sid取余分给老师
+     */
+    public static void seed(int students, int teachers) {
+        data = new Data(students, teachers, sid -> true);
+    }
+
+    /**
+     * 生成一个单独的库，地址为 jdbc:stub:名称
+     * @param database 库名
+     * @param students 学生数量（sid从1000开始编号）
+     * @param teachers 老师数量，每个库都有全部老师
+     * @param keep 只保留哪些sid的学生（模拟分片后每个库只有一部分数据）
+     */
+    public static void seed(String database, int students, int teachers, IntPredicate keep) {
+        databases.put(database, new Data(students, teachers, keep));
+    }
+
+    /**
+     * 模拟数据库的处理能力：同时最多执行concurrency条语句，每条耗时latencyMicros微秒
+     */
+    public static void limit(String database, int concurrency, long latencyMicros) {
+        limit(database, concurrency, latencyMicros, 0);
+    }
+
+    /**
+     * 同上，查询另外按读过的行数计时，每行rowNanos纳秒（offset跳过的行也要读）
+     */
+    public static void limit(String database, int concurrency, long latencyMicros, long rowNanos) {
+        Data d = database(database);
+        d.permits = new Semaphore(concurrency);
+        d.latencyNanos = latencyMicros * 1000;
+        d.rowNanos = rowNanos;
+    }
+
+    /**
+     * 模拟提交时刷盘：每次提交（包括自动提交模式下的每条更新）耗时fsyncMicros微秒，同一个库的刷盘一次只能进行一个
+     */
+    public static void fsync(String database, long fsyncMicros) {
+        database(database).fsyncNanos = fsyncMicros * 1000;
+    }
+
+    /**
+     * 库上执行过的查询次数
+     */
+    public static long queries(String database) {
+        return database(database).queries.sum();
+    }
+
+    /**
+     * 库上执行过的更新次数
+     */
+    public static long updates(String database) {
+        return database(database).updates.sum();
+    }
+
+    /**
+     * 已经提交的更新条数（回滚掉的不算）
+     */
+    public static long committed(String database) {
+        return database(database).committed.sum();
+    }
+
+    /**
+     * 库上的提交（刷盘）次数
+     */
+    public static long commits(String database) {
+        return database(database).commits.sum();
+    }
+
+    private static Data database(String name) {
+        if (name.isEmpty()) return data;
+        Data d = databases.get(name);
+        if (d == null) throw new IllegalArgumentException("没有这个库：" + name);
+        return d;
+    }
+
+    public static void register() {
+        //触发类加载即可
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) return null;
+        return proxy(Connection.class, new ConnectionHandler(url.substring(URL.length())));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return Logger.getLogger(StubDriver.class.getName());
+    }
+
+    //================= 数据 =================
+
+    private static final class Table {
+        final String[] columns;
+        final int[] types;
+        final List<Object[]> rows;
+
+        Table(String[] columns, int[] types, List<Object[]> rows) {
+            this.columns = columns;
+            this.types = types;
+            this.rows = rows;
+        }
+    }
+
+    private static final String[] STUDENT = {"sid", "name", "sex"};
+    private static final int[] STUDENT_TYPES = {Types.INTEGER, Types.VARCHAR, Types.VARCHAR};
+    private static final String[] TEACHER = {"tid", "name"};
+    private static final int[] TEACHER_TYPES = {Types.INTEGER, Types.VARCHAR};
+    private static final String[] STUDENT_TID = {"sid", "name", "sex", "tid"};
+    private static final int[] STUDENT_TID_TYPES = {Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER};
+
+    private static final class Data {
+        final List<Object[]> students = new ArrayList<>();
+        final Map<Integer, Object[]> studentBySid = new HashMap<>();
+        final Map<Integer, Object[]> teacherByTid = new HashMap<>();
+        final Map<Integer, List<Object[]>> studentsByTid = new HashMap<>();
+        final int minSid, teachers;
+        final LongAdder queries = new LongAdder(), updates = new LongAdder();
+        final LongAdder committed = new LongAdder(), commits = new LongAdder();
+        final Object log = new Object();
+        volatile Semaphore permits;
+        volatile long latencyNanos, rowNanos, fsyncNanos;
+
+        Data(int studentCount, int teacherCount, IntPredicate keep) {
+            this.minSid = 1000;
+            this.teachers = teacherCount;
+            for (int t = 0; t < teacherCount; t++) {
+                int tid = 100 + t;
+                teacherByTid.put(tid, new Object[]{tid, "teacher" + tid});
+                studentsByTid.put(tid, new ArrayList<>());
+            }
+            for (int i = 0; i < studentCount; i++) {
+                int sid = minSid + i;
+                if (!keep.test(sid)) continue;
+                Object[] row = {sid, "student" + sid, i % 2 == 0 ? "男" : "女"};
+                students.add(row);
+                studentBySid.put(sid, row);
+                if (teacherCount > 0) {
+                    int tid = 100 + i % teacherCount;
+                    studentsByTid.get(tid).add(new Object[]{sid, row[1], row[2], tid});
+                }
+            }
+        }
+    }
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern LIMIT_OFFSET = Pattern.compile("limit (\\?|\\d+)(?: offset (\\?|\\d+))?");
+    private static final Pattern IN_LIST = Pattern.compile("in\\s*\\(([?,\\s]*)\\)");
+
+    //根据SQL和参数得到结果，返回null表示是更新语句
+    private static Table execute(Data d, String rawSql, Map<Integer, Object> params) {
+        String sql = SPACES.matcher(rawSql.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+        //examined[0]：查询时数据库要读过的行数
+        int[] examined = new int[1];
+        Table table = null;
+        if (sql.startsWith("select")) {
+            d.queries.increment();
+            table = query(d, sql, params, examined);
+            examined[0] = Math.max(examined[0], table.rows.size());
+        } else {
+            d.updates.increment();
+        }
+        Semaphore permits = d.permits;
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+            try {
+                LockSupport.parkNanos(d.latencyNanos + examined[0] * d.rowNanos);
+            } finally {
+                permits.release();
+            }
+        }
+        return table;
+    }
+
+    private static Table query(Data d, String sql, Map<Integer, Object> params, int[] examined) {
+        List<Object[]> rows = new ArrayList<>();
+        if (sql.contains("from student inner join teach") || sql.contains("from student join teach")) {
+            for (Object tid : inValues(sql, params)) {
+                List<Object[]> list = d.studentsByTid.get(toInt(tid));
+                if (list != null) rows.addAll(list);
+            }
+            return new Table(STUDENT_TID, STUDENT_TID_TYPES, rows);
+        }
+        if (sql.contains("from teacher")) {
+            for (Object tid : inValues(sql, params)) {
+                Object[] row = d.teacherByTid.get(toInt(tid));
+                if (row != null) rows.add(row);
+            }
+            return new Table(TEACHER, TEACHER_TYPES, rows);
+        }
+        if (sql.startsWith("select min(sid)")) {
+            //select min(sid) as lo, max(sid) as hi from student
+            Object[] row = new Object[2];
+            if (!d.students.isEmpty()) {
+                row[0] = d.students.get(0)[0];
+                row[1] = d.students.get(d.students.size() - 1)[0];
+            }
+            rows.add(row);
+            return new Table(new String[]{"lo", "hi"}, new int[]{Types.INTEGER, Types.INTEGER}, rows);
+        }
+        if (sql.contains("from student")) {
+            if (sql.contains("where sid = ?")) {
+                Object[] row = d.studentBySid.get(toInt(params.get(1)));
+                if (row != null) rows.add(row);
+            } else if (sql.contains("where sid > ?") || sql.contains(" limit ")) {
+                //键集分页：where sid > ? [and sid <= ?] order by sid limit ? [offset ?]，也支持不带where的limit/offset
+                //学生按sid顺序存放，参数按?出现的顺序取
+                int index = 1;
+                int after = sql.contains("where sid > ?") ? toInt(params.get(index++)) : Integer.MIN_VALUE;
+                int to = sql.contains("and sid <= ?") ? toInt(params.get(index++)) : Integer.MAX_VALUE;
+                Matcher m = LIMIT_OFFSET.matcher(sql);
+                int limit = Integer.MAX_VALUE, offset = 0;
+                if (m.find()) {
+                    limit = m.group(1).equals("?") ? toInt(params.get(index++)) : Integer.parseInt(m.group(1));
+                    if (m.group(2) != null) offset = m.group(2).equals("?") ? toInt(params.get(index)) : Integer.parseInt(m.group(2));
+                }
+                //sid > ? 按主键定位到起点，offset要一行一行数过去
+                int from = firstAfter(d.students, after);
+                for (int i = from; i < d.students.size(); i++) {
+                    Object[] row = d.students.get(i);
+                    if ((int) row[0] > to || rows.size() == limit) break;
+                    examined[0]++;
+                    if (offset > 0) offset--;
+                    else rows.add(row);
+                }
+            } else {
+                rows = d.students;
+            }
+            return new Table(STUDENT, STUDENT_TYPES, rows);
+        }
+        return new Table(new String[0], new int[0], rows);
+    }
+
+    //按sid排好序的学生里第一个sid > after的位置
+    private static int firstAfter(List<Object[]> students, int after) {
+        int lo = 0, hi = students.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((int) students.get(mid)[0] <= after) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    //where tid = ? 或 where tid in (?, ?, ...) 中的参数
+    private static List<Object> inValues(String sql, Map<Integer, Object> params) {
+        Matcher m = IN_LIST.matcher(sql);
+        if (m.find()) {
+            int count = 0;
+            for (char c : m.group(1).toCharArray()) if (c == '?') count++;
+            List<Object> values = new ArrayList<>(count);
+            for (int i = 1; i <= count; i++) values.add(params.get(i));
+            return values;
+        }
+        return Collections.singletonList(params.get(1));
+    }
+
+    private static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(String.valueOf(value));
+    }
+
+    //================= JDBC对象 =================
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    //提交rows条更新，刷盘时同一个库排队
+    private static void commit(Data d, int rows) {
+        long nanos = d.fsyncNanos;
+        if (nanos > 0) {
+            synchronized (d.log) {
+                LockSupport.parkNanos(nanos);
+            }
+        }
+        d.committed.add(rows);
+        d.commits.increment();
+    }
+
+    //没有特别处理的方法返回默认值，基本类型不能返回null
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0d;
+        if (type == float.class) return 0f;
+        if (type == char.class) return '\0';
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+        final String database;
+        boolean autoCommit = true, closed;
+        //未提交的更新条数，保存点记录创建时的条数
+        int pending;
+        final Map<Savepoint, Integer> savepoints = new IdentityHashMap<>();
+
+        ConnectionHandler(String database) {
+            this.database = database;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return StubDriver.proxy(PreparedStatement.class,
+                            new StatementHandler(this, (Connection) proxy, (String) args[0]));
+                case "createStatement":
+                    return StubDriver.proxy(Statement.class, new StatementHandler(this, (Connection) proxy, null));
+                case "getMetaData":
+                    return StubDriver.proxy(DatabaseMetaData.class, (p, m, a) -> {
+                        if (m.getName().equals("getURL")) return URL + database;
+                        return defaultValue(m.getReturnType());
+                    });
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    //JDBC规定事务中途打开自动提交会提交当前事务
+                    if ((Boolean) args[0] && !autoCommit) commit();
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "commit":
+                    commit();
+                    return null;
+                case "rollback":
+                    if (args == null) {
+                        pending = 0;
+                        savepoints.clear();
+                    } else {
+                        pending = savepoints.getOrDefault((Savepoint) args[0], pending);
+                    }
+                    return null;
+                case "releaseSavepoint":
+                    savepoints.remove((Savepoint) args[0]);
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "close":
+                    //没有提交的更新丢弃
+                    closed = true;
+                    pending = 0;
+                    return null;
+                case "getTransactionIsolation":
+                    return Connection.TRANSACTION_READ_COMMITTED;
+                case "setSavepoint": {
+                    Savepoint savepoint = StubDriver.proxy(Savepoint.class, (p, m, a) -> {
+                        if (m.getName().equals("hashCode")) return System.identityHashCode(p);
+                        if (m.getName().equals("equals")) return p == a[0];
+                        return defaultValue(m.getReturnType());
+                    });
+                    savepoints.put(savepoint, pending);
+                    return savepoint;
+                }
+                case "toString":
+                    return "StubConnection[" + database + "]";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        //没有更新的事务提交时不用刷盘
+        void commit() {
+            if (pending > 0) StubDriver.commit(database(database), pending);
+            pending = 0;
+            savepoints.clear();
+        }
+
+        //执行了rows条更新，自动提交模式下立即提交
+        void updated(int rows) {
+            pending += rows;
+            if (autoCommit) commit();
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        final ConnectionHandler owner;
+        final Connection connection;
+        final String database;
+        final String sql;
+        final Map<Integer, Object> params = new HashMap<>();
+        final List<Map<Integer, Object>> batch = new ArrayList<>();
+        ResultSet current;
+        int updateCount = -1;
+
+        StatementHandler(ConnectionHandler owner, Connection connection, String sql) {
+            this.owner = owner;
+            this.connection = connection;
+            this.database = owner.database;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && !name.equals("setFetchSize") && !name.equals("setMaxRows")) {
+                params.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            switch (name) {
+                case "executeQuery":
+                    run(args == null ? sql : (String) args[0]);
+                    return current;
+                case "execute":
+                    run(args == null ? sql : (String) args[0]);
+                    return current != null;
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    run(args == null ? sql : (String) args[0]);
+                    return name.equals("executeUpdate") ? (Object) updateCount : (Object) (long) updateCount;
+                case "addBatch":
+                    batch.add(new HashMap<>(params));
+                    return null;
+                case "executeBatch": {
+                    int[] counts = new int[batch.size()];
+                    Arrays.fill(counts, 1);
+                    database(database).updates.add(batch.size());
+                    owner.updated(batch.size());
+                    batch.clear();
+                    return counts;
+                }
+                case "getResultSet":
+                    return current;
+                case "getUpdateCount":
+                    return current == null ? updateCount : -1;
+                case "getMoreResults":
+                    current = null;
+                    updateCount = -1;
+                    return false;
+                case "clearParameters":
+                    params.clear();
+                    return null;
+                case "getConnection":
+                    return connection;
+                case "toString":
+                    return "StubStatement[" + sql + "]";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private void run(String sql) {
+            Table table = execute(database(database), sql, params);
+            if (table == null) {
+                current = null;
+                updateCount = 1;
+                owner.updated(1);
+            } else {
+                current = StubDriver.proxy(ResultSet.class, new ResultSetHandler(table));
+                updateCount = -1;
+            }
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        final Table table;
+        int row = -1;
+        boolean wasNull;
+
+        ResultSetHandler(Table table) {
+            this.table = table;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            String name = method.getName();
+            switch (name) {
+                case "next":
+                    return ++row < table.rows.size();
+                case "wasNull":
+                    return wasNull;
+                case "getMetaData":
+                    return StubDriver.proxy(ResultSetMetaData.class, (p, m, a) -> meta(m, a));
+                case "findColumn":
+                    return column(args[0]);
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "isClosed":
+                    return false;
+                case "toString":
+                    return "StubResultSet";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    if (name.startsWith("get") && args != null && args.length >= 1) return value(method, args[0]);
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private Object value(Method method, Object column) throws SQLException {
+            Object v = table.rows.get(row)[column(column) - 1];
+            wasNull = v == null;
+            Class<?> type = method.getReturnType();
+            if (v == null) return defaultValue(type);
+            if (type == String.class) return String.valueOf(v);
+            if (type == int.class) return ((Number) v).intValue();
+            if (type == long.class) return ((Number) v).longValue();
+            if (type == short.class) return ((Number) v).shortValue();
+            if (type == byte.class) return ((Number) v).byteValue();
+            if (type == double.class) return ((Number) v).doubleValue();
+            if (type == float.class) return ((Number) v).floatValue();
+            if (type == boolean.class) return ((Number) v).intValue() != 0;
+            return v;
+        }
+
+        private int column(Object column) throws SQLException {
+            if (column instanceof Integer) return (Integer) column;
+            String label = String.valueOf(column);
+            for (int i = 0; i < table.columns.length; i++) {
+                if (table.columns[i].equalsIgnoreCase(label)) return i + 1;
+            }
+            throw new SQLException("没有这一列：" + label);
+        }
+
+        private Object meta(Method m, Object[] a) {
+            switch (m.getName()) {
+                case "getColumnCount":
+                    return table.columns.length;
+                case "getColumnLabel":
+                case "getColumnName":
+                    return table.columns[(Integer) a[0] - 1];
+                case "getColumnType":
+                    return table.types[(Integer) a[0] - 1];
+                case "getColumnClassName":
+                    return table.types[(Integer) a[0] - 1] == Types.INTEGER ? "java.lang.Integer" : "java.lang.String";
+                case "getTableName":
+                    return "";
+                default:
+                    return defaultValue(m.getReturnType());
+            }
+        }
+    }
+}
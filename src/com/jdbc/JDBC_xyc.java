@@ -32,5 +32,16 @@ public class JDBC_xyc {
             e.printStackTrace();
         }
         //5. 释放资源，try-with-resource语法会自动帮助我们close
+
+        //使用PreparedStatement：SQL里用?占位，同一条SQL只需要预编译一次，反复执行时只传参数
+        try (JdbcSession session = JdbcSession.open("jdbc:mysql://localhost:3306/sql_hr", "root", "xuyong612", 64)) {
+            for (int sid = 1001; sid <= 1005; sid++) {
+                Student student = session.queryOne("select * from student where sid = ?", Student.class, sid);
+                if (student != null) student.say();
+            }
+            System.out.println(session.stats());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,150 @@
+package com.jdbc;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+//对Connection的简单封装：按SQL文本缓存PreparedStatement
+//Statement每次执行都要把整条SQL发给数据库重新解析，参数还是直接拼接在字符串里的（有SQL注入的风险）；
+//这里同一条SQL只prepare一次，之后只替换参数。配合useServerPrepStmts=true，MySQL会在服务端预编译，
+//后续执行只传参数，不用再解析SQL
+//注意：一个JdbcSession只能被一个线程使用（和Connection一样）
+public class JdbcSession implements AutoCloseable {
+
+    private final Connection connection;
+    private final int maxStatements;
+    private long hits, misses, evictions;
+
+    //按访问顺序排列的LinkedHashMap就是一个LRU，超出容量时关闭最久没用的语句
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    public JdbcSession(Connection connection, int maxStatements) {
+        this.connection = connection;
+        this.maxStatements = maxStatements;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= JdbcSession.this.maxStatements) return false;
+                evictions++;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 打开一个开启了服务端预编译的连接
+     * @param url 数据库地址
+     * @param user 用户名
+     * @param password 密码
+     * @param maxStatements 最多缓存多少条语句
+     */
+    public static JdbcSession open(String url, String user, String password, int maxStatements) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        //使用服务端预编译（驱动不认识的参数会被忽略）
+        props.setProperty("useServerPrepStmts", "true");
+        return new JdbcSession(DriverManager.getConnection(url, props), maxStatements);
+    }
+
+    /**
+     * 获取缓存的PreparedStatement，不要自己关闭它，关闭JdbcSession时会统一关闭
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            statement.clearParameters();
+            return statement;
+        }
+        misses++;
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    /**
+     * 执行查询，并把每一行映射为对象
+     * @param sql 带?占位符的SQL
+     * @param clazz 实体类型
+     * @param params 按顺序填入的参数
+     */
+    public <T> List<T> query(String sql, Class<T> clazz, Object... params) throws SQLException {
+        PreparedStatement statement = prepare(sql);
+        bind(statement, params);
+        try (ResultSet set = statement.executeQuery()) {
+            return RowMapper.mapAll(set, clazz);
+        }
+    }
+
+    /**
+     * 查询单个对象，没有结果时返回null
+     */
+    public <T> T queryOne(String sql, Class<T> clazz, Object... params) throws SQLException {
+        List<T> list = query(sql, clazz, params);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * 执行插入/更新/删除
+     * @return 生效的行数
+     */
+    public int update(String sql, Object... params) throws SQLException {
+        PreparedStatement statement = prepare(sql);
+        bind(statement, params);
+        return statement.executeUpdate();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public long hitCount() {
+        return hits;
+    }
+
+    public long missCount() {
+        return misses;
+    }
+
+    public long evictionCount() {
+        return evictions;
+    }
+
+    public double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public String stats() {
+        return String.format("缓存语句=%d 命中=%d 未命中=%d 命中率=%.2f%% 淘汰=%d",
+                statements.size(), hits, misses, hitRate() * 100, evictions);
+    }
+
+    //先关闭所有缓存的语句，再关闭连接
+    @Override
+    public void close() throws SQLException {
+        for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+        connection.close();
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) statement.setObject(i + 1, params[i]);
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
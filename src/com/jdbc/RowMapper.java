@@ -0,0 +1,332 @@
+package com.jdbc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+//行映射器：把ResultSet的一行转换为实体对象
+//和JdbcObject.convert不同，这里只在第一次遇到(类型, 结果集列结构)时做一次反射分析，
+//之后把分析结果编译成MethodHandle缓存起来，每一行只需要按顺序调用即可
+public final class RowMapper<T> {
+
+    //缓存：实体类型 + 列名/列类型 -> 已经编译好的映射器
+    private static final Map<Key, RowMapper<?>> CACHE = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Class<T> type;
+    //三种构造方式：无参构造+setter、Lombok的builder()、按位置的全参构造
+    private final MethodHandle creator;       //() -> Object 或 (Object[]) -> Object
+    private final MethodHandle[] setters;     //(Object, Object) -> void，没有对应属性的列为null
+    private final MethodHandle build;         //builder模式下最后的build()
+    private final Reader[] readers;           //每一列如何从结果集里读取值
+    private final Mode mode;
+
+    private enum Mode { SETTER, BUILDER, CONSTRUCTOR }
+
+    private RowMapper(Class<T> type, Mode mode, MethodHandle creator, MethodHandle[] setters,
+                      MethodHandle build, Reader[] readers) {
+        this.type = type;
+        this.mode = mode;
+        this.creator = creator;
+        this.setters = setters;
+        this.build = build;
+        this.readers = readers;
+    }
+
+    /**
+     * 获取(类型, 结果集结构)对应的映射器，没有则创建并缓存
+     * @param clazz 实体类型
+     * @param meta 结果集的元数据
+     * @return 映射器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> of(Class<T> clazz, ResultSetMetaData meta) throws SQLException {
+        Key key = Key.of(clazz, meta);
+        RowMapper<?> mapper = CACHE.get(key);
+        if (mapper == null) {
+            mapper = CACHE.computeIfAbsent(key, k -> compile(clazz, k.labels, k.sqlTypes));
+        }
+        return (RowMapper<T>) mapper;
+    }
+
+    /**
+     * 映射当前行，调用前需要先set.next()
+     */
+    public T map(ResultSet set) throws SQLException {
+        try {
+            switch (mode) {
+                case SETTER: {
+                    Object target = creator.invoke();
+                    for (int i = 0; i < setters.length; i++) {
+                        if (setters[i] == null) continue;
+                        Object value = readers[i].read(set, i + 1);
+                        //基本类型的属性遇到null时保持默认值
+                        if (value != null || !readers[i].primitive) setters[i].invoke(target, value);
+                    }
+                    return type.cast(target);
+                }
+                case BUILDER: {
+                    Object builder = creator.invoke();
+                    for (int i = 0; i < setters.length; i++) {
+                        if (setters[i] == null) continue;
+                        Object value = readers[i].read(set, i + 1);
+                        if (value != null || !readers[i].primitive) setters[i].invoke(builder, value);
+                    }
+                    return type.cast(build.invoke(builder));
+                }
+                default: {
+                    Object[] args = new Object[readers.length];
+                    for (int i = 0; i < readers.length; i++) {
+                        args[i] = readers[i].read(set, i + 1);
+                        if (args[i] == null && readers[i].primitive) args[i] = readers[i].zero;
+                    }
+                    return type.cast(creator.invoke(args));
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException("映射" + type.getName() + "失败", e);
+        }
+    }
+
+    /**
+     * 把整个结果集映射为列表
+     */
+    public static <T> List<T> mapAll(ResultSet set, Class<T> clazz) throws SQLException {
+        RowMapper<T> mapper = of(clazz, set.getMetaData());
+        List<T> list = new ArrayList<>();
+        while (set.next()) list.add(mapper.map(set));
+        return list;
+    }
+
+    //====================== 编译阶段：只在第一次遇到时执行 ======================
+
+    private static <T> RowMapper<T> compile(Class<T> clazz, String[] labels, int[] sqlTypes) {
+        try {
+            //优先：无参构造 + setter（Student有@NoArgsConstructor和@Setter）
+            Constructor<T> noArg = findNoArg(clazz);
+            if (noArg != null) {
+                Map<String, Method> setterMap = properties(clazz, "set", 1);
+                MethodHandle[] setters = new MethodHandle[labels.length];
+                Reader[] readers = new Reader[labels.length];
+                boolean any = false;
+                for (int i = 0; i < labels.length; i++) {
+                    Method m = setterMap.get(normalize(labels[i]));
+                    if (m == null) continue;
+                    Class<?> target = m.getParameterTypes()[0];
+                    setters[i] = LOOKUP.unreflect(m)
+                            .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    readers[i] = Reader.of(target);
+                    any = true;
+                }
+                if (any) {
+                    MethodHandle creator = LOOKUP.unreflectConstructor(noArg)
+                            .asType(MethodType.methodType(Object.class));
+                    return new RowMapper<>(clazz, Mode.SETTER, creator, setters, null, readers);
+                }
+            }
+
+            //其次：Lombok的@Builder，Student.builder().sid(..).name(..).build()
+            RowMapper<T> byBuilder = compileBuilder(clazz, labels);
+            if (byBuilder != null) return byBuilder;
+
+            //最后：按位置匹配参数个数相同的构造方法，和原来的convert行为一致
+            for (Constructor<?> c : clazz.getConstructors()) {
+                if (c.getParameterCount() != labels.length) continue;
+                Class<?>[] params = c.getParameterTypes();
+                Reader[] readers = new Reader[params.length];
+                for (int i = 0; i < params.length; i++) readers[i] = Reader.of(params[i]);
+                MethodHandle creator = LOOKUP.unreflectConstructor(c)
+                        .asSpreader(Object[].class, params.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+                return new RowMapper<>(clazz, Mode.CONSTRUCTOR, creator, new MethodHandle[params.length], null, readers);
+            }
+            throw new IllegalArgumentException("找不到可以映射" + Arrays.toString(labels) + "的构造方式：" + clazz.getName());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("无法访问" + clazz.getName() + "的构造方法或setter", e);
+        }
+    }
+
+    private static <T> RowMapper<T> compileBuilder(Class<T> clazz, String[] labels) throws IllegalAccessException {
+        Method factory;
+        try {
+            factory = clazz.getMethod("builder");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        if (!Modifier.isStatic(factory.getModifiers())) return null;
+        Class<?> builderType = factory.getReturnType();
+        Method build;
+        try {
+            build = builderType.getMethod("build");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        //builder里的方法名就是属性名，没有set前缀
+        Map<String, Method> methods = properties(builderType, "", 1);
+        MethodHandle[] setters = new MethodHandle[labels.length];
+        Reader[] readers = new Reader[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            Method m = methods.get(normalize(labels[i]));
+            if (m == null) continue;
+            setters[i] = LOOKUP.unreflect(m).asType(MethodType.methodType(void.class, Object.class, Object.class));
+            readers[i] = Reader.of(m.getParameterTypes()[0]);
+        }
+        MethodHandle creator = LOOKUP.unreflect(factory).asType(MethodType.methodType(Object.class));
+        MethodHandle buildHandle = LOOKUP.unreflect(build).asType(MethodType.methodType(Object.class, Object.class));
+        return new RowMapper<>(clazz, Mode.BUILDER, creator, setters, buildHandle, readers);
+    }
+
+    private static <T> Constructor<T> findNoArg(Class<T> clazz) {
+        try {
+            return clazz.getConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    //收集 名称(去掉前缀、统一小写、去掉下划线) -> 单参数公开方法
+    private static Map<String, Method> properties(Class<?> clazz, String prefix, int paramCount) {
+        Map<String, Method> map = new HashMap<>();
+        for (Method m : clazz.getMethods()) {
+            if (Modifier.isStatic(m.getModifiers()) || m.getParameterCount() != paramCount) continue;
+            String name = m.getName();
+            if (!name.startsWith(prefix) || name.length() == prefix.length()) continue;
+            map.putIfAbsent(normalize(name.substring(prefix.length())), m);
+        }
+        return map;
+    }
+
+    //列名student_name和属性studentName都统一成studentname
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    //====================== 列读取：按目标类型选择不装箱的getXxx ======================
+
+    private abstract static class Reader {
+        final boolean primitive;
+        final Object zero;
+
+        Reader(Class<?> target) {
+            this.primitive = target.isPrimitive();
+            this.zero = primitive ? zeroOf(target) : null;
+        }
+
+        abstract Object read(ResultSet set, int column) throws SQLException;
+
+        static Reader of(Class<?> target) {
+            if (target == int.class || target == Integer.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    int v = set.getInt(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == long.class || target == Long.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    long v = set.getLong(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == double.class || target == Double.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    double v = set.getDouble(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == float.class || target == Float.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    float v = set.getFloat(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == short.class || target == Short.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    short v = set.getShort(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == byte.class || target == Byte.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    byte v = set.getByte(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == boolean.class || target == Boolean.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    boolean v = set.getBoolean(column);
+                    return set.wasNull() ? null : v;
+                }
+            };
+            if (target == String.class) return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    return set.getString(column);
+                }
+            };
+            //其它类型交给驱动做转换
+            return new Reader(target) {
+                Object read(ResultSet set, int column) throws SQLException {
+                    return set.getObject(column, target);
+                }
+            };
+        }
+
+        private static Object zeroOf(Class<?> type) {
+            if (type == boolean.class) return false;
+            if (type == char.class) return '\0';
+            if (type == byte.class) return (byte) 0;
+            if (type == short.class) return (short) 0;
+            if (type == int.class) return 0;
+            if (type == long.class) return 0L;
+            if (type == float.class) return 0f;
+            return 0d;
+        }
+    }
+
+    //缓存的键：同一个类在不同查询里列的顺序/类型可能不同，所以要连列结构一起作为键
+    private static final class Key {
+        final Class<?> type;
+        final String[] labels;
+        final int[] sqlTypes;
+        final int hash;
+
+        private Key(Class<?> type, String[] labels, int[] sqlTypes) {
+            this.type = type;
+            this.labels = labels;
+            this.sqlTypes = sqlTypes;
+            this.hash = 31 * (31 * type.hashCode() + Arrays.hashCode(labels)) + Arrays.hashCode(sqlTypes);
+        }
+
+        static Key of(Class<?> type, ResultSetMetaData meta) throws SQLException {
+            int count = meta.getColumnCount();
+            String[] labels = new String[count];
+            int[] sqlTypes = new int[count];
+            for (int i = 0; i < count; i++) {
+                labels[i] = meta.getColumnLabel(i + 1);
+                sqlTypes[i] = meta.getColumnType(i + 1);
+            }
+            return new Key(type, labels, sqlTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return type == k.type && Arrays.equals(labels, k.labels) && Arrays.equals(sqlTypes, k.sqlTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
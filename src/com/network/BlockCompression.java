@@ -0,0 +1,208 @@
+package com.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//传输时的分块压缩
+//数据切成64KB的块，每块单独用Deflater(BEST_SPEED)压缩，压缩后没有变小的块原样发送
+//连续几块都压不动（比如已经压缩过的zip、图片）时，后面一段直接原样发送，不再浪费CPU去尝试
+//块格式：byte 类型（0原样/1压缩） + int 原始长度 + int 数据长度 + 数据
+//Deflater/Inflater和缓冲区都放在池里重复使用，不用每个连接都重新申请
+public final class BlockCompression {
+
+    static final int BLOCK = 64 * 1024;
+    static final byte STORED = 0, DEFLATED = 1;
+    //连续STORED_STREAK块没有变小，就跳过后面SKIP_BLOCKS块的压缩
+    private static final int STORED_STREAK = 4, SKIP_BLOCKS = 16;
+    private static final int POOL_SIZE = 16;
+
+    private static final ConcurrentLinkedQueue<Codec> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private BlockCompression() {
+    }
+
+    //一个连接用的压缩器、解压器和缓冲区
+    private static final class Codec {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        final Inflater inflater = new Inflater(true);
+        final ByteBuffer raw = ByteBuffer.allocateDirect(BLOCK);
+        final ByteBuffer packed = ByteBuffer.allocateDirect(BLOCK);
+        final ByteBuffer head = ByteBuffer.allocate(9);
+    }
+
+    private static Codec acquire() {
+        Codec codec = POOL.poll();
+        if (codec == null) return new Codec();
+        POOLED.decrementAndGet();
+        return codec;
+    }
+
+    private static void release(Codec codec) {
+        codec.deflater.reset();
+        codec.inflater.reset();
+        if (POOLED.incrementAndGet() <= POOL_SIZE) {
+            POOL.offer(codec);
+        } else {
+            POOLED.decrementAndGet();
+            codec.deflater.end();
+            codec.inflater.end();
+        }
+    }
+
+    //压缩统计
+    public static final class Stats {
+        public long rawBytes;       //原始字节数
+        public long wireBytes;      //实际在网络上传输的字节数（含块头）
+        public int blocks;
+        public int storedBlocks;    //原样发送的块
+        public long nanos;
+
+        public double ratio() {
+            return rawBytes == 0 ? 1 : (double) wireBytes / rawBytes;
+        }
+
+        //按原始数据计算的速度
+        public double mbPerSecond() {
+            return rawBytes / 1024.0 / 1024.0 / Math.max(nanos / 1e9, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("原始%d字节，传输%d字节，压缩率%.1f%%，%d块中%d块原样发送，%.1f MB/s",
+                    rawBytes, wireBytes, ratio() * 100, blocks, storedBlocks, mbPerSecond());
+        }
+    }
+
+    /**
+     * 把文件的[0, length)压缩后发送到socket
+     */
+    static Stats send(FileChannel file, WritableByteChannel socket, long length) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = new Stats();
+        Codec codec = acquire();
+        try {
+            int streak = 0, skip = 0;
+            for (long position = 0; position < length; ) {
+                ByteBuffer raw = codec.raw;
+                raw.clear().limit((int) Math.min(BLOCK, length - position));
+                while (raw.hasRemaining()) {
+                    if (file.read(raw, position + raw.position()) < 0) throw new IOException("文件在发送过程中变短了");
+                }
+                raw.flip();
+                int rawLength = raw.remaining();
+                ByteBuffer payload = raw;
+                byte type = STORED;
+                if (skip > 0) {
+                    skip--;
+                } else if (deflate(codec, raw)) {
+                    payload = codec.packed;
+                    type = DEFLATED;
+                    streak = 0;
+                } else if (++streak >= STORED_STREAK) {
+                    skip = SKIP_BLOCKS;
+                    streak = 0;
+                }
+                if (type == STORED) {
+                    raw.rewind();
+                    stats.storedBlocks++;
+                }
+                ByteBuffer head = codec.head;
+                head.clear();
+                head.put(type).putInt(rawLength).putInt(payload.remaining()).flip();
+                stats.wireBytes += head.remaining() + payload.remaining();
+                FileTransferProtocol.writeFully(socket, head);
+                FileTransferProtocol.writeFully(socket, payload);
+                position += rawLength;
+                stats.rawBytes += rawLength;
+                stats.blocks++;
+            }
+        } finally {
+            release(codec);
+        }
+        stats.nanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    //压缩到codec.packed，压缩后没有变小返回false
+    private static boolean deflate(Codec codec, ByteBuffer raw) {
+        Deflater deflater = codec.deflater;
+        ByteBuffer packed = codec.packed;
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        packed.clear().limit(raw.remaining() - 1);
+        while (!deflater.finished() && packed.hasRemaining()) deflater.deflate(packed);
+        if (!deflater.finished()) return false;
+        packed.flip();
+        return true;
+    }
+
+    /**
+     * 从socket接收length字节的原始数据（压缩格式），写入文件
+     */
+    static Stats receive(ReadableByteChannel socket, FileChannel file, long length) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = new Stats();
+        Codec codec = acquire();
+        try {
+            for (long position = 0; position < length; ) {
+                ByteBuffer head = codec.head;
+                head.clear();
+                FileTransferProtocol.readFully(socket, head);
+                byte type = head.get();
+                int rawLength = head.getInt();
+                int payloadLength = head.getInt();
+                if (rawLength <= 0 || rawLength > BLOCK || payloadLength <= 0 || payloadLength > BLOCK
+                        || position + rawLength > length)
+                    throw new IOException("非法的压缩块：原始长度" + rawLength + "，数据长度" + payloadLength);
+                ByteBuffer raw = codec.raw;
+                raw.clear().limit(rawLength);
+                if (type == STORED) {
+                    if (payloadLength != rawLength) throw new IOException("原样发送的块长度不一致");
+                    FileTransferProtocol.readFully(socket, raw);
+                    stats.storedBlocks++;
+                } else if (type == DEFLATED) {
+                    ByteBuffer packed = codec.packed;
+                    packed.clear().limit(payloadLength);
+                    FileTransferProtocol.readFully(socket, packed);
+                    inflate(codec, packed, raw);
+                } else {
+                    throw new IOException("未知的块类型：" + type);
+                }
+                while (raw.hasRemaining()) file.write(raw, position + raw.position());
+                position += rawLength;
+                stats.rawBytes += rawLength;
+                stats.wireBytes += 9 + payloadLength;
+                stats.blocks++;
+            }
+        } finally {
+            release(codec);
+        }
+        stats.nanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    private static void inflate(Codec codec, ByteBuffer packed, ByteBuffer raw) throws IOException {
+        Inflater inflater = codec.inflater;
+        inflater.reset();
+        inflater.setInput(packed);
+        try {
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据损坏", e);
+        }
+        if (raw.hasRemaining() || !inflater.finished()) throw new IOException("压缩块解压后的长度不对");
+        raw.flip();
+    }
+}
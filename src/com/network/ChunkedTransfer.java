@@ -0,0 +1,400 @@
+package com.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+//分块传输：大文件切成固定大小的块，用多个连接并行发送，服务端按偏移量写到文件的对应位置
+//每块都带CRC32C校验，校验失败的块会重发；服务端用清单文件记录已经收到的块，
+//传输中断后再次发送时先查询清单，只补发缺少的块
+//
+//协议（在FileTransferProtocol的协议头之后）：
+//  MODE_QUERY：客户端发 int 块大小；服务端回 int 块数 + 已收到的块的位图（(块数+7)/8字节）
+//  MODE_CHUNKS：客户端发 int 块大小，然后若干个块：
+//      long 偏移量 + int 长度 + int CRC32C + 数据，服务端每块回复 byte 状态 + long 偏移量
+//    长度为-1表示这个连接发完了，服务端回复 byte 状态（整个文件是否已经完整）+ long 文件长度
+//服务端在收齐之前把数据写在 文件名.part 中，清单为 文件名.manifest，收齐后改名为正式文件
+//服务端每收到syncEvery块才刷一次盘并更新清单（先刷数据再写清单），服务端崩溃后最多重收这么多块
+public final class ChunkedTransfer {
+
+    static final byte CHUNK_OK = 0, CHUNK_BAD = 1, FILE_INCOMPLETE = 2;
+    static final int MAX_CHUNK = 64 * 1024 * 1024;
+    static final int MAX_CHUNKS = 1 << 24;                  //块数上限，清单位图最多2MB
+    private static final int MANIFEST_MAGIC = 0x4d414e49;   //"MANI"
+
+    private ChunkedTransfer() {
+    }
+
+    //按块大小切分后的块数，长度非法或块数超过上限时返回-1
+    static int chunkCount(long length, int chunkSize) {
+        if (length < 0) return -1;
+        long chunks = length / chunkSize + (length % chunkSize == 0 ? 0 : 1);
+        return chunks > MAX_CHUNKS ? -1 : (int) chunks;
+    }
+
+    //================= 服务端 =================
+
+    static final class Receiver {
+        private final Path dir;
+        //同一个文件可能同时有多个连接在写，共用一个PartFile
+        private final Map<String, PartFile> open = new HashMap<>();
+        private volatile int syncEvery = 64;
+
+        Receiver(Path dir) {
+            this.dir = dir;
+        }
+
+        //每收到多少块刷一次盘并更新清单，1表示每块都刷（最慢，崩溃后不用重收）
+        void setSyncEvery(int chunks) {
+            if (chunks <= 0) throw new IllegalArgumentException("chunks必须大于0");
+            this.syncEvery = chunks;
+        }
+
+        void query(SocketChannel socket, FileTransferProtocol.Header header) throws IOException {
+            int chunkSize = readChunkSize(socket);
+            PartFile part = acquire(header, chunkSize);
+            try {
+                byte[] bits;
+                int chunks;
+                synchronized (part) {
+                    chunks = part.chunks;
+                    bits = part.done.toByteArray();
+                }
+                ByteBuffer reply = ByteBuffer.allocate(4 + (chunks + 7) / 8);
+                reply.putInt(chunks).put(bits);
+                reply.position(reply.capacity()).flip();
+                FileTransferProtocol.writeFully(socket, reply);
+            } finally {
+                release(part);
+            }
+        }
+
+        void receive(SocketChannel socket, FileTransferProtocol.Header header) throws IOException {
+            int chunkSize = readChunkSize(socket);
+            PartFile part = acquire(header, chunkSize);
+            ByteBuffer frame = ByteBuffer.allocate(16);
+            ByteBuffer ack = ByteBuffer.allocate(9);
+            ByteBuffer data = ByteBuffer.allocateDirect(chunkSize);
+            CRC32C crc = new CRC32C();
+            try {
+                while (true) {
+                    frame.clear();
+                    FileTransferProtocol.readFully(socket, frame);
+                    long offset = frame.getLong();
+                    int length = frame.getInt();
+                    int expected = frame.getInt();
+                    if (length < 0) {
+                        boolean complete = part.finishIfComplete(dir);
+                        ack.clear();
+                        ack.put(complete ? FileTransferProtocol.OK : FILE_INCOMPLETE).putLong(part.length).flip();
+                        FileTransferProtocol.writeFully(socket, ack);
+                        return;
+                    }
+                    if (offset < 0 || offset % chunkSize != 0 || length > chunkSize || offset + length > part.length)
+                        throw new IOException("非法的块：offset=" + offset + " length=" + length);
+                    data.clear().limit(length);
+                    FileTransferProtocol.readFully(socket, data);
+                    crc.reset();
+                    crc.update(data);
+                    data.flip();
+                    byte status = CHUNK_BAD;
+                    if ((int) crc.getValue() == expected) {
+                        //按偏移量写入，多个连接写不同位置互不影响
+                        while (data.hasRemaining()) part.channel.write(data, offset + data.position());
+                        part.markDone((int) (offset / chunkSize), syncEvery);
+                        status = CHUNK_OK;
+                    }
+                    ack.clear();
+                    ack.put(status).putLong(offset).flip();
+                    FileTransferProtocol.writeFully(socket, ack);
+                }
+            } finally {
+                release(part);
+            }
+        }
+
+        private int readChunkSize(SocketChannel socket) throws IOException {
+            int chunkSize = FileTransferProtocol.readFully(socket, ByteBuffer.allocate(4)).getInt();
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK) throw new IOException("非法的块大小：" + chunkSize);
+            return chunkSize;
+        }
+
+        private PartFile acquire(FileTransferProtocol.Header header, int chunkSize) throws IOException {
+            Path target = FileTransferProtocol.resolve(dir, header.name);
+            String key = target.getFileName().toString();
+            synchronized (open) {
+                PartFile part = open.get(key);
+                if (part != null && (part.length != header.length || part.chunkSize != chunkSize))
+                    throw new IOException(key + "正在以不同的长度/块大小传输");
+                if (part == null) {
+                    if (chunkCount(header.length, chunkSize) < 0)
+                        throw new IOException("非法的文件长度：" + header.length + "（块大小" + chunkSize + "）");
+                    part = new PartFile(key, target, header.length, chunkSize);
+                    open.put(key, part);
+                }
+                part.users++;
+                return part;
+            }
+        }
+
+        private void release(PartFile part) throws IOException {
+            synchronized (open) {
+                if (--part.users > 0) return;
+                open.remove(part.key);
+            }
+            part.close();
+        }
+    }
+
+    //正在接收的文件：.part数据文件 + .manifest清单
+    private static final class PartFile {
+        final String key;
+        final Path target, partPath, manifestPath;
+        final long length;
+        final int chunkSize, chunks;
+        final FileChannel channel;
+        final FileChannel manifest;
+        final BitSet done;
+        final int bitmapOffset = 4 + 8 + 4;
+        int users;
+        int unsynced;       //已经写入、还没有刷盘记进清单的块数
+        boolean finished;
+
+        PartFile(String key, Path target, long length, int chunkSize) throws IOException {
+            this.key = key;
+            this.target = target;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.chunks = chunkCount(length, chunkSize);
+            this.partPath = target.resolveSibling(key + ".part");
+            this.manifestPath = target.resolveSibling(key + ".manifest");
+            this.channel = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.manifest = FileChannel.open(manifestPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.done = loadManifest();
+        }
+
+        //清单格式：int 魔数 + long 文件长度 + int 块大小 + 位图；长度或块大小变了就从头开始
+        private BitSet loadManifest() throws IOException {
+            int bitmapBytes = (chunks + 7) / 8;
+            ByteBuffer buffer = ByteBuffer.allocate(bitmapOffset + bitmapBytes);
+            int n = 0;
+            while (buffer.hasRemaining()) {
+                int r = manifest.read(buffer, n);
+                if (r < 0) break;
+                n += r;
+            }
+            buffer.flip();
+            if (n == buffer.capacity() && buffer.getInt() == MANIFEST_MAGIC && buffer.getLong() == length
+                    && buffer.getInt() == chunkSize) {
+                byte[] bits = new byte[bitmapBytes];
+                buffer.get(bits);
+                return BitSet.valueOf(bits);
+            }
+            //重新开始
+            channel.truncate(0);
+            manifest.truncate(0);
+            ByteBuffer head = ByteBuffer.allocate(bitmapOffset + bitmapBytes);
+            head.putInt(MANIFEST_MAGIC).putLong(length).putInt(chunkSize);
+            head.position(head.capacity()).flip();
+            manifest.write(head, 0);
+            return new BitSet(chunks);
+        }
+
+        //记下收到的块，攒够syncEvery块时刷盘并更新清单
+        void markDone(int index, int syncEvery) throws IOException {
+            byte[] bits;
+            synchronized (this) {
+                done.set(index);
+                if (++unsynced < syncEvery) return;
+                unsynced = 0;
+                bits = done.toByteArray();
+            }
+            sync(bits);
+        }
+
+        //先把位图里这些块的数据刷到磁盘，再写清单，这样清单里记录的块一定是完整的
+        //几个连接同时刷时旧的位图可能覆盖新的，只会让清单少记几块（续传时多发），不会多记
+        private void sync(byte[] bits) throws IOException {
+            try {
+                channel.force(false);
+                manifest.write(ByteBuffer.wrap(bits), bitmapOffset);
+            } catch (ClosedChannelException e) {
+                //别的连接刚好收齐了文件，已经改名并关闭了通道，不需要再记清单
+                synchronized (this) {
+                    if (finished) return;
+                }
+                throw e;
+            }
+        }
+
+        //全部块都收到了：改名为正式文件并删除清单
+        synchronized boolean finishIfComplete(Path dir) throws IOException {
+            if (finished) return true;
+            if (done.cardinality() < chunks) return false;
+            channel.truncate(length);
+            channel.force(true);
+            //先关闭再改名，Windows上打开着的文件不能移动
+            channel.close();
+            Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            manifest.close();
+            Files.deleteIfExists(manifestPath);
+            finished = true;
+            return true;
+        }
+
+        //最后一个连接结束时调用，没收齐的话把还没记进清单的块刷盘记下来，下次续传不用重发
+        void close() throws IOException {
+            try {
+                byte[] bits = null;
+                synchronized (this) {
+                    if (!finished && unsynced > 0) {
+                        unsynced = 0;
+                        bits = done.toByteArray();
+                    }
+                }
+                if (bits != null) sync(bits);
+            } finally {
+                channel.close();
+                if (manifest.isOpen()) manifest.close();
+            }
+        }
+    }
+
+    //================= 客户端 =================
+
+    public static final class Result {
+        public int chunks;          //总块数
+        public int skipped;         //服务端已经有的块（续传时跳过）
+        public final AtomicInteger sent = new AtomicInteger();
+        public final AtomicInteger retried = new AtomicInteger();
+        public final AtomicLong bytes = new AtomicLong();
+        public long nanos;
+        public volatile boolean complete;
+
+        @Override
+        public String toString() {
+            return String.format("共%d块，跳过%d块，发送%d块，重发%d次，%.1f MB/s", chunks, skipped, sent.get(),
+                    retried.get(), bytes.get() / 1024.0 / 1024.0 / Math.max(nanos / 1e9, 1e-9));
+        }
+    }
+
+    /**
+     * 分块并行发送文件，只发送服务端还没有的块
+     * @param chunkSize 块大小
+     * @param parallelism 并行的连接数
+     */
+    public static Result send(String host, int port, Path file, String name, int chunkSize, int parallelism) throws IOException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK) throw new IllegalArgumentException("块大小必须在1到" + MAX_CHUNK + "之间");
+        long start = System.nanoTime();
+        Result result = new Result();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (chunkCount(length, chunkSize) < 0)
+                throw new IllegalArgumentException("文件太大，按" + chunkSize + "字节分块超过" + MAX_CHUNKS + "块");
+            FileTransferProtocol.Header header = new FileTransferProtocol.Header(FileTransferProtocol.MODE_QUERY, name, length);
+            BitSet have = query(host, port, header, chunkSize);
+            result.chunks = chunkCount(length, chunkSize);
+            ConcurrentLinkedQueue<Integer> missing = new ConcurrentLinkedQueue<>();
+            for (int i = 0; i < result.chunks; i++) {
+                if (have.get(i)) result.skipped++;
+                else missing.add(i);
+            }
+            FileTransferProtocol.Header chunksHeader = new FileTransferProtocol.Header(FileTransferProtocol.MODE_CHUNKS, name, length);
+            int workers = Math.max(1, Math.min(parallelism, missing.size()));
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            try {
+                Future<?>[] futures = new Future<?>[workers];
+                for (int i = 0; i < workers; i++) {
+                    futures[i] = pool.submit(() -> {
+                        sendChunks(host, port, channel, chunksHeader, chunkSize, missing, result);
+                        return null;
+                    });
+                }
+                for (Future<?> f : futures) f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("发送被中断", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            //每个连接发完都会让服务端检查一次，最后一个连接结束时文件应该已经收齐
+            if (!result.complete) throw new IOException("服务端没有收齐所有的块");
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static BitSet query(String host, int port, FileTransferProtocol.Header header, int chunkSize) throws IOException {
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port))) {
+            FileTransferProtocol.writeHeader(socket, header);
+            ByteBuffer size = ByteBuffer.allocate(4);
+            size.putInt(chunkSize).flip();
+            FileTransferProtocol.writeFully(socket, size);
+            int chunks = FileTransferProtocol.readFully(socket, ByteBuffer.allocate(4)).getInt();
+            if (chunks < 0 || chunks > MAX_CHUNKS) throw new IOException("服务端返回了非法的块数：" + chunks);
+            ByteBuffer bits = FileTransferProtocol.readFully(socket, ByteBuffer.allocate((chunks + 7) / 8));
+            return BitSet.valueOf(bits);
+        }
+    }
+
+    private static void sendChunks(String host, int port, FileChannel file, FileTransferProtocol.Header header,
+                                   int chunkSize, ConcurrentLinkedQueue<Integer> missing, Result result) throws IOException {
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port))) {
+            FileTransferProtocol.writeHeader(socket, header);
+            ByteBuffer frame = ByteBuffer.allocate(16);
+            frame.putInt(chunkSize).flip();
+            FileTransferProtocol.writeFully(socket, frame);
+            ByteBuffer data = ByteBuffer.allocateDirect(chunkSize);
+            ByteBuffer ack = ByteBuffer.allocate(9);
+            CRC32C crc = new CRC32C();
+            Integer index;
+            while ((index = missing.poll()) != null) {
+                long offset = (long) index * chunkSize;
+                int length = (int) Math.min(chunkSize, header.length - offset);
+                data.clear().limit(length);
+                while (data.hasRemaining()) {
+                    if (file.read(data, offset + data.position()) < 0) throw new IOException("文件在发送过程中变短了");
+                }
+                data.flip();
+                crc.reset();
+                crc.update(data);
+                for (int attempt = 0; ; attempt++) {
+                    data.rewind();
+                    frame.clear();
+                    frame.putLong(offset).putInt(length).putInt((int) crc.getValue()).flip();
+                    FileTransferProtocol.writeFully(socket, frame);
+                    FileTransferProtocol.writeFully(socket, data);
+                    ack.clear();
+                    FileTransferProtocol.readFully(socket, ack);
+                    if (ack.get() == CHUNK_OK) break;
+                    if (attempt >= 3) throw new IOException("第" + index + "块多次校验失败");
+                    result.retried.incrementAndGet();
+                }
+                result.sent.incrementAndGet();
+                result.bytes.addAndGet(length);
+            }
+            frame.clear();
+            frame.putLong(0).putInt(-1).putInt(0).flip();
+            FileTransferProtocol.writeFully(socket, frame);
+            ack.clear();
+            FileTransferProtocol.readFully(socket, ack);
+            if (ack.get() == FileTransferProtocol.OK) result.complete = true;
+        }
+    }
+}
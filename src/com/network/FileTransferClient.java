@@ -0,0 +1,74 @@
+package com.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+//文件发送客户端（File_Clinet的升级版）
+//通过FileChannel.transferTo发送，Linux上会使用sendfile，文件内容不需要先读到Java堆里再写出去
+//带宽不够时可以请求压缩传输（sendCompressed），服务端同意后按块压缩发送
+public class FileTransferClient {
+
+    /**
+     * 发送文件
+     * @param host 服务端地址
+     * @param port 服务端端口
+     * @param file 要发送的文件
+     * @param name 保存在服务端的文件名
+     * @return 服务端确认收到的字节数
+     */
+    public static long send(String host, int port, Path file, String name) throws IOException {
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port));
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            FileTransferProtocol.writeHeader(socket, new FileTransferProtocol.Header((byte) 0, name, length));
+            FileTransferProtocol.send(channel, socket, 0, length);
+            long received = FileTransferProtocol.readReply(socket);
+            if (received != length) throw new IOException("服务端只收到" + received + "字节，应为" + length);
+            return received;
+        }
+    }
+
+    /**
+     * 请求压缩发送文件，服务端不同意时退回普通发送
+     * @return 压缩统计（压缩率、速度）
+     */
+    public static BlockCompression.Stats sendCompressed(String host, int port, Path file, String name) throws IOException {
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port));
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            FileTransferProtocol.writeHeader(socket, new FileTransferProtocol.Header(FileTransferProtocol.FLAG_COMPRESS, name, length));
+            boolean accepted = FileTransferProtocol.readFully(socket, ByteBuffer.allocate(1)).get() == 1;
+            BlockCompression.Stats stats;
+            if (accepted) {
+                stats = BlockCompression.send(channel, socket, length);
+            } else {
+                long start = System.nanoTime();
+                FileTransferProtocol.send(channel, socket, 0, length);
+                stats = new BlockCompression.Stats();
+                stats.rawBytes = stats.wireBytes = length;
+                stats.nanos = System.nanoTime() - start;
+            }
+            long received = FileTransferProtocol.readReply(socket);
+            if (received != length) throw new IOException("服务端只收到" + received + "字节，应为" + length);
+            return stats;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            long start = System.nanoTime();
+            long bytes = send("localhost", 8080, Paths.get("README.md"), "xyc.md");
+            System.out.printf("发送完成：%d 字节，耗时 %.1f ms%n", bytes, (System.nanoTime() - start) / 1e6);
+            System.out.println("压缩发送：" + sendCompressed("localhost", 8080, Paths.get("README.md"), "xyc.md"));
+        } catch (IOException e) {
+            System.out.println("服务端连接失败！");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+//文件传输的协议头，客户端和服务端共用
+//File_Clinet直接把文件内容写进socket，服务端只能知道什么时候结束，不知道文件名和大小。
+//现在每次传输前先发一个小的协议头：
+//  int  魔数 'XFER'
+//  byte 版本
+//  byte 标志位（传输模式）
+//  short 文件名长度 + UTF-8文件名
+//  long 文件长度
+//服务端收完后回复：byte 状态（0成功） + long 实际收到的字节数
+//分块模式（MODE_CHUNKS/MODE_QUERY）的后续内容见ChunkedTransfer
+//整个文件发送时如果带了FLAG_COMPRESS，服务端先回复 byte 是否同意压缩，同意的话数据按BlockCompression的块格式发送
+final class FileTransferProtocol {
+
+    static final int MAGIC = 0x58464552;   //"XFER"
+    static final byte VERSION = 1;
+    static final byte OK = 0, ERROR = 1;
+
+    //标志位的低4位表示传输模式
+    static final byte MODE_MASK = 0x0f;
+    static final byte MODE_WHOLE = 0;    //整个文件一次发完
+    static final byte MODE_CHUNKS = 1;   //分块发送，每块带校验
+    static final byte MODE_QUERY = 2;    //查询服务端已经收到了哪些块
+    //高4位是选项
+    static final byte FLAG_COMPRESS = 0x10;  //请求压缩传输
+
+    private FileTransferProtocol() {
+    }
+
+    static final class Header {
+        final byte flags;
+        final String name;
+        final long length;
+
+        Header(byte flags, String name, long length) {
+            this.flags = flags;
+            this.name = name;
+            this.length = length;
+        }
+    }
+
+    static void writeHeader(WritableByteChannel channel, Header header) throws IOException {
+        byte[] name = header.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 1 + 2 + name.length + 8);
+        buffer.putInt(MAGIC).put(VERSION).put(header.flags).putShort((short) name.length).put(name).putLong(header.length);
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    static Header readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer fixed = readFully(channel, ByteBuffer.allocate(4 + 1 + 1 + 2));
+        if (fixed.getInt() != MAGIC) throw new IOException("不是文件传输协议");
+        byte version = fixed.get();
+        if (version != VERSION) throw new IOException("不支持的协议版本：" + version);
+        byte flags = fixed.get();
+        int nameLength = fixed.getShort() & 0xffff;
+        ByteBuffer rest = readFully(channel, ByteBuffer.allocate(nameLength + 8));
+        byte[] name = new byte[nameLength];
+        rest.get(name);
+        return new Header(flags, new String(name, StandardCharsets.UTF_8), rest.getLong());
+    }
+
+    static void writeReply(WritableByteChannel channel, byte status, long received) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.put(status).putLong(received).flip();
+        writeFully(channel, buffer);
+    }
+
+    static long readReply(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = readFully(channel, ByteBuffer.allocate(9));
+        byte status = buffer.get();
+        long received = buffer.getLong();
+        if (status != OK) throw new IOException("服务端接收失败");
+        return received;
+    }
+
+    //只保留文件名部分，防止客户端传 ../../xxx 写到目录外面
+    static Path resolve(Path dir, String name) throws IOException {
+        Path fileName = Paths.get(name).getFileName();
+        if (fileName == null || fileName.toString().isEmpty() || fileName.toString().equals(".."))
+            throw new IOException("非法的文件名：" + name);
+        return dir.resolve(fileName.toString());
+    }
+
+    //从socket直接写入文件的指定位置，由内核完成拷贝，数据不经过Java堆，返回实际写入的字节数
+    static long receive(ReadableByteChannel socket, FileChannel file, long position, long length) throws IOException {
+        long done = 0;
+        ByteBuffer probe = null;
+        while (done < length) {
+            long n = file.transferFrom(socket, position + done, length - done);
+            if (n > 0) {
+                done += n;
+                continue;
+            }
+            //transferFrom返回0时可能是对方已经关闭了连接，读一个字节确认一下
+            if (probe == null) probe = ByteBuffer.allocate(1);
+            probe.clear();
+            if (socket.read(probe) < 0) throw new EOFException("连接已断开，还差" + (length - done) + "字节");
+            probe.flip();
+            done += file.write(probe, position + done);
+        }
+        return done;
+    }
+
+    //把文件的指定范围直接发送到socket（transferTo在Linux上使用sendfile）
+    static void send(FileChannel file, WritableByteChannel socket, long position, long length) throws IOException {
+        long done = 0;
+        while (done < length) {
+            done += file.transferTo(position + done, length - done, socket);
+        }
+    }
+
+    static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("连接已断开");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+}
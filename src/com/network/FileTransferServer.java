@@ -0,0 +1,138 @@
+package com.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//文件接收服务端（File_Server的升级版）
+//1. 不再只接收一个客户端：主线程只负责accept，每个连接交给线程池处理，可以同时接收多个文件
+//2. 不再用1KB的byte[]中转：通过FileChannel.transferFrom把socket的数据直接写到磁盘
+//3. 先读协议头，知道文件名和长度，收完后给客户端回复，客户端可以确认是否完整
+//4. 客户端请求压缩时，按块压缩传输（BlockCompression），适合日志、文本这类容易压缩的文件
+//5. 也支持分块模式（ChunkedTransfer）：多个连接并行发送，每块校验，断了可以续传
+public class FileTransferServer implements AutoCloseable {
+
+    private final ServerSocketChannel server;
+    private final Path dir;
+    private final ExecutorService workers;
+    private final ChunkedTransfer.Receiver chunked;
+    private volatile boolean running = true;
+    private volatile boolean compression = true;
+
+    public FileTransferServer(int port, Path dir, int threads) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.chunked = new ChunkedTransfer.Receiver(dir);
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "file-receiver");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    //阻塞接受连接，直到close()
+    public void serve() {
+        while (running) {
+            try {
+                SocketChannel socket = server.accept();
+                workers.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    protected void handle(SocketChannel socket) {
+        try (SocketChannel s = socket) {
+            //失败时要在连接关闭之前回复ERROR，客户端才能和连接断开区分开
+            Path partial = null;
+            try {
+                FileTransferProtocol.Header header = FileTransferProtocol.readHeader(s);
+                switch (header.flags & FileTransferProtocol.MODE_MASK) {
+                    case FileTransferProtocol.MODE_CHUNKS:
+                        chunked.receive(s, header);
+                        return;
+                    case FileTransferProtocol.MODE_QUERY:
+                        chunked.query(s, header);
+                        return;
+                    default:
+                        break;
+                }
+                Path target = FileTransferProtocol.resolve(dir, header.name);
+                boolean compressed = (header.flags & FileTransferProtocol.FLAG_COMPRESS) != 0;
+                if (compressed) {
+                    //协商：告诉客户端是否按压缩格式发送
+                    compressed = compression;
+                    FileTransferProtocol.writeFully(s, ByteBuffer.wrap(new byte[]{(byte) (compressed ? 1 : 0)}));
+                }
+                long start = System.nanoTime();
+                BlockCompression.Stats stats = null;
+                long received;
+                try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    //原来的内容已经被截断，收不完整就删掉，不留下半个文件
+                    partial = target;
+                    if (compressed) {
+                        stats = BlockCompression.receive(s, file, header.length);
+                        received = stats.rawBytes;
+                    } else {
+                        received = FileTransferProtocol.receive(s, file, 0, header.length);
+                    }
+                }
+                partial = null;
+                FileTransferProtocol.writeReply(s, FileTransferProtocol.OK, received);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("已接收 %s：%d 字节，%.1f MB/s%s%n", target, received,
+                        received / 1024.0 / 1024.0 / Math.max(seconds, 1e-9), stats == null ? "" : "（" + stats + "）");
+            } catch (IOException e) {
+                System.out.println("接收失败：" + e.getMessage());
+                if (partial != null) Files.deleteIfExists(partial);
+                try {
+                    FileTransferProtocol.writeReply(s, FileTransferProtocol.ERROR, 0);
+                } catch (IOException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("关闭连接失败：" + e.getMessage());
+        }
+    }
+
+    //是否同意客户端的压缩请求，CPU比带宽紧张时可以关掉
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    //分块模式下每收到多少块刷一次盘并更新清单（默认64），1表示每块都刷
+    public void setChunkSyncEvery(int chunks) {
+        chunked.setSyncEvery(chunks);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        workers.shutdown();
+    }
+
+    public static void main(String[] args) throws IOException {
+        try (FileTransferServer server = new FileTransferServer(8080, Paths.get("net"), 8)) {
+            System.out.println("正在等待客户连接。。。");
+            server.serve();
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package com.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//基于Selector的HTTP/1.1服务器
+//Http_xyc只能接收一个连接，用reader.ready()判断请求是否读完（数据还没到就会漏掉），回复后程序就退出了。
+//这里的做法：
+// - 一个线程负责accept，几个事件循环线程各自用一个Selector管理很多连接，都是非阻塞读写
+// - 每个连接有一个复用的读缓冲区，数据到多少解析多少，请求不完整就等下一次可读
+// - 支持keep-alive和管道化（一次读到多个请求依次处理，响应严格按请求顺序返回）
+// - 响应使用Content-Length，或者分块传输（chunked）
+// - 会阻塞的处理器（比如查数据库）放到工作线程池执行，完成后再交回事件循环写出；
+//   在工作线程里调用Response.chunk()时每一块立即交给事件循环写出，客户端读得慢时工作线程等待（背压）
+// - 请求头迟迟发不完、或者keep-alive连接长时间没有请求时关闭连接
+public class HttpServer implements AutoCloseable {
+
+    private static final int MAX_REQUEST = 64 * 1024;       //请求头+请求体的最大长度
+    private static final int MAX_PENDING_OUT = 1024 * 1024; //写不出去的数据超过这么多就暂停读取、暂停分块输出（背压）
+
+    //处理一个请求，通过Response设置返回内容
+    public interface Handler {
+        void handle(Request request, Response response) throws Exception;
+    }
+
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final ExecutorService workers;
+    private final Map<String, Route> exact = new HashMap<>();
+    private final List<Map.Entry<String, Route>> prefixes = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean running = true;
+    private long headerTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(60);
+
+    private static final class Route {
+        final Handler handler;
+        final boolean blocking;
+
+        Route(Handler handler, boolean blocking) {
+            this.handler = handler;
+            this.blocking = blocking;
+        }
+    }
+
+    /**
+     * @param port 端口
+     * @param loopThreads 事件循环线程数，一般为CPU核数
+     * @param workerThreads 执行阻塞处理器的线程数，一般和连接池大小相同
+     */
+    public HttpServer(int port, int loopThreads, int workerThreads) throws IOException {
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        this.loops = new Loop[loopThreads];
+        for (int i = 0; i < loopThreads; i++) loops[i] = new Loop(i);
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "http-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //直接在事件循环里执行，处理器不能阻塞
+    public HttpServer get(String path, Handler handler) {
+        exact.put(path, new Route(handler, false));
+        return this;
+    }
+
+    //在工作线程中执行，可以查询数据库
+    public HttpServer getBlocking(String path, Handler handler) {
+        exact.put(path, new Route(handler, true));
+        return this;
+    }
+
+    //按前缀匹配，例如 /students/ 匹配 /students/1001
+    public HttpServer getBlockingPrefix(String prefix, Handler handler) {
+        prefixes.add(new AbstractMap.SimpleEntry<>(prefix, new Route(handler, true)));
+        return this;
+    }
+
+    /**
+     * 设置超时，需要在start()之前调用
+     * @param headerMillis 一个请求从收到第一个字节起多久内必须收完（请求头和请求体），默认10秒
+     * @param idleMillis 没有正在处理的请求、也没有任何读写时，连接保留多久，默认60秒
+     */
+    public HttpServer timeouts(long headerMillis, long idleMillis) {
+        this.headerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(headerMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        return this;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public void start() {
+        for (Loop loop : loops) {
+            Thread t = new Thread(loop, "http-loop-" + loop.index);
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread acceptor = new Thread(this::acceptLoop, "http-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel socket = server.accept();
+                socket.configureBlocking(false);
+                socket.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                loops[Math.floorMod(next.getAndIncrement(), loops.length)].register(socket);
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (Loop loop : loops) loop.selector.wakeup();
+        workers.shutdown();
+    }
+
+    private Route route(String path) {
+        Route route = exact.get(path);
+        if (route != null) return route;
+        for (Map.Entry<String, Route> e : prefixes) {
+            if (path.startsWith(e.getKey())) return e.getValue();
+        }
+        return null;
+    }
+
+    //================= 请求和响应 =================
+
+    public static final class Request {
+        public final String method;
+        public final String path;
+        public final String query;
+        public final String version;
+        public final Map<String, String> headers;
+        public final byte[] body;
+
+        Request(String method, String target, String version, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            int q = target.indexOf('?');
+            this.path = q < 0 ? target : target.substring(0, q);
+            this.query = q < 0 ? null : target.substring(q + 1);
+            this.version = version;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        //请求头的名字不区分大小写，解析时已经统一转成小写
+        public String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        boolean keepAlive() {
+            String connection = header("connection");
+            if ("HTTP/1.0".equals(version)) return connection != null && connection.equalsIgnoreCase("keep-alive");
+            return connection == null || !connection.equalsIgnoreCase("close");
+        }
+    }
+
+    public static final class Response {
+        private int status = 200;
+        private String contentType = "text/plain; charset=utf-8";
+        private byte[] body = new byte[0];
+        private List<byte[]> chunks;
+        //工作线程中的响应：分块直接交给sink写出，不在内存里攒着
+        private Sink sink;
+        private boolean keepAlive, head, started;
+
+        public Response status(int status) {
+            this.status = status;
+            return this;
+        }
+
+        public Response contentType(String contentType) {
+            this.contentType = contentType;
+            return this;
+        }
+
+        public Response body(String text) {
+            this.body = text.getBytes(StandardCharsets.UTF_8);
+            return this;
+        }
+
+        public Response body(byte[] bytes) {
+            this.body = bytes;
+            return this;
+        }
+
+        /**
+         * 添加一个分块，使用后响应改为Transfer-Encoding: chunked
+         * 阻塞处理器（getBlocking）里调用时立即发送：第一次调用先发出响应头（之后不能再改状态码），
+         * 客户端读得慢时在这里等待；客户端已经断开时抛出IOException，处理器应该停止生成数据
+         */
+        public Response chunk(byte[] bytes) throws IOException {
+            if (sink == null) {
+                if (chunks == null) chunks = new ArrayList<>();
+                if (bytes.length > 0) chunks.add(bytes);
+                return this;
+            }
+            if (!started) {
+                started = true;
+                sink.send(header(keepAlive, true, 0));
+            }
+            if (bytes.length > 0 && !head) {
+                ByteBuffer out = ByteBuffer.allocate(Integer.toHexString(bytes.length).length() + 4 + bytes.length);
+                out.put(Integer.toHexString(bytes.length).getBytes(StandardCharsets.ISO_8859_1)).put(CRLF);
+                out.put(bytes).put(CRLF);
+                sink.send(out.array());
+            }
+            return this;
+        }
+
+        private byte[] header(boolean keepAlive, boolean chunked, int length) {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+            if (chunked) sb.append("Transfer-Encoding: chunked\r\n");
+            else sb.append("Content-Length: ").append(length).append("\r\n");
+            if (!keepAlive) sb.append("Connection: close\r\n");
+            sb.append("\r\n");
+            return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        byte[] encode(boolean keepAlive, boolean head) {
+            byte[] headBytes = header(keepAlive, chunks != null, body.length);
+            if (head) return headBytes;
+            int size = headBytes.length;
+            if (chunks == null) {
+                size += body.length;
+            } else {
+                for (byte[] c : chunks) size += Integer.toHexString(c.length).length() + 4 + c.length;
+                size += 5;
+            }
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.put(headBytes);
+            if (chunks == null) {
+                out.put(body);
+            } else {
+                for (byte[] c : chunks) {
+                    out.put(Integer.toHexString(c.length).getBytes(StandardCharsets.ISO_8859_1)).put(CRLF);
+                    out.put(c).put(CRLF);
+                }
+                out.put(LAST_CHUNK);
+            }
+            return out.array();
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 200: return "OK";
+                case 400: return "Bad Request";
+                case 404: return "Not Found";
+                case 405: return "Method Not Allowed";
+                case 413: return "Payload Too Large";
+                case 500: return "Internal Server Error";
+                case 501: return "Not Implemented";
+                default: return "Unknown";
+            }
+        }
+    }
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    //工作线程把响应的一部分交给事件循环
+    private interface Sink {
+        void send(byte[] bytes) throws IOException;
+    }
+
+    //================= 事件循环 =================
+
+    //一个请求对应的响应位置，保证管道化时按请求顺序返回
+    //分块输出时数据分多次到达parts，done之后才轮到下一个请求的响应
+    private static final class Slot {
+        final ArrayDeque<byte[]> parts = new ArrayDeque<>();
+        boolean done;
+        boolean close;
+    }
+
+    private final class Conn {
+        final SocketChannel channel;
+        final Loop loop;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+        final ArrayDeque<Slot> slots = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        //已经交给事件循环、还没写到socket的字节数，工作线程也会读写
+        final AtomicLong unsent = new AtomicLong();
+        volatile boolean writerWaiting;
+        boolean closing;   //已经收到Connection: close的请求，后面的请求不再处理
+        long lastActive = System.nanoTime();
+        long requestStart; //缓冲区里有不完整的请求时，收到它第一个字节的时间，0表示没有
+
+        Conn(SocketChannel channel, Loop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+    }
+
+    private final class Loop implements Runnable {
+        final int index;
+        final Selector selector;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        Loop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel socket) {
+            execute(() -> {
+                try {
+                    Conn conn = new Conn(socket, this);
+                    conn.key = socket.register(selector, SelectionKey.OP_READ, conn);
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                }
+            });
+        }
+
+        //其它线程把任务交给事件循环执行
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.nanoTime();
+            while (running) {
+                try {
+                    selector.select(1000);
+                    long now = System.nanoTime();
+                    if (now - lastSweep >= 1_000_000_000L) {
+                        lastSweep = now;
+                        sweep(now);
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Conn conn = (Conn) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) flush(conn);
+                            if (key.isValid() && key.isReadable()) read(conn);
+                        } catch (IOException | CancelledKeyException e) {
+                            close(conn);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey key : selector.keys()) closeQuietly(key.channel());
+            closeQuietly(selector);
+        }
+
+        //关闭请求收不完的连接和空闲太久的连接
+        private void sweep(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (!(attachment instanceof Conn)) continue;
+                Conn conn = (Conn) attachment;
+                if (conn.requestStart != 0 && now - conn.requestStart > headerTimeoutNanos) close(conn);
+                else if (conn.slots.isEmpty() && now - conn.lastActive > idleTimeoutNanos) close(conn);
+            }
+        }
+
+        private void read(Conn conn) throws IOException {
+            int n = conn.channel.read(conn.in);
+            if (n < 0) {
+                close(conn);
+                return;
+            }
+            conn.lastActive = System.nanoTime();
+            conn.in.flip();
+            while (!conn.closing && parse(conn)) {
+                //管道化：一次读到的多个请求依次处理
+            }
+            if (!conn.channel.isOpen()) return;
+            conn.in.compact();
+            //position是剩下的不完整请求的长度
+            if (conn.in.position() == 0) conn.requestStart = 0;
+            else if (conn.requestStart == 0) conn.requestStart = conn.lastActive;
+            //缓冲区满了还没有一个完整的请求：扩容，超过上限就拒绝
+            if (!conn.in.hasRemaining()) {
+                if (conn.in.capacity() >= MAX_REQUEST) {
+                    reject(conn, 413);
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(MAX_REQUEST, conn.in.capacity() * 2));
+                conn.in.flip();
+                bigger.put(conn.in);
+                conn.in = bigger;
+            }
+        }
+
+        //尝试从缓冲区解析出一个完整的请求，不完整时恢复position并返回false
+        private boolean parse(Conn conn) {
+            ByteBuffer in = conn.in;
+            int start = in.position();
+            int end = headerEnd(in, start, in.limit());
+            if (end < 0) return false;
+            String head = new String(in.array(), start, end - start, StandardCharsets.ISO_8859_1);
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                reject(conn, 400);
+                return false;
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+            }
+            if (headers.containsKey("transfer-encoding")) {
+                reject(conn, 501);
+                return false;
+            }
+            int length = 0;
+            if (headers.containsKey("content-length")) {
+                try {
+                    length = Integer.parseInt(headers.get("content-length"));
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+                if (length < 0 || length > MAX_REQUEST) {
+                    reject(conn, length < 0 ? 400 : 413);
+                    return false;
+                }
+            }
+            int bodyStart = end + 4;
+            if (in.limit() - bodyStart < length) {
+                in.position(start);
+                return false;
+            }
+            byte[] body = Arrays.copyOfRange(in.array(), bodyStart, bodyStart + length);
+            in.position(bodyStart + length);
+            dispatch(conn, new Request(requestLine[0], requestLine[1], requestLine[2], headers, body));
+            return true;
+        }
+
+        private int headerEnd(ByteBuffer in, int from, int to) {
+            byte[] a = in.array();
+            for (int i = from; i + 3 < to; i++) {
+                if (a[i] == '\r' && a[i + 1] == '\n' && a[i + 2] == '\r' && a[i + 3] == '\n') return i;
+            }
+            return -1;
+        }
+
+        private void dispatch(Conn conn, Request request) {
+            Slot slot = new Slot();
+            slot.close = !request.keepAlive();
+            conn.slots.add(slot);
+            if (slot.close) conn.closing = true;
+            boolean head = request.method.equals("HEAD");
+            Route route = route(request.path);
+            if (route == null || !(request.method.equals("GET") || head)) {
+                Response response = new Response().status(route == null ? 404 : 405).body(route == null ? "Not Found" : "Method Not Allowed");
+                complete(conn, slot, response.encode(!slot.close, head));
+                return;
+            }
+            if (!route.blocking) {
+                complete(conn, slot, invoke(route, request).encode(!slot.close, head));
+                return;
+            }
+            workers.execute(() -> respond(conn, slot, route, request, head));
+        }
+
+        //在工作线程中执行处理器，分块边生成边发送
+        private void respond(Conn conn, Slot slot, Route route, Request request, boolean head) {
+            Response response = new Response();
+            response.sink = bytes -> send(conn, slot, bytes);
+            response.keepAlive = !slot.close;
+            response.head = head;
+            try {
+                route.handler.handle(request, response);
+            } catch (Exception e) {
+                if (response.started) {
+                    //响应头已经发出去了，只能断开连接，客户端收不到结束块就知道响应不完整
+                    if (conn.channel.isOpen()) e.printStackTrace();
+                    execute(() -> {
+                        slot.close = true;
+                        append(conn, slot, null, true);
+                    });
+                    return;
+                }
+                response = new Response().status(500).body("Internal Server Error");
+                e.printStackTrace();
+            }
+            byte[] bytes = response.started ? (head ? new byte[0] : LAST_CHUNK) : response.encode(!slot.close, head);
+            conn.unsent.addAndGet(bytes.length);
+            execute(() -> append(conn, slot, bytes, true));
+        }
+
+        //工作线程发送一部分响应，事件循环积压太多时等待
+        private void send(Conn conn, Slot slot, byte[] bytes) throws IOException {
+            if (conn.unsent.get() >= MAX_PENDING_OUT) {
+                synchronized (conn) {
+                    while (conn.unsent.get() >= MAX_PENDING_OUT && conn.channel.isOpen()) {
+                        conn.writerWaiting = true;
+                        try {
+                            conn.wait(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("等待客户端读取时被中断");
+                        }
+                    }
+                }
+            }
+            if (!conn.channel.isOpen()) throw new IOException("客户端已断开");
+            conn.unsent.addAndGet(bytes.length);
+            execute(() -> append(conn, slot, bytes, false));
+        }
+
+        private Response invoke(Route route, Request request) {
+            Response response = new Response();
+            try {
+                route.handler.handle(request, response);
+            } catch (Exception e) {
+                response = new Response().status(500).body("Internal Server Error");
+                e.printStackTrace();
+            }
+            return response;
+        }
+
+        //在事件循环中填好一个完整的响应
+        private void complete(Conn conn, Slot slot, byte[] data) {
+            conn.unsent.addAndGet(data.length);
+            append(conn, slot, data, true);
+        }
+
+        //给响应追加数据（last表示响应结束），然后把排在最前面的响应里已有的数据依次写出
+        private void append(Conn conn, Slot slot, byte[] data, boolean last) {
+            if (data != null && data.length > 0) slot.parts.add(data);
+            if (last) slot.done = true;
+            if (!conn.channel.isOpen()) return;
+            while (!conn.slots.isEmpty()) {
+                Slot first = conn.slots.peek();
+                for (byte[] part; (part = first.parts.poll()) != null; ) conn.out.add(ByteBuffer.wrap(part));
+                if (!first.done) break;
+                conn.slots.poll();
+                if (first.close) {
+                    conn.slots.clear();
+                    conn.closing = true;
+                    conn.out.add(CLOSE);
+                    break;
+                }
+            }
+            try {
+                flush(conn);
+            } catch (IOException e) {
+                close(conn);
+            }
+        }
+
+        private void flush(Conn conn) throws IOException {
+            while (!conn.out.isEmpty()) {
+                ByteBuffer buffer = conn.out.peek();
+                if (buffer == CLOSE) {
+                    close(conn);
+                    return;
+                }
+                int n = conn.channel.write(buffer);
+                if (n > 0) {
+                    conn.unsent.addAndGet(-n);
+                    conn.lastActive = System.nanoTime();
+                }
+                if (buffer.hasRemaining()) break;
+                conn.out.poll();
+            }
+            if (conn.writerWaiting && conn.unsent.get() < MAX_PENDING_OUT) wakeWriter(conn);
+            if (!conn.key.isValid()) return;
+            int ops = 0;
+            if (!conn.out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            //写不出去的数据太多时先不读新的请求，避免慢客户端占用大量内存
+            if (!conn.closing && conn.unsent.get() < MAX_PENDING_OUT) ops |= SelectionKey.OP_READ;
+            conn.key.interestOps(ops);
+        }
+
+        private void wakeWriter(Conn conn) {
+            synchronized (conn) {
+                conn.writerWaiting = false;
+                conn.notifyAll();
+            }
+        }
+
+        private void reject(Conn conn, int status) {
+            conn.closing = true;
+            Slot slot = new Slot();
+            slot.close = true;
+            conn.slots.add(slot);
+            complete(conn, slot, new Response().status(status).body(Response.reason(status)).encode(false, false));
+        }
+
+        private void close(Conn conn) {
+            if (conn.key != null) conn.key.cancel();
+            closeQuietly(conn.channel);
+            if (conn.writerWaiting) wakeWriter(conn);
+        }
+    }
+
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+    private static void closeQuietly(java.io.Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -1,38 +1,111 @@
 package com.network;
 
+import com.Mybatis.MybatisUtil;
+import com.Mybatis.TestMapper;
+import com.jdbc.Student;
+import org.apache.ibatis.session.SqlSession;
+
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 public class Http_xyc {
-    public static void main(String[] args) {
-        try(ServerSocket server = new ServerSocket(8080)){
-            System.out.println("正在等待客户连接。。。");
-            //当没有客户端连接时，线程会阻塞，直到有客户端连接为止
-            Socket socket = server.accept();
-            System.out.println("客户端已经连接：" + socket.getInetAddress().getHostAddress());
-            //InputStream in = socket.getInputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            System.out.println("接收到客户端数据：");
-//            while(true){
-//                int i = in.read();
-//                if(i == -1)break;
-//                System.out.print((char) i);
+    //最初的写法：只接收一个连接，用reader.ready()读请求，回复一次hello world后就退出
+//    public static void main(String[] args) {
+//        try(ServerSocket server = new ServerSocket(8080)){
+//            System.out.println("正在等待客户连接。。。");
+//            //当没有客户端连接时，线程会阻塞，直到有客户端连接为止
+//            Socket socket = server.accept();
+//            System.out.println("客户端已经连接：" + socket.getInetAddress().getHostAddress());
+//            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+//            System.out.println("接收到客户端数据：");
+//            //ready是判断当前流中是否还有可读内容
+//            while(reader.ready()){
+//                System.out.println(reader.readLine());
 //            }
-            //ready是判断当前流中是否还有可读内容
-            while(reader.ready()){
-                System.out.println(reader.readLine());
+//            //按照HTTP协议的规则，返回一个规范的响应文本
+//            OutputStreamWriter writer = new OutputStreamWriter(socket.getOutputStream());
+//            //200是响应码，Http协议规定200为接受请求，400为错误的请求，404为找不到此资源（不止这些，还有很多）
+//            writer.write("HTTP/1.1 200 Accepted\r\n");
+//            //在请求头写完之后还要进行一次换行，然后写入我们的响应实体（会在浏览器上展示的内容）
+//            writer.write("\r\n");
+//            writer.write("hello world");
+//            writer.flush();
+//        } catch (IOException e) {
+//            throw new RuntimeException(e);
+//        }
+//    }
+
+    //现在改为使用HttpServer：可以同时处理很多连接，支持keep-alive
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        HttpServer server = new HttpServer(8080, cores, 10)
+                .get("/", (request, response) -> response.body("hello world"))
+                //全部学生：用流式查询边读边输出分块，不用等整张表查完
+                .getBlocking("/students", (request, response) -> {
+                    response.contentType("application/json; charset=utf-8");
+                    try (Stream<Student> stream = MybatisUtil.streamStudent()) {
+                        StringBuilder sb = new StringBuilder(8192).append('[');
+                        boolean first = true;
+                        for (Iterator<Student> it = stream.iterator(); it.hasNext(); ) {
+                            if (!first) sb.append(',');
+                            first = false;
+                            toJson(sb, it.next());
+                            if (sb.length() >= 8192) {
+                                response.chunk(sb.toString().getBytes(StandardCharsets.UTF_8));
+                                sb.setLength(0);
+                            }
+                        }
+                        response.chunk(sb.append(']').toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                })
+                //单个学生：/students/1001
+                .getBlockingPrefix("/students/", (request, response) -> {
+                    int sid;
+                    try {
+                        sid = Integer.parseInt(request.path.substring("/students/".length()));
+                    } catch (NumberFormatException e) {
+                        response.status(400).body("错误的学号");
+                        return;
+                    }
+                    try (SqlSession session = MybatisUtil.getSession(true)) {
+                        Student student = session.getMapper(TestMapper.class).getStudentBySid(sid);
+                        if (student == null) {
+                            response.status(404).body("没有这个学生");
+                            return;
+                        }
+                        response.contentType("application/json; charset=utf-8")
+                                .body(toJson(new StringBuilder(), student).toString());
+                    }
+                });
+        server.start();
+        System.out.println("HTTP服务已启动：http://localhost:" + server.getPort() + "/students");
+        Thread.currentThread().join();
+    }
+
+    static StringBuilder toJson(StringBuilder sb, Student student) {
+        sb.append("{\"sid\":").append(student.getSid()).append(",\"name\":");
+        string(sb, student.getName()).append(",\"sex\":");
+        return string(sb, student.getSex()).append('}');
+    }
+
+    private static StringBuilder string(StringBuilder sb, String s) {
+        if (s == null) return sb.append("null");
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
             }
-            //按照HTTP协议的规则，返回一个规范的响应文本
-            OutputStreamWriter writer = new OutputStreamWriter(socket.getOutputStream());
-            //200是响应码，Http协议规定200为接受请求，400为错误的请求，404为找不到此资源（不止这些，还有很多）
-            writer.write("HTTP/1.1 200 Accepted\r\n");
-            //在请求头写完之后还要进行一次换行，然后写入我们的响应实体（会在浏览器上展示的内容）
-            writer.write("\r\n");
-            writer.write("hello world");
-            writer.flush();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        return sb.append('"');
     }
 }
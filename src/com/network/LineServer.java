@@ -0,0 +1,204 @@
+package com.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+//按行收发消息的服务端（Main_A的升级版）
+//Main_A用阻塞的BufferedReader，一个线程只能服务一个客户端，读一行回复一次就关闭了。
+//这里用非阻塞通道 + Selector，几个线程就能同时服务成千上万个客户端：
+// - 以换行符分隔消息，一次没读完的半行留在缓冲区里，等后面的数据到了再拼起来
+// - 每个连接有自己的写队列，写不完的等可写时再写
+// - 写队列积压超过上限就暂停读取这个连接（背压），降到下限以下再恢复，读得慢的客户端不会把内存撑爆
+//Main_B可以直接连接这个服务端
+public class LineServer implements AutoCloseable {
+
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int HIGH_WATER = 256 * 1024;
+    private static final int LOW_WATER = 64 * 1024;
+
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final Function<String, String> handler;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * @param handler 收到一行消息后返回要回复的内容（不需要带换行符），返回null表示不回复
+     */
+    public LineServer(int port, int threads, Function<String, String> handler) throws IOException {
+        this.handler = handler;
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 4096);
+        this.loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) loops[i] = new Loop();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public void start() {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "line-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread acceptor = new Thread(() -> {
+            while (running) {
+                try {
+                    SocketChannel socket = server.accept();
+                    socket.configureBlocking(false);
+                    loops[Math.floorMod(next.getAndIncrement(), loops.length)].register(socket);
+                } catch (IOException e) {
+                    if (running) e.printStackTrace();
+                }
+            }
+        }, "line-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (Loop loop : loops) loop.selector.wakeup();
+    }
+
+    private static final class Conn {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        long pendingOut;
+        boolean paused;
+
+        Conn(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final class Loop implements Runnable {
+        final Selector selector;
+        final ConcurrentLinkedQueue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+
+        Loop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel socket) {
+            incoming.add(socket);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel socket;
+                    while ((socket = incoming.poll()) != null) {
+                        Conn conn = new Conn(socket);
+                        conn.key = socket.register(selector, SelectionKey.OP_READ, conn);
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Conn conn = (Conn) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) flush(conn);
+                            if (key.isValid() && key.isReadable()) read(conn);
+                        } catch (IOException | CancelledKeyException e) {
+                            close(conn);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void read(Conn conn) throws IOException {
+            int n = conn.channel.read(conn.in);
+            if (n < 0) {
+                close(conn);
+                return;
+            }
+            ByteBuffer in = conn.in;
+            in.flip();
+            byte[] a = in.array();
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (a[i] != '\n') continue;
+                int end = i > start && a[i - 1] == '\r' ? i - 1 : i;
+                String reply = handler.apply(new String(a, start, end - start, StandardCharsets.UTF_8));
+                if (reply != null) {
+                    byte[] bytes = (reply + "\n").getBytes(StandardCharsets.UTF_8);
+                    conn.out.add(ByteBuffer.wrap(bytes));
+                    conn.pendingOut += bytes.length;
+                }
+                start = i + 1;
+            }
+            in.position(start);
+            in.compact();
+            //一行太长还没有换行符：扩容，超过上限就断开
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= MAX_LINE) {
+                    close(conn);
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                bigger.put(in);
+                conn.in = bigger;
+            }
+            flush(conn);
+        }
+
+        private void flush(Conn conn) throws IOException {
+            while (!conn.out.isEmpty()) {
+                ByteBuffer buffer = conn.out.peek();
+                conn.pendingOut -= conn.channel.write(buffer);
+                if (buffer.hasRemaining()) break;
+                conn.out.poll();
+            }
+            //背压：积压太多时暂停读取，降下来后再恢复
+            if (conn.pendingOut > HIGH_WATER) conn.paused = true;
+            else if (conn.pendingOut < LOW_WATER) conn.paused = false;
+            int ops = conn.paused ? 0 : SelectionKey.OP_READ;
+            if (!conn.out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            conn.key.interestOps(ops);
+        }
+
+        private void close(Conn conn) {
+            conn.key.cancel();
+            try {
+                conn.channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        try (LineServer server = new LineServer(8080, Runtime.getRuntime().availableProcessors(), line -> "已收到：" + line)) {
+            server.start();
+            System.out.println("正在等待客户连接。。。");
+            Thread.currentThread().join();
+        }
+    }
+}
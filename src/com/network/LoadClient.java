@@ -0,0 +1,94 @@
+package com.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+//压测客户端（Main_B的升级版）
+//用一个Selector同时打开N个连接，每个连接发一行消息、收到回复后立刻发下一行，
+//统计一段时间内的消息数/秒和每条消息往返延迟的分位数
+//运行：java com.network.LoadClient [连接数] [秒数] [host] [port]
+public class LoadClient {
+
+    private static final byte[] MESSAGE = "你好，服务端\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final class Conn {
+        final ByteBuffer in = ByteBuffer.allocate(4096);
+        final ByteBuffer out = ByteBuffer.wrap(MESSAGE);
+        long sentAt;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String host = args.length > 2 ? args[2] : "localhost";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+        run(host, port, connections, seconds);
+    }
+
+    public static void run(String host, int port, int connections, int seconds) throws IOException {
+        long[] latencies = new long[1 << 22];
+        int count = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.configureBlocking(false);
+                Conn conn = new Conn();
+                conn.sentAt = System.nanoTime();
+                channel.register(selector, SelectionKey.OP_WRITE, conn);
+            }
+            System.out.println("已建立" + connections + "个连接");
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    Conn conn = (Conn) key.attachment();
+                    if (key.isWritable()) {
+                        channel.write(conn.out);
+                        if (!conn.out.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                    } else if (key.isReadable()) {
+                        if (channel.read(conn.in) < 0) {
+                            key.cancel();
+                            continue;
+                        }
+                        //一个回复可能分几次到达，收到换行符才算完整
+                        int lines = 0;
+                        for (int i = 0; i < conn.in.position(); i++) if (conn.in.get(i) == '\n') lines++;
+                        if (lines == 0) continue;
+                        long now = System.nanoTime();
+                        latencies[count++ & (latencies.length - 1)] = now - conn.sentAt;
+                        conn.in.clear();
+                        conn.out.rewind();
+                        conn.sentAt = now;
+                        channel.write(conn.out);
+                        key.interestOps(conn.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                    }
+                }
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            for (SelectionKey key : selector.keys()) key.channel().close();
+            long[] sorted = Arrays.copyOf(latencies, Math.min(count, latencies.length));
+            Arrays.sort(sorted);
+            System.out.printf("消息数=%d  %.0f 条/秒  p50=%dus p99=%dus p99.9=%dus 最大=%dus%n",
+                    count, count / elapsed, percentile(sorted, 50), percentile(sorted, 99),
+                    percentile(sorted, 99.9), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000;
+    }
+}